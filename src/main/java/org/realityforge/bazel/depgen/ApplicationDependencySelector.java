@@ -0,0 +1,297 @@
+package org.realityforge.bazel.depgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+import org.realityforge.bazel.depgen.model.ArtifactModel;
+import org.realityforge.bazel.depgen.model.GlobalExcludeModel;
+import org.realityforge.bazel.depgen.model.ReplacementModel;
+
+/**
+ * The selector used when collecting dependencies. The selector applies the following rules:
+ *
+ * <ul>
+ *   <li>Dependencies that are not in the compile or runtime scope are not selected.</li>
+ *   <li>Dependencies that match a global exclude or an exclusion declared by an ancestor are not selected.</li>
+ *   <li>The children of a replacement dependency are not selected. The replacement appears in the graph
+ *   but the children of the replacement do not influence the shape of the graph.</li>
+ *   <li>The children of an optional dependency are not selected unless includeOptional is configured for the
+ *   artifact.</li>
+ * </ul>
+ *
+ * <p>The keys consulted by the rules are derived from the model when the selector is created and are shared by
+ * every derived selector so that deriving a selector for each edge of the graph neither consults the model nor
+ * allocates unless the dependency declares exclusions.</p>
+ */
+final class ApplicationDependencySelector
+  implements DependencySelector
+{
+  /**
+   * The order used by {@link org.eclipse.aether.util.graph.selector.ExclusionDependencySelector} so that
+   * derived selectors that inherit the same exclusions are equal.
+   */
+  @Nonnull
+  private static final Comparator<Exclusion> EXCLUSION_ORDER =
+    Comparator.comparing( Exclusion::getArtifactId )
+      .thenComparing( Exclusion::getGroupId )
+      .thenComparing( Exclusion::getExtension )
+      .thenComparing( Exclusion::getClassifier );
+  /**
+   * The keys (i.e. "groupId:artifactId") of the global excludes that do not contain wildcards.
+   */
+  @Nonnull
+  private final Set<String> _globalExcludes;
+  /**
+   * The global excludes that contain wildcards. These are matched field by field.
+   */
+  @Nonnull
+  private final Exclusion[] _globalExcludePatterns;
+  /**
+   * The keys of the replacements.
+   */
+  @Nonnull
+  private final Set<String> _replacements;
+  /**
+   * The keys of the artifacts that include optional dependencies.
+   */
+  @Nonnull
+  private final Set<String> _includeOptional;
+  /**
+   * The exclusions declared by the ancestors of the dependency, sorted by {@link #EXCLUSION_ORDER}.
+   */
+  @Nonnull
+  private final Exclusion[] _exclusions;
+  private int _hashCode;
+
+  @Nonnull
+  static ApplicationDependencySelector create( @Nonnull final ApplicationModel model )
+  {
+    final Set<String> globalExcludes = new HashSet<>();
+    final List<Exclusion> globalExcludePatterns = new ArrayList<>();
+    for ( final GlobalExcludeModel exclude : model.getExcludes() )
+    {
+      if ( "*".equals( exclude.getGroup() ) || "*".equals( exclude.getId() ) )
+      {
+        globalExcludePatterns.add( new Exclusion( exclude.getGroup(), exclude.getId(), "*", "*" ) );
+      }
+      else
+      {
+        globalExcludes.add( toKey( exclude.getGroup(), exclude.getId() ) );
+      }
+    }
+    final Set<String> replacements = new HashSet<>();
+    for ( final ReplacementModel replacement : model.getReplacements() )
+    {
+      replacements.add( toKey( replacement.getGroup(), replacement.getId() ) );
+    }
+    final Set<String> includeOptional = new HashSet<>();
+    for ( final ArtifactModel artifact : model.getArtifacts() )
+    {
+      addIfIncludesOptional( model, artifact, includeOptional );
+    }
+    for ( final ArtifactModel artifact : model.getSystemArtifacts() )
+    {
+      addIfIncludesOptional( model, artifact, includeOptional );
+    }
+    return new ApplicationDependencySelector( Collections.unmodifiableSet( globalExcludes ),
+                                              globalExcludePatterns.toArray( new Exclusion[ 0 ] ),
+                                              Collections.unmodifiableSet( replacements ),
+                                              Collections.unmodifiableSet( includeOptional ),
+                                              new Exclusion[ 0 ] );
+  }
+
+  private static void addIfIncludesOptional( @Nonnull final ApplicationModel model,
+                                             @Nonnull final ArtifactModel artifact,
+                                             @Nonnull final Set<String> includeOptional )
+  {
+    // Consult the artifact returned by the model for the key in case multiple artifacts share the key
+    final ArtifactModel declared = model.findArtifact( artifact.getGroup(), artifact.getId() );
+    if ( null != declared && declared.includeOptional() )
+    {
+      includeOptional.add( toKey( artifact.getGroup(), artifact.getId() ) );
+    }
+  }
+
+  private ApplicationDependencySelector( @Nonnull final Set<String> globalExcludes,
+                                         @Nonnull final Exclusion[] globalExcludePatterns,
+                                         @Nonnull final Set<String> replacements,
+                                         @Nonnull final Set<String> includeOptional,
+                                         @Nonnull final Exclusion[] exclusions )
+  {
+    _globalExcludes = globalExcludes;
+    _globalExcludePatterns = globalExcludePatterns;
+    _replacements = replacements;
+    _includeOptional = includeOptional;
+    _exclusions = exclusions;
+  }
+
+  @Override
+  public boolean selectDependency( @Nonnull final Dependency dependency )
+  {
+    final String scope = dependency.getScope();
+    if ( !"".equals( scope ) && !"compile".equals( scope ) && !"runtime".equals( scope ) )
+    {
+      return false;
+    }
+    final Artifact artifact = dependency.getArtifact();
+    if ( _globalExcludes.contains( toKey( artifact.getGroupId(), artifact.getArtifactId() ) ) )
+    {
+      return false;
+    }
+    for ( final Exclusion exclusion : _globalExcludePatterns )
+    {
+      if ( matches( exclusion, artifact ) )
+      {
+        return false;
+      }
+    }
+    for ( final Exclusion exclusion : _exclusions )
+    {
+      if ( matches( exclusion, artifact ) )
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public DependencySelector deriveChildSelector( @Nonnull final DependencyCollectionContext context )
+  {
+    final Dependency dependency = context.getDependency();
+    if ( null == dependency )
+    {
+      return this;
+    }
+    final Artifact artifact = dependency.getArtifact();
+    final String key = toKey( artifact.getGroupId(), artifact.getArtifactId() );
+    if ( _replacements.contains( key ) || ( dependency.isOptional() && !_includeOptional.contains( key ) ) )
+    {
+      return RejectDependencySelector.INSTANCE;
+    }
+    final Exclusion[] exclusions = merge( dependency.getExclusions() );
+    return exclusions == _exclusions ?
+           this :
+           new ApplicationDependencySelector( _globalExcludes,
+                                              _globalExcludePatterns,
+                                              _replacements,
+                                              _includeOptional,
+                                              exclusions );
+  }
+
+  /**
+   * Return the exclusions inherited by the children of a dependency that declares the specified exclusions.
+   * The current exclusions are returned if the dependency adds no exclusions that are not already applied.
+   */
+  @Nonnull
+  private Exclusion[] merge( @Nonnull final Collection<Exclusion> exclusions )
+  {
+    Exclusion[] merged = _exclusions;
+    for ( final Exclusion exclusion : exclusions )
+    {
+      if ( !isGlobalExclude( exclusion ) )
+      {
+        final int index = Arrays.binarySearch( merged, exclusion, EXCLUSION_ORDER );
+        if ( index < 0 )
+        {
+          final int insertionPoint = -( index + 1 );
+          final Exclusion[] expanded = new Exclusion[ merged.length + 1 ];
+          System.arraycopy( merged, 0, expanded, 0, insertionPoint );
+          expanded[ insertionPoint ] = exclusion;
+          System.arraycopy( merged, insertionPoint, expanded, insertionPoint + 1, merged.length - insertionPoint );
+          merged = expanded;
+        }
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Return true if the exclusion is already applied as a global exclude.
+   */
+  private boolean isGlobalExclude( @Nonnull final Exclusion exclusion )
+  {
+    if ( !"*".equals( exclusion.getClassifier() ) || !"*".equals( exclusion.getExtension() ) )
+    {
+      return false;
+    }
+    else if ( _globalExcludes.contains( toKey( exclusion.getGroupId(), exclusion.getArtifactId() ) ) )
+    {
+      return true;
+    }
+    for ( final Exclusion pattern : _globalExcludePatterns )
+    {
+      // The pattern must match every artifact that the exclusion matches
+      if ( matches( pattern.getGroupId(), exclusion.getGroupId() ) &&
+           matches( pattern.getArtifactId(), exclusion.getArtifactId() ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matches( @Nonnull final Exclusion exclusion, @Nonnull final Artifact artifact )
+  {
+    return matches( exclusion.getArtifactId(), artifact.getArtifactId() ) &&
+           matches( exclusion.getGroupId(), artifact.getGroupId() ) &&
+           matches( exclusion.getExtension(), artifact.getExtension() ) &&
+           matches( exclusion.getClassifier(), artifact.getClassifier() );
+  }
+
+  private static boolean matches( @Nonnull final String pattern, @Nonnull final String value )
+  {
+    return "*".equals( pattern ) || pattern.equals( value );
+  }
+
+  @Nonnull
+  private static String toKey( @Nonnull final String groupId, @Nonnull final String artifactId )
+  {
+    return groupId + ":" + artifactId;
+  }
+
+  @Override
+  public boolean equals( final Object o )
+  {
+    if ( this == o )
+    {
+      return true;
+    }
+    else if ( null == o || getClass() != o.getClass() )
+    {
+      return false;
+    }
+    else
+    {
+      // The key sets are shared by every selector derived from the same model
+      final ApplicationDependencySelector that = (ApplicationDependencySelector) o;
+      return _globalExcludes == that._globalExcludes &&
+             _globalExcludePatterns == that._globalExcludePatterns &&
+             _replacements == that._replacements &&
+             _includeOptional == that._includeOptional &&
+             Arrays.equals( _exclusions, that._exclusions );
+    }
+  }
+
+  @Override
+  public int hashCode()
+  {
+    if ( 0 == _hashCode )
+    {
+      _hashCode = 31 * System.identityHashCode( _globalExcludes ) + Arrays.hashCode( _exclusions );
+    }
+    return _hashCode;
+  }
+}
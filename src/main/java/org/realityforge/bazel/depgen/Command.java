@@ -60,6 +60,14 @@ abstract class Command
     return false;
   }
 
+  /**
+   * Return true if the command may be forwarded to a server started via the server command.
+   */
+  boolean mayRunInServer()
+  {
+    return false;
+  }
+
   boolean processOptions( @Nonnull final Environment environment, @Nonnull final String... args )
   {
     if ( args.length > 0 )
@@ -0,0 +1,248 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.DefaultRepositoryCache;
+
+/**
+ * A resident process that runs commands on behalf of clients connected via a unix domain socket.
+ * The server keeps the JVM, the repository system, the session cache of the resolver (i.e. the parsed
+ * poms) and the metadata registry warm between commands. The session cache is discarded after a command
+ * that resolves a version range or a snapshot version as the resolution of these versions may change.
+ * Commands are run one at a time in the order that they are received.
+ *
+ * <p>The client sends the directory from which the command was invoked followed by the arguments. The server
+ * responds with a frame for every log message emitted while running the command, followed by a frame
+ * containing the exit code of the command.</p>
+ */
+final class DepgenServer
+{
+  private static final int LOG_FRAME = 0;
+  private static final int EXIT_FRAME = 1;
+  @Nonnull
+  private final Path _socket;
+  @Nonnull
+  private final Logger _logger;
+  @Nonnull
+  private DefaultRepositoryCache _sessionCache = new DefaultRepositoryCache();
+
+  DepgenServer( @Nonnull final Path socket, @Nonnull final Logger logger )
+  {
+    _socket = Objects.requireNonNull( socket );
+    _logger = Objects.requireNonNull( logger );
+  }
+
+  /**
+   * Listen on the socket and run the commands sent by clients until the channel is closed.
+   *
+   * @param channel the channel on which to listen.
+   */
+  void serve( @Nonnull final ServerSocketChannel channel )
+  {
+    while ( channel.isOpen() )
+    {
+      try ( final SocketChannel client = channel.accept() )
+      {
+        handle( client );
+      }
+      catch ( final AsynchronousCloseException ignored )
+      {
+        // The server has been stopped
+      }
+      catch ( final IOException ioe )
+      {
+        _logger.log( Level.WARNING, "Error communicating with client: " + ioe, ioe );
+      }
+    }
+  }
+
+  /**
+   * Open a channel listening on the socket, replacing any socket left behind by a previous server.
+   *
+   * @return the channel.
+   * @throws IOException if there is an error binding to the socket.
+   */
+  @Nonnull
+  ServerSocketChannel bind()
+    throws IOException
+  {
+    Files.deleteIfExists( _socket );
+    final ServerSocketChannel channel = ServerSocketChannel.open( StandardProtocolFamily.UNIX );
+    channel.bind( UnixDomainSocketAddress.of( _socket ) );
+    return channel;
+  }
+
+  private void handle( @Nonnull final SocketChannel client )
+    throws IOException
+  {
+    final DataInputStream input = new DataInputStream( Channels.newInputStream( client ) );
+    final DataOutputStream output = new DataOutputStream( Channels.newOutputStream( client ) );
+    final Path directory = Paths.get( input.readUTF() );
+    final String[] args = new String[ input.readInt() ];
+    for ( int i = 0; i < args.length; i++ )
+    {
+      args[ i ] = input.readUTF();
+    }
+
+    final Logger logger = Logger.getAnonymousLogger();
+    logger.setUseParentHandlers( false );
+    logger.addHandler( new ClientHandler( output ) );
+    logger.setLevel( Level.INFO );
+
+    final Environment environment = new Environment( null, directory, logger );
+    final int exitCode = run( environment, args );
+
+    output.writeByte( EXIT_FRAME );
+    output.writeInt( exitCode );
+    output.flush();
+  }
+
+  private int run( @Nonnull final Environment environment, @Nonnull final String... args )
+  {
+    if ( !Main.processOptions( environment, args ) )
+    {
+      return ExitCodes.ERROR_PARSING_ARGS_EXIT_CODE;
+    }
+    else if ( !environment.getCommand().mayRunInServer() )
+    {
+      environment.logger()
+        .log( Level.SEVERE, "Error: The " + environment.getCommand().getName() + " command can not be run by server." );
+      return ExitCodes.ERROR_PARSING_ARGS_EXIT_CODE;
+    }
+    else
+    {
+      if ( environment.shouldResetCachedMetadata() )
+      {
+        _sessionCache = new DefaultRepositoryCache();
+      }
+      environment.setSessionCache( _sessionCache );
+      _logger.log( Level.FINE, "Running command " + environment.getCommand().getName() +
+                               " in " + environment.currentDirectory() );
+      final int exitCode = Main.runCommand( environment );
+      if ( environment.isSessionCacheStale() )
+      {
+        // Resolve version ranges and snapshot versions afresh in the next command
+        _sessionCache = new DefaultRepositoryCache();
+      }
+      return exitCode;
+    }
+  }
+
+  /**
+   * Run the command via the server listening on the specified socket.
+   *
+   * @param environment the environment of the client.
+   * @param socket      the socket on which the server is listening.
+   * @param directory   the directory from which the command was invoked.
+   * @param args        the arguments.
+   * @return the exit code of the command.
+   * @throws IOException if unable to communicate with the server.
+   */
+  static int forward( @Nonnull final Environment environment,
+                      @Nonnull final Path socket,
+                      @Nonnull final Path directory,
+                      @Nonnull final String... args )
+    throws IOException
+  {
+    try ( final SocketChannel channel = SocketChannel.open( UnixDomainSocketAddress.of( socket ) ) )
+    {
+      final DataOutputStream output = new DataOutputStream( Channels.newOutputStream( channel ) );
+      output.writeUTF( directory.toString() );
+      output.writeInt( args.length );
+      for ( final String arg : args )
+      {
+        output.writeUTF( arg );
+      }
+      output.flush();
+
+      final DataInputStream input = new DataInputStream( Channels.newInputStream( channel ) );
+      while ( true )
+      {
+        final int frame = input.readByte();
+        if ( LOG_FRAME == frame )
+        {
+          final Level level = Level.parse( String.valueOf( input.readInt() ) );
+          environment.logger().log( level, input.readUTF() );
+        }
+        else
+        {
+          assert EXIT_FRAME == frame;
+          return input.readInt();
+        }
+      }
+    }
+  }
+
+  /**
+   * The handler that sends the log messages emitted while running a command to the client.
+   */
+  private static final class ClientHandler
+    extends Handler
+  {
+    @Nonnull
+    private final DataOutputStream _output;
+
+    ClientHandler( @Nonnull final DataOutputStream output )
+    {
+      _output = output;
+      setFormatter( new RawFormatter() );
+      setLevel( Level.ALL );
+    }
+
+    @Override
+    public synchronized void publish( final LogRecord record )
+    {
+      if ( isLoggable( record ) )
+      {
+        final String message = getFormatter().format( record );
+        try
+        {
+          _output.writeByte( LOG_FRAME );
+          _output.writeInt( record.getLevel().intValue() );
+          // The formatter terminates the message with a newline which the client formatter will add
+          _output.writeUTF( message.substring( 0, message.length() - 1 ) );
+        }
+        catch ( final IOException ioe )
+        {
+          reportError( null, ioe, ErrorManager.WRITE_FAILURE );
+        }
+      }
+    }
+
+    @Override
+    public synchronized void flush()
+    {
+      try
+      {
+        _output.flush();
+      }
+      catch ( final IOException ioe )
+      {
+        reportError( null, ioe, ErrorManager.FLUSH_FAILURE );
+      }
+    }
+
+    @Override
+    public void close()
+    {
+      flush();
+    }
+  }
+}
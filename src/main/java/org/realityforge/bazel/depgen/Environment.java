@@ -6,6 +6,10 @@ import java.util.Objects;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.eclipse.aether.RepositoryCache;
+import org.realityforge.bazel.depgen.util.BazelInfo;
+import org.realityforge.bazel.depgen.util.BazelInfoProvider;
+import org.realityforge.bazel.depgen.util.CachedBazelInfoProvider;
 
 final class Environment
 {
@@ -26,6 +30,21 @@ final class Environment
   @Nullable
   private Command _command;
   private boolean _resetCachedMetadata;
+  private boolean _useMetadataIndex;
+  private boolean _offline;
+  @Nonnull
+  private BazelInfoProvider _bazelInfoProvider = CachedBazelInfoProvider.create();
+  @Nullable
+  private BazelInfo _bazelInfo;
+  @Nullable
+  private Path _serverSocket;
+  @Nullable
+  private RepositoryCache _sessionCache;
+  /**
+   * True if the session cache may contain results that change over time, such as the resolution of
+   * version ranges or snapshot versions, and must not be shared with subsequent commands.
+   */
+  private boolean _sessionCacheStale;
 
   Environment( @Nullable final Console console, @Nonnull final Path currentDirectory, @Nonnull final Logger logger )
   {
@@ -43,6 +62,7 @@ final class Environment
   public void setCurrentDirectory( @Nonnull final Path currentDirectory )
   {
     _currentDirectory = Objects.requireNonNull( currentDirectory );
+    _bazelInfo = null;
   }
 
   @Nonnull
@@ -151,4 +171,86 @@ final class Environment
   {
     _resetCachedMetadata = true;
   }
+
+  boolean useMetadataIndex()
+  {
+    return _useMetadataIndex;
+  }
+
+  void markUseMetadataIndex()
+  {
+    _useMetadataIndex = true;
+  }
+
+  boolean isOffline()
+  {
+    return _offline;
+  }
+
+  void markOffline()
+  {
+    _offline = true;
+  }
+
+  void setBazelInfoProvider( @Nonnull final BazelInfoProvider bazelInfoProvider )
+  {
+    _bazelInfoProvider = Objects.requireNonNull( bazelInfoProvider );
+    _bazelInfo = null;
+  }
+
+  /**
+   * Return the bazel info for the current directory.
+   * The provider is consulted at most once for each current directory.
+   */
+  @Nonnull
+  BazelInfo getBazelInfo()
+  {
+    if ( null == _bazelInfo )
+    {
+      _bazelInfo = _bazelInfoProvider.getBazelInfo( _currentDirectory );
+    }
+    return _bazelInfo;
+  }
+
+  boolean hasServerSocket()
+  {
+    return null != _serverSocket;
+  }
+
+  @Nonnull
+  Path getServerSocket()
+  {
+    assert null != _serverSocket;
+    return _serverSocket;
+  }
+
+  void setServerSocket( @Nullable final Path serverSocket )
+  {
+    _serverSocket = serverSocket;
+  }
+
+  /**
+   * Return the cache shared by the repository sessions created in the environment, if any.
+   * The cache is only present when the command is run by a {@link DepgenServer}.
+   */
+  @Nullable
+  RepositoryCache getSessionCache()
+  {
+    return _sessionCache;
+  }
+
+  void setSessionCache( @Nullable final RepositoryCache sessionCache )
+  {
+    _sessionCache = sessionCache;
+  }
+
+  boolean isSessionCacheStale()
+  {
+    return _sessionCacheStale;
+  }
+
+  void setSessionCacheStale( final boolean sessionCacheStale )
+  {
+    _sessionCacheStale = sessionCacheStale;
+  }
 }
@@ -6,18 +6,17 @@ import org.eclipse.aether.util.artifact.SubArtifact;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.model.ArtifactModel;
 
-final class ExternalAnnotationsDownloaderVisitor
-  extends PeerArtifactDownloaderVisitor
+final class ExternalAnnotationsPeerArtifactType
+  extends PeerArtifactType
 {
-  ExternalAnnotationsDownloaderVisitor( @Nonnull final Resolver resolver, @Nonnull final ApplicationModel model )
+  ExternalAnnotationsPeerArtifactType()
   {
-    super( resolver, model, "annotations.present", Constants.EXTERNAL_ANNOTATIONS_ARTIFACT_FILENAME );
+    super( "annotations.present", Constants.EXTERNAL_ANNOTATIONS_ARTIFACT_FILENAME );
   }
 
   @Override
-  boolean shouldDownloadPeerArtifact( @Nonnull final Artifact artifact )
+  boolean shouldDownloadPeerArtifact( @Nonnull final ApplicationModel model, @Nonnull final Artifact artifact )
   {
-    final ApplicationModel model = getModel();
     final ArtifactModel artifactModel = model.findArtifact( artifact.getGroupId(), artifact.getArtifactId() );
     final boolean include = model.getOptions().includeExternalAnnotations();
     return null == artifactModel ? include : artifactModel.includeExternalAnnotations( include );
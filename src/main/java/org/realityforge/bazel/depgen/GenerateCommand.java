@@ -1,9 +1,30 @@
 package org.realityforge.bazel.depgen;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.metadata.DepgenMetadataRegistry;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+import org.realityforge.bazel.depgen.model.ArtifactModel;
 import org.realityforge.bazel.depgen.model.OptionsModel;
+import org.realityforge.bazel.depgen.model.RepositoryModel;
 import org.realityforge.bazel.depgen.record.ApplicationRecord;
+import org.realityforge.bazel.depgen.record.ArtifactRecord;
+import org.realityforge.bazel.depgen.util.HashUtil;
 import org.realityforge.bazel.depgen.util.StarlarkOutput;
 
 final class GenerateCommand
@@ -11,6 +32,16 @@ final class GenerateCommand
 {
   @Nonnull
   static final String COMMAND = "generate";
+  /**
+   * The directory in the cache directory that contains the fingerprints, keyed by the path to the extension.
+   */
+  @Nonnull
+  static final String FINGERPRINT_DIRECTORY = "_depgen.fingerprints";
+  /**
+   * The key in the fingerprint that lists the sha256 hashes of the files installed into the repository cache.
+   */
+  @Nonnull
+  private static final String REPOSITORY_CACHE_KEY = "repository_cache.sha256";
 
   GenerateCommand()
   {
@@ -27,10 +58,28 @@ final class GenerateCommand
     return true;
   }
 
+  boolean mayRunInServer()
+  {
+    return true;
+  }
+
   @Override
   int run( @Nonnull final Context context )
     throws Exception
   {
+    final Environment environment = context.environment();
+    final ApplicationModel model = context.loadModel();
+    final Path fingerprintFile = getFingerprintFile( environment, model.getOptions().getExtensionFile() );
+    final String inputFingerprint = null != fingerprintFile ? deriveInputFingerprint( environment, model ) : null;
+    if ( null != fingerprintFile &&
+         null != inputFingerprint &&
+         !environment.shouldResetCachedMetadata() &&
+         isUpToDate( environment, model, fingerprintFile, inputFingerprint ) )
+    {
+      environment.logger().log( Level.FINE, "Extension is up to date. Skipping generation." );
+      return ExitCodes.SUCCESS_EXIT_CODE;
+    }
+
     final ApplicationRecord record = context.loadRecord();
     final OptionsModel options = record.getSource().getOptions();
     final Path extensionFile = options.getExtensionFile();
@@ -51,6 +100,7 @@ final class GenerateCommand
       try ( final StarlarkOutput output = new StarlarkOutput( extensionBuildfile ) )
       {
         record.writeDefaultExtensionBuild( output );
+        output.commit();
       }
     }
 
@@ -62,13 +112,248 @@ final class GenerateCommand
       try ( final StarlarkOutput output = new StarlarkOutput( configBuildfile ) )
       {
         record.writeDefaultConfigBuild( output );
+        output.commit();
+      }
+    }
+
+    // The shards are written before the extension so that the extension never loads a missing shard
+    final int shardCount = options.getExtensionShardCount();
+    if ( options.shardExtension() )
+    {
+      for ( int shard = 0; shard < shardCount; shard++ )
+      {
+        try ( final StarlarkOutput output = new StarlarkOutput( options.getExtensionShardFile( shard ) ) )
+        {
+          record.writeBazelExtensionShard( output, shard );
+          output.commit();
+        }
       }
     }
+    deleteStaleShards( options );
 
-    try ( final StarlarkOutput output = new StarlarkOutput( extensionFile ) )
+    final StarlarkOutput output = new StarlarkOutput( extensionFile );
+    try ( output )
     {
       record.writeBazelExtension( output );
+      output.commit();
+    }
+    if ( !output.isChanged() )
+    {
+      environment.logger().log( Level.FINE, "Extension is unchanged. Retained existing extension file." );
+    }
+
+    if ( null != fingerprintFile )
+    {
+      // A version range or snapshot version pulled in transitively may resolve differently on the next run
+      if ( null != inputFingerprint && !Main.hasVolatileVersions( record.getNode() ) )
+      {
+        final String fingerprint =
+          toFingerprint( inputFingerprint, extensionFile ) +
+          REPOSITORY_CACHE_KEY + "=" + String.join( ",", getRepositoryCacheSha256s( record ) ) + "\n";
+        writeFingerprint( fingerprintFile, fingerprint );
+      }
+      else
+      {
+        Files.deleteIfExists( fingerprintFile );
+      }
     }
     return ExitCodes.SUCCESS_EXIT_CODE;
   }
+
+  /**
+   * Write the fingerprint to a temporary file that replaces the fingerprint file so that a concurrent or
+   * interrupted run never leaves a partially written fingerprint.
+   */
+  private void writeFingerprint( @Nonnull final Path fingerprintFile, @Nonnull final String fingerprint )
+    throws IOException
+  {
+    final Path dir = fingerprintFile.getParent();
+    if ( !dir.toFile().exists() && !dir.toFile().mkdirs() )
+    {
+      throw new DepgenException( "Failed to create directory " + dir.toFile() );
+    }
+    final Path tmpFile =
+      fingerprintFile.resolveSibling( "." + fingerprintFile.getFileName() + "." +
+                                      Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+    try
+    {
+      Files.write( tmpFile,
+                   fingerprint.getBytes( StandardCharsets.UTF_8 ),
+                   StandardOpenOption.CREATE_NEW,
+                   StandardOpenOption.WRITE );
+      try
+      {
+        Files.move( tmpFile, fingerprintFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch ( final AtomicMoveNotSupportedException ignored )
+      {
+        Files.move( tmpFile, fingerprintFile, StandardCopyOption.REPLACE_EXISTING );
+      }
+    }
+    finally
+    {
+      Files.deleteIfExists( tmpFile );
+    }
+  }
+
+  /**
+   * Delete the shards left by a previous run that generated more shards than the current configuration.
+   */
+  private void deleteStaleShards( @Nonnull final OptionsModel options )
+    throws IOException
+  {
+    int shard = options.shardExtension() ? options.getExtensionShardCount() : 0;
+    while ( Files.deleteIfExists( options.getExtensionShardFile( shard ) ) )
+    {
+      shard++;
+    }
+  }
+
+  /**
+   * Return the file in which the fingerprint of the inputs used to generate the extension is stored.
+   * The fingerprint describes the state of the local machine so it is stored in the cache directory rather
+   * than alongside the extension. This returns null if there is no cache directory.
+   */
+  @Nullable
+  static Path getFingerprintFile( @Nonnull final Environment environment, @Nonnull final Path extensionFile )
+  {
+    if ( environment.hasCacheDir() )
+    {
+      final String key = extensionFile.toAbsolutePath().normalize().toString();
+      return environment
+        .getCacheDir()
+        .resolve( FINGERPRINT_DIRECTORY )
+        .resolve( HashUtil.sha256( key.getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+    else
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Return true if the previously generated extension and build files are present, the extension has not been
+   * modified since it was generated, the inputs are identical to the inputs used to generate the extension and
+   * the files that were installed into the repository cache when the extension was generated are still present.
+   */
+  private boolean isUpToDate( @Nonnull final Environment environment,
+                              @Nonnull final ApplicationModel model,
+                              @Nonnull final Path fingerprintFile,
+                              @Nonnull final String inputFingerprint )
+    throws IOException
+  {
+    final OptionsModel options = model.getOptions();
+    final Path extensionFile = options.getExtensionFile();
+    if ( options.shardExtension() )
+    {
+      for ( int shard = 0; shard < options.getExtensionShardCount(); shard++ )
+      {
+        if ( !Files.exists( options.getExtensionShardFile( shard ) ) )
+        {
+          return false;
+        }
+      }
+    }
+    if ( !Files.exists( fingerprintFile ) ||
+         !Files.exists( extensionFile ) ||
+         !Files.exists( extensionFile.getParent().resolve( "BUILD.bazel" ) ) ||
+         !Files.exists( model.getConfigLocation().getParent().resolve( "BUILD.bazel" ) ) )
+    {
+      return false;
+    }
+    final String fingerprint = new String( Files.readAllBytes( fingerprintFile ), StandardCharsets.UTF_8 );
+    final String expected = toFingerprint( inputFingerprint, extensionFile ) + REPOSITORY_CACHE_KEY + "=";
+    if ( !fingerprint.startsWith( expected ) || !fingerprint.endsWith( "\n" ) )
+    {
+      return false;
+    }
+    else if ( environment.hasRepositoryCacheDir() )
+    {
+      // The generated repository rules rely upon the files being present in the repository cache
+      final String value = fingerprint.substring( expected.length(), fingerprint.length() - 1 );
+      final RepositoryCache repositoryCache = RepositoryCache.open( environment.getRepositoryCacheDir() );
+      for ( final String sha256 : value.isEmpty() ? new String[ 0 ] : value.split( "," ) )
+      {
+        if ( !repositoryCache.isInstalled( sha256 ) )
+        {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return the sha256 hashes of the files installed into the repository cache by
+   * {@link Main#cacheArtifactsInRepositoryCache(Environment, ApplicationRecord)}.
+   */
+  @Nonnull
+  private List<String> getRepositoryCacheSha256s( @Nonnull final ApplicationRecord record )
+  {
+    final Set<String> sha256s = new TreeSet<>();
+    for ( final ArtifactRecord artifact : record.getArtifacts() )
+    {
+      if ( null == artifact.getReplacementModel() )
+      {
+        sha256s.add( Objects.requireNonNull( artifact.getSha256() ).toLowerCase( Locale.ROOT ) );
+        final String sourceSha256 = artifact.getSourceSha256();
+        if ( null != sourceSha256 )
+        {
+          sha256s.add( sourceSha256.toLowerCase( Locale.ROOT ) );
+        }
+        final String externalAnnotationSha256 = artifact.getExternalAnnotationSha256();
+        if ( null != externalAnnotationSha256 )
+        {
+          sha256s.add( externalAnnotationSha256.toLowerCase( Locale.ROOT ) );
+        }
+      }
+    }
+    return new ArrayList<>( sha256s );
+  }
+
+  @Nonnull
+  private String toFingerprint( @Nonnull final String inputFingerprint, @Nonnull final Path extensionFile )
+    throws IOException
+  {
+    return inputFingerprint + "extension.sha256=" + HashUtil.sha256( extensionFile ) + "\n";
+  }
+
+  /**
+   * Derive a fingerprint of the inputs that determine the content of the extension.
+   * This returns null if the result of resolving the dependencies may change even if the inputs do not change,
+   * such as when an artifact declares a version range or a snapshot version.
+   */
+  @Nullable
+  private String deriveInputFingerprint( @Nonnull final Environment environment,
+                                         @Nonnull final ApplicationModel model )
+    throws IOException
+  {
+    for ( final ArtifactModel artifact : model.getArtifacts() )
+    {
+      final String version = artifact.getVersion();
+      if ( null != version &&
+           ( version.endsWith( "-SNAPSHOT" ) || version.startsWith( "[" ) || version.startsWith( "(" ) ) )
+      {
+        return null;
+      }
+    }
+    final Path settingsFile = environment.hasSettingsFile() ? environment.getSettingsFile() : null;
+    final StringBuilder sb = new StringBuilder();
+    sb.append( "depgen.version=" ).append( DepGenConfig.getVersion() ).append( "\n" );
+    sb.append( "metadata.version=" ).append( DepgenMetadataRegistry.INDEX_VERSION ).append( "\n" );
+    sb.append( "config.sha256=" ).append( model.getConfigSha256() ).append( "\n" );
+    sb.append( "settings.sha256=" )
+      .append( null != settingsFile && Files.exists( settingsFile ) ? HashUtil.sha256( settingsFile ) : "-" )
+      .append( "\n" );
+    for ( final RepositoryModel repository : model.getRepositories() )
+    {
+      sb
+        .append( "repository." )
+        .append( repository.getName() )
+        .append( "=" )
+        .append( repository.getUrl() )
+        .append( "\n" );
+    }
+    return sb.toString();
+  }
 }
@@ -33,6 +33,12 @@ final class HashCommand
     super( COMMAND, "Generate a hash of the content of the dependency configuration.", OPTIONS );
   }
 
+  @Override
+  boolean mayRunInServer()
+  {
+    return true;
+  }
+
   @Override
   boolean processArguments( @Nonnull final Environment environment, @Nonnull final List<CLOption> arguments )
   {
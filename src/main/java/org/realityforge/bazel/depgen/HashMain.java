@@ -0,0 +1,125 @@
+package org.realityforge.bazel.depgen;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.config.ApplicationConfig;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+
+/**
+ * A minimal entry point for the hash command that is invoked by the generated verify target.
+ * The entry point accepts the same arguments as {@link Main} but only loads the configuration and calculates
+ * the sha256 of the configuration. It avoids setting up the environment, parsing the models and loading the
+ * classes of the Maven and Aether libraries. If the arguments are not those of a simple hash command or the
+ * hash does not match the expected value then the arguments are passed to {@link Main} so that the
+ * diagnostic messages are identical to the messages emitted by the hash command.
+ */
+public final class HashMain
+{
+  private HashMain()
+  {
+  }
+
+  public static void main( @Nonnull final String[] args )
+  {
+    final Integer exitCode = run( getCurrentDirectory(), args );
+    if ( null == exitCode )
+    {
+      Main.main( args );
+    }
+    else
+    {
+      System.exit( exitCode );
+    }
+  }
+
+  /**
+   * Run the hash command if the arguments describe a hash command that succeeds.
+   *
+   * @param directory the directory from which the tool is run.
+   * @param args      the arguments.
+   * @return the exit code or null if the command should be run by {@link Main}.
+   */
+  @Nullable
+  static Integer run( @Nonnull final Path directory, @Nonnull final String... args )
+  {
+    Path configFile = null;
+    String expectedSha256 = null;
+    boolean quiet = false;
+    boolean hashCommand = false;
+    for ( int i = 0; i < args.length; i++ )
+    {
+      final String arg = args[ i ];
+      if ( !hashCommand && ( "--config-file".equals( arg ) || "-c".equals( arg ) ) && i + 1 < args.length )
+      {
+        configFile = directory.resolve( args[ ++i ] ).toAbsolutePath().normalize();
+      }
+      else if ( !hashCommand && ( "--verbose".equals( arg ) || "-v".equals( arg ) ) )
+      {
+        quiet = false;
+      }
+      else if ( !hashCommand && ( "--quiet".equals( arg ) || "-q".equals( arg ) ) )
+      {
+        quiet = true;
+      }
+      else if ( !hashCommand && HashCommand.COMMAND.equals( arg ) )
+      {
+        hashCommand = true;
+      }
+      else if ( hashCommand && "--verify-sha256".equals( arg ) && i + 1 < args.length )
+      {
+        expectedSha256 = args[ ++i ];
+      }
+      else
+      {
+        return null;
+      }
+    }
+    if ( !hashCommand )
+    {
+      return null;
+    }
+
+    final Path file =
+      null != configFile ?
+      configFile :
+      directory.resolve( ApplicationConfig.DEFAULT_MODULE ).resolve( ApplicationConfig.FILENAME );
+    final String configSha256;
+    try
+    {
+      configSha256 = ApplicationModel.calculateConfigSha256( ApplicationConfig.load( file ) );
+    }
+    catch ( final Throwable t )
+    {
+      return null;
+    }
+
+    if ( null == expectedSha256 )
+    {
+      System.err.println( "Content SHA256: " + configSha256 );
+      return ExitCodes.SUCCESS_EXIT_CODE;
+    }
+    else if ( expectedSha256.equals( configSha256 ) )
+    {
+      if ( !quiet )
+      {
+        System.err.println( "Content SHA256: " + configSha256 );
+      }
+      return ExitCodes.SUCCESS_EXIT_CODE;
+    }
+    else
+    {
+      return null;
+    }
+  }
+
+  @Nonnull
+  private static Path getCurrentDirectory()
+  {
+    // The BUILD_WORKSPACE_DIRECTORY environment variable is specified by bazel when
+    // a binary is run using "bazel run ...". See Main.main(String[])
+    final String workspaceDirectory = System.getenv( "BUILD_WORKSPACE_DIRECTORY" );
+    return null != workspaceDirectory ? Paths.get( workspaceDirectory ) : Paths.get( "" ).toAbsolutePath();
+  }
+}
@@ -44,6 +44,8 @@ final class InfoCommand
     printInfo( context, "settings-file", environment::getSettingsFile );
     printInfo( context, "cache-directory", () -> environment.hasCacheDir() ? environment.getCacheDir() : "-" );
     printInfo( context, "reset-cached-metadata", environment::shouldResetCachedMetadata );
+    printInfo( context, "metadata-index", environment::useMetadataIndex );
+    printInfo( context, "offline", environment::isOffline );
     printInfo( context,
                "bazel-repository-cache",
                () -> environment.hasRepositoryCacheDir() ? environment.getRepositoryCacheDir() : "-" );
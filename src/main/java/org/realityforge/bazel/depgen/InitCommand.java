@@ -201,19 +201,21 @@ final class InitCommand
     try
     {
       final Path workspaceDirectory = workspaceFile.getParent();
-      final StarlarkOutput output = new StarlarkOutput( workspaceFile );
-      output.write( "workspace(name = \"" + workspaceDirectory.getFileName() + "\")" );
-      output.newLine();
-      output.write( "load(\"//" +
-                    workspaceDirectory.relativize( configFile ).getParent() +
-                    ":" +
-                    OptionsConfig.DEFAULT_EXTENSION_FILE +
-                    "\", \"" +
-                    OptionsConfig.DEFAULT_WORKSPACE_MACRO_NAME +
-                    "\")" );
-      output.newLine();
-      output.write( "generate_workspace_rules()" );
-      output.close();
+      try ( final StarlarkOutput output = new StarlarkOutput( workspaceFile ) )
+      {
+        output.write( "workspace(name = \"" + workspaceDirectory.getFileName() + "\")" );
+        output.newLine();
+        output.write( "load(\"//" +
+                      workspaceDirectory.relativize( configFile ).getParent() +
+                      ":" +
+                      OptionsConfig.DEFAULT_EXTENSION_FILE +
+                      "\", \"" +
+                      OptionsConfig.DEFAULT_WORKSPACE_MACRO_NAME +
+                      "\")" );
+        output.newLine();
+        output.write( "generate_workspace_rules()" );
+        output.commit();
+      }
     }
     catch ( final IOException e )
     {
@@ -5,15 +5,23 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.building.SettingsBuildingException;
 import org.eclipse.aether.artifact.Artifact;
@@ -22,13 +30,15 @@ import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.resolution.DependencyResolutionException;
 import org.eclipse.aether.resolution.DependencyResult;
 import org.eclipse.aether.util.artifact.SubArtifact;
+import org.eclipse.aether.version.VersionConstraint;
 import org.realityforge.bazel.depgen.config.ApplicationConfig;
+import org.realityforge.bazel.depgen.metadata.DepgenMetadataRegistry;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.model.InvalidModelException;
 import org.realityforge.bazel.depgen.record.ApplicationRecord;
 import org.realityforge.bazel.depgen.record.ArtifactRecord;
 import org.realityforge.bazel.depgen.util.ArtifactUtil;
-import org.realityforge.bazel.depgen.util.BazelUtil;
+import org.realityforge.bazel.depgen.util.ParallelUtil;
 import org.realityforge.bazel.depgen.util.YamlUtil;
 import org.realityforge.getopt4j.CLArgsParser;
 import org.realityforge.getopt4j.CLOption;
@@ -40,11 +50,18 @@ import org.realityforge.getopt4j.CLUtil;
  */
 public class Main
 {
+  /**
+   * The maximum number of files installed into the repository cache concurrently.
+   */
+  private static final int MAX_CONCURRENT_CACHE_INSTALLS = 4;
   private static final int VERSION_OPT = 2;
   private static final int HELP_OPT = 'h';
   private static final int QUIET_OPT = 'q';
   private static final int VERBOSE_OPT = 'v';
   private static final int RESET_CACHED_METADATA_OPT = 1;
+  private static final int METADATA_INDEX_OPT = 3;
+  private static final int SERVER_SOCKET_OPT = 4;
+  private static final int OFFLINE_OPT = 5;
   private static final int RUN_DIR_OPT = 'd';
   private static final int CACHE_DIR_OPT = 'r';
   private static final int SETTINGS_FILE_OPT = 's';
@@ -91,7 +108,23 @@ public class Main
       new CLOptionDescriptor( "reset-cached-metadata",
                               CLOptionDescriptor.ARGUMENT_DISALLOWED,
                               RESET_CACHED_METADATA_OPT,
-                              "Recalculate metadata about an artifact." )
+                              "Recalculate metadata about an artifact.",
+                              new int[]{ OFFLINE_OPT } ),
+      new CLOptionDescriptor( "metadata-index",
+                              CLOptionDescriptor.ARGUMENT_DISALLOWED,
+                              METADATA_INDEX_OPT,
+                              "Store artifact metadata in an index in the cache directory." ),
+      new CLOptionDescriptor( "server-socket",
+                              CLOptionDescriptor.ARGUMENT_REQUIRED,
+                              SERVER_SOCKET_OPT,
+                              "The path to the socket of a server started via the server command. The " +
+                              "generate, print-graph and hash commands are run by the server if specified." ),
+      new CLOptionDescriptor( "offline",
+                              CLOptionDescriptor.ARGUMENT_DISALLOWED,
+                              OFFLINE_OPT,
+                              "Resolve artifacts and metadata from the cache directory without accessing the " +
+                              "network. The command fails if anything required is missing from the cache.",
+                              new int[]{ RESET_CACHED_METADATA_OPT } )
     };
   @Nonnull
   private static final Map<String, Supplier<Command>> COMMAND_MAP =
@@ -103,6 +136,8 @@ public class Main
         put( HashCommand.COMMAND, HashCommand::new );
         put( InitCommand.COMMAND, InitCommand::new );
         put( InfoCommand.COMMAND, InfoCommand::new );
+        put( ServerCommand.COMMAND, ServerCommand::new );
+        put( TrainCdsCommand.COMMAND, TrainCdsCommand::new );
       }
     } );
 
@@ -124,11 +159,106 @@ public class Main
 
   static int run( @Nonnull final Environment environment, @Nonnull final String... args )
   {
+    // The server resolves the arguments relative to the directory from which the tool was invoked
+    final Path directory = environment.currentDirectory();
+    final Path socket = deriveServerSocket( environment, args );
+    if ( null != socket )
+    {
+      try
+      {
+        return DepgenServer.forward( environment, socket, directory, args );
+      }
+      catch ( final IOException ioe )
+      {
+        environment.logger()
+          .log( Level.WARNING, "Unable to run command via the server at " + socket + ". Running command locally." );
+      }
+    }
+
     if ( !processOptions( environment, args ) )
     {
       return ExitCodes.ERROR_PARSING_ARGS_EXIT_CODE;
     }
+    return runCommand( environment );
+  }
 
+  /**
+   * Return the socket of the server that should run the command or null if the command should be run locally.
+   * The arguments are only parsed to the extent required to determine the socket, the command and the log level
+   * of the client. The remaining options are processed by the server so that the client avoids the cost of
+   * deriving the settings, the cache directory and the bazel info.
+   */
+  @Nullable
+  private static Path deriveServerSocket( @Nonnull final Environment environment, @Nonnull final String... args )
+  {
+    final CLArgsParser parser =
+      new CLArgsParser( args, OPTIONS, lastOptionCode -> CLOption.TEXT_ARGUMENT == lastOptionCode );
+    if ( null != parser.getErrorString() )
+    {
+      return null;
+    }
+    Path directory = environment.currentDirectory();
+    String socket = null;
+    Command command = null;
+    Level level = null;
+    for ( final CLOption option : parser.getArguments() )
+    {
+      switch ( option.getId() )
+      {
+        case CLOption.TEXT_ARGUMENT:
+        {
+          final Supplier<Command> supplier = COMMAND_MAP.get( option.getArgument() );
+          if ( null == supplier || null != command )
+          {
+            return null;
+          }
+          command = supplier.get();
+          break;
+        }
+        case RUN_DIR_OPT:
+        {
+          directory = directory.resolve( option.getArgument() ).toAbsolutePath().normalize();
+          break;
+        }
+        case SERVER_SOCKET_OPT:
+        {
+          socket = option.getArgument();
+          break;
+        }
+        case VERBOSE_OPT:
+        {
+          level = Level.ALL;
+          break;
+        }
+        case QUIET_OPT:
+        {
+          level = Level.WARNING;
+          break;
+        }
+        case VERSION_OPT:
+        case HELP_OPT:
+        {
+          return null;
+        }
+      }
+    }
+    if ( null == socket || null == command || !command.mayRunInServer() )
+    {
+      return null;
+    }
+    else
+    {
+      // The log messages emitted by the server are filtered by the logger of the client
+      if ( null != level )
+      {
+        environment.logger().setLevel( level );
+      }
+      return directory.resolve( socket ).toAbsolutePath().normalize();
+    }
+  }
+
+  static int runCommand( @Nonnull final Environment environment )
+  {
     try
     {
       return environment.getCommand().run( new CommandContextImpl( environment ) );
@@ -200,12 +330,19 @@ public class Main
       environment.logger().log( Level.WARNING, t.toString(), t );
       return ExitCodes.ERROR_EXIT_CODE;
     }
+    finally
+    {
+      // Persist any metadata derived by commands that do not build a record
+      DepgenMetadataRegistry.flush();
+    }
   }
 
   @Nonnull
   static ApplicationModel loadModel( @Nonnull final Environment environment )
   {
-    return ApplicationModel.load( loadConfigFile( environment ), environment.shouldResetCachedMetadata() );
+    return ApplicationModel.load( loadConfigFile( environment ),
+                                  environment.shouldResetCachedMetadata(),
+                                  environment.isOffline() );
   }
 
   @Nonnull
@@ -213,14 +350,20 @@ public class Main
     throws DependencyResolutionException
   {
     final ApplicationModel model = loadModel( environment );
+    DepgenMetadataRegistry.configure( environment.getCacheDir(), environment.useMetadataIndex() );
     final Resolver resolver =
       ResolverUtil.createResolver( environment,
                                    environment.getCacheDir(),
                                    model,
                                    loadSettings( environment ) );
+    // The session cache is assumed to be stale unless the dependencies are resolved
+    // without encountering any version ranges or snapshot versions
+    environment.setSessionCacheStale( true );
+    final DependencyNode root = resolveModel( environment, resolver, model );
+    environment.setSessionCacheStale( hasVolatileVersions( root ) );
     final ApplicationRecord record =
       ApplicationRecord.build( model,
-                               resolveModel( environment, resolver, model ),
+                               root,
                                resolver.getAuthenticationContexts(),
                                m -> environment.logger().warning( m ) );
     cacheArtifactsInRepositoryCache( environment, record );
@@ -232,9 +375,21 @@ public class Main
   {
     if ( environment.hasRepositoryCacheDir() )
     {
-      final Path repositoryCache = environment.getRepositoryCacheDir();
+      final Logger logger = environment.logger();
+      final RepositoryCache repositoryCache;
+      try
+      {
+        repositoryCache = RepositoryCache.open( environment.getRepositoryCacheDir() );
+      }
+      catch ( final IOException ioe )
+      {
+        logger.log( Level.WARNING, "Failed to read repository cache.", ioe );
+        return;
+      }
       // We only attempt to copy into repositoryCache if there is one ... which there
       // always is if there is a local WORKSPACE
+      // The files are keyed by sha256 so that a file is only installed once
+      final Map<String, RepositoryCacheEntry> entries = new LinkedHashMap<>();
       for ( final ArtifactRecord artifact : record.getArtifacts() )
       {
         if ( null == artifact.getReplacementModel() )
@@ -244,49 +399,130 @@ public class Main
           assert null != file;
           final String sha256 = artifact.getSha256();
           assert null != sha256;
-          cacheRepositoryFile( environment.logger(), repositoryCache, a.toString(), file, sha256 );
+          addRepositoryCacheEntry( entries, repositoryCache, a.toString(), file, sha256 );
           final String sourceSha256 = artifact.getSourceSha256();
           if ( null != sourceSha256 )
           {
             final SubArtifact sourcesArtifact = new SubArtifact( a, "sources", "jar" );
             final String localFilename = ArtifactUtil.artifactToLocalFilename( sourcesArtifact );
             final File sourcesFile = file.toPath().getParent().resolve( localFilename ).toFile();
-
-            cacheRepositoryFile( environment.logger(),
-                                 repositoryCache,
-                                 sourcesArtifact.toString(),
-                                 sourcesFile,
-                                 sourceSha256 );
+            addRepositoryCacheEntry( entries, repositoryCache, sourcesArtifact.toString(), sourcesFile, sourceSha256 );
+          }
+          final String externalAnnotationSha256 = artifact.getExternalAnnotationSha256();
+          if ( null != externalAnnotationSha256 )
+          {
+            final SubArtifact annotationsArtifact = new SubArtifact( a, "annotations", "jar" );
+            final String localFilename = ArtifactUtil.artifactToLocalFilename( annotationsArtifact );
+            final File annotationsFile = file.toPath().getParent().resolve( localFilename ).toFile();
+            addRepositoryCacheEntry( entries,
+                                     repositoryCache,
+                                     annotationsArtifact.toString(),
+                                     annotationsFile,
+                                     externalAnnotationSha256 );
           }
         }
       }
+
+      final List<RepositoryCacheEntry> installed =
+        ParallelUtil.map( new ArrayList<>( entries.values() ),
+                          MAX_CONCURRENT_CACHE_INSTALLS,
+                          entry -> entry.install( repositoryCache ) );
+      // Log the results in the order of the artifacts rather than the order in which the installs complete
+      for ( final RepositoryCacheEntry entry : installed )
+      {
+        entry.log( logger );
+      }
+    }
+  }
+
+  private static void addRepositoryCacheEntry( @Nonnull final Map<String, RepositoryCacheEntry> entries,
+                                               @Nonnull final RepositoryCache repositoryCache,
+                                               @Nonnull final String label,
+                                               @Nonnull final File file,
+                                               @Nonnull final String sha256 )
+  {
+    if ( !repositoryCache.isInstalled( sha256 ) )
+    {
+      entries.putIfAbsent( sha256.toLowerCase( Locale.ROOT ), new RepositoryCacheEntry( label, file, sha256 ) );
     }
   }
 
-  static void cacheRepositoryFile( @Nonnull final Logger logger,
-                                   @Nonnull final Path repositoryCache,
-                                   @Nonnull final String label,
-                                   @Nonnull final File file,
-                                   @Nonnull final String sha256 )
+  /**
+   * A file to install into the repository cache and the result of the install.
+   */
+  private static final class RepositoryCacheEntry
   {
-    final Path targetPath =
-      repositoryCache.resolve( "content_addressable" ).resolve( "sha256" ).resolve( sha256 ).resolve( "file" );
-    if ( !Files.exists( targetPath ) )
+    @Nonnull
+    private final String _label;
+    @Nonnull
+    private final File _file;
+    @Nonnull
+    private final String _sha256;
+    private boolean _installed;
+    @Nullable
+    private IOException _error;
+
+    RepositoryCacheEntry( @Nonnull final String label, @Nonnull final File file, @Nonnull final String sha256 )
+    {
+      _label = Objects.requireNonNull( label );
+      _file = Objects.requireNonNull( file );
+      _sha256 = Objects.requireNonNull( sha256 );
+    }
+
+    @Nonnull
+    RepositoryCacheEntry install( @Nonnull final RepositoryCache repositoryCache )
     {
       try
       {
-        Files.createDirectories( targetPath.getParent() );
-        Files.copy( file.toPath(), targetPath );
-        logger.log( Level.FINE, "Installed artifact '" + label + "' into repository cache." );
+        _installed = repositoryCache.install( _file.toPath(), _sha256 );
       }
       catch ( final IOException ioe )
       {
-        final String message = "Failed to cache artifact '" + label + "' in repository cache.";
-        logger.log( Level.WARNING, message, ioe );
+        _error = ioe;
+      }
+      return this;
+    }
+
+    void log( @Nonnull final Logger logger )
+    {
+      if ( null != _error )
+      {
+        logger.log( Level.WARNING, "Failed to cache artifact '" + _label + "' in repository cache.", _error );
+      }
+      else if ( _installed )
+      {
+        logger.log( Level.FINE, "Installed artifact '" + _label + "' into repository cache." );
       }
     }
   }
 
+  /**
+   * Return true if the graph contains a version range or a snapshot version.
+   * The resolution of these versions may change between runs as artifacts are deployed to the repositories.
+   */
+  static boolean hasVolatileVersions( @Nonnull final DependencyNode root )
+  {
+    // Nodes may be shared between parents so each node is visited at most once
+    final Set<DependencyNode> visited = Collections.newSetFromMap( new IdentityHashMap<>() );
+    final Deque<DependencyNode> pending = new ArrayDeque<>();
+    pending.add( root );
+    while ( !pending.isEmpty() )
+    {
+      final DependencyNode node = pending.pop();
+      if ( visited.add( node ) )
+      {
+        final Artifact artifact = node.getArtifact();
+        final VersionConstraint constraint = node.getVersionConstraint();
+        if ( ( null != artifact && artifact.isSnapshot() ) || ( null != constraint && null != constraint.getRange() ) )
+        {
+          return true;
+        }
+        pending.addAll( node.getChildren() );
+      }
+    }
+    return false;
+  }
+
   @Nonnull
   private static DependencyNode resolveModel( @Nonnull final Environment environment,
                                               @Nonnull final Resolver resolver,
@@ -466,6 +702,22 @@ public class Main
           environment.markResetCachedMetadata();
           break;
         }
+        case METADATA_INDEX_OPT:
+        {
+          environment.markUseMetadataIndex();
+          break;
+        }
+        case OFFLINE_OPT:
+        {
+          environment.markOffline();
+          break;
+        }
+        case SERVER_SOCKET_OPT:
+        {
+          final String argument = option.getArgument();
+          environment.setServerSocket( environment.currentDirectory().resolve( argument ).toAbsolutePath().normalize() );
+          break;
+        }
 
         case VERBOSE_OPT:
         {
@@ -541,8 +793,8 @@ public class Main
 
     if ( !environment.hasCacheDir() && environment.getCommand().mayUseArtifactCache() )
     {
-      final File repositoryCache = BazelUtil.getOutputBase( environment.currentDirectory().toFile() );
-      if ( null == repositoryCache )
+      final Path outputBase = environment.getBazelInfo().getOutputBase();
+      if ( null == outputBase )
       {
         logger.log( Level.SEVERE,
                     "Error: Cache directory not specified and unable to derive default " +
@@ -552,13 +804,13 @@ public class Main
       }
       else
       {
-        environment.setCacheDir( repositoryCache.toPath().resolve( ".depgen-cache" ) );
+        environment.setCacheDir( outputBase.resolve( ".depgen-cache" ) );
       }
     }
 
     if ( !environment.hasRepositoryCacheDir() && environment.getCommand().mayUseRepositoryCache() )
     {
-      final Path repositoryCache = BazelUtil.getRepositoryCache( environment.currentDirectory().toFile() );
+      final Path repositoryCache = environment.getBazelInfo().getRepositoryCache();
       if ( null != repositoryCache )
       {
         environment.setRepositoryCacheDir( repositoryCache );
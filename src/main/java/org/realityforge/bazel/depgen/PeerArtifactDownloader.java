@@ -0,0 +1,173 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.DependencyVisitor;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.SubArtifact;
+import org.realityforge.bazel.depgen.metadata.DepgenMetadataRegistry;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+
+/**
+ * Download the peer artifacts (i.e. sources and external annotations) of the resolved artifacts in a graph.
+ * The graph is traversed once to collect the peer artifacts and then {@link #download()} resolves them all
+ * in a single batch, which allows the repository connectors to download them concurrently.
+ */
+final class PeerArtifactDownloader
+  implements DependencyVisitor
+{
+  @Nonnull
+  private final Resolver _resolver;
+  @Nonnull
+  private final ApplicationModel _model;
+  @Nonnull
+  private final List<PeerArtifactType> _types;
+  /**
+   * The peer artifacts to download keyed by the coordinates of the peer artifact.
+   */
+  @Nonnull
+  private final Map<String, PeerDownload> _downloads = new LinkedHashMap<>();
+
+  PeerArtifactDownloader( @Nonnull final Resolver resolver,
+                          @Nonnull final ApplicationModel model,
+                          @Nonnull final List<PeerArtifactType> types )
+  {
+    _resolver = Objects.requireNonNull( resolver );
+    _model = Objects.requireNonNull( model );
+    _types = Objects.requireNonNull( types );
+  }
+
+  @Override
+  public boolean visitEnter( @Nonnull final DependencyNode node )
+  {
+    final Artifact artifact = node.getArtifact();
+    // If the file is null then the resolver has determined that the
+    // artifact is a conflict and has not downloaded it
+    if ( null != artifact && null != artifact.getFile() )
+    {
+      for ( final PeerArtifactType type : _types )
+      {
+        if ( type.shouldDownloadPeerArtifact( _model, artifact ) )
+        {
+          final SubArtifact peerArtifact = type.toPeerArtifact( artifact );
+          _downloads
+            .computeIfAbsent( peerArtifact.toString(), k -> new PeerDownload( type, peerArtifact ) )
+            .getNodes()
+            .add( node );
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean visitLeave( @Nonnull final DependencyNode node )
+  {
+    return true;
+  }
+
+  /**
+   * Resolve the peer artifacts collected during traversal and record the results.
+   */
+  void download()
+  {
+    if ( _downloads.isEmpty() )
+    {
+      return;
+    }
+    final List<PeerDownload> downloads = new ArrayList<>( _downloads.values() );
+    final List<ArtifactRequest> requests = new ArrayList<>( downloads.size() );
+    for ( final PeerDownload download : downloads )
+    {
+      requests.add( new ArtifactRequest( download.getPeerArtifact(), _resolver.getRepositories(), null ) );
+    }
+
+    List<ArtifactResult> results;
+    try
+    {
+      results = _resolver.getSystem().resolveArtifacts( _resolver.getSession(), requests );
+    }
+    catch ( final ArtifactResolutionException are )
+    {
+      // User has already received a warning to console for each missing artifact. The tool
+      // may generate an error at a later stage if in strict mode.
+      results = are.getResults();
+    }
+    assert results.size() == downloads.size();
+
+    final Map<Path, Map<String, String>> metadataUpdates = new LinkedHashMap<>();
+    for ( int i = 0; i < downloads.size(); i++ )
+    {
+      final PeerDownload download = downloads.get( i );
+      final ArtifactResult result = results.get( i );
+      final PeerArtifactType type = download.getType();
+      final Artifact resolved = result.getArtifact();
+      final boolean present = result.isResolved() && null != resolved && null != resolved.getFile();
+      for ( final DependencyNode node : download.getNodes() )
+      {
+        final Artifact artifact = node.getArtifact();
+        final File file = artifact.getFile();
+        assert null != file;
+        metadataUpdates
+          .computeIfAbsent( file.getParentFile().toPath(), k -> new HashMap<>() )
+          .put( type.getMetadataProperty(), String.valueOf( present ) );
+        if ( present )
+        {
+          final HashMap<String, String> properties = new HashMap<>( artifact.getProperties() );
+          properties.put( type.getFilenameKey(), resolved.getFile().getAbsolutePath() );
+          node.setArtifact( artifact.setProperties( properties ) );
+        }
+      }
+    }
+
+    for ( final Map.Entry<Path, Map<String, String>> entry : metadataUpdates.entrySet() )
+    {
+      DepgenMetadataRegistry.get( _model, entry.getKey() ).updateProperties( entry.getValue() );
+    }
+  }
+
+  private static final class PeerDownload
+  {
+    @Nonnull
+    private final PeerArtifactType _type;
+    @Nonnull
+    private final SubArtifact _peerArtifact;
+    @Nonnull
+    private final List<DependencyNode> _nodes = new ArrayList<>();
+
+    PeerDownload( @Nonnull final PeerArtifactType type, @Nonnull final SubArtifact peerArtifact )
+    {
+      _type = Objects.requireNonNull( type );
+      _peerArtifact = Objects.requireNonNull( peerArtifact );
+    }
+
+    @Nonnull
+    PeerArtifactType getType()
+    {
+      return _type;
+    }
+
+    @Nonnull
+    SubArtifact getPeerArtifact()
+    {
+      return _peerArtifact;
+    }
+
+    @Nonnull
+    List<DependencyNode> getNodes()
+    {
+      return _nodes;
+    }
+  }
+}
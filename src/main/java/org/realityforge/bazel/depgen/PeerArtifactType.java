@@ -0,0 +1,52 @@
+package org.realityforge.bazel.depgen;
+
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.util.artifact.SubArtifact;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+
+/**
+ * A type of peer artifact (i.e. an artifact with the same coordinates but a different classifier)
+ * that may be downloaded alongside the primary artifact.
+ */
+abstract class PeerArtifactType
+{
+  @Nonnull
+  private final String _metadataProperty;
+  @Nonnull
+  private final String _filenameKey;
+
+  PeerArtifactType( @Nonnull final String metadataProperty, @Nonnull final String filenameKey )
+  {
+    _metadataProperty = Objects.requireNonNull( metadataProperty );
+    _filenameKey = Objects.requireNonNull( filenameKey );
+  }
+
+  /**
+   * Return the key in the depgen metadata that records whether the peer artifact is present.
+   *
+   * @return the key in the depgen metadata that records whether the peer artifact is present.
+   */
+  @Nonnull
+  final String getMetadataProperty()
+  {
+    return _metadataProperty;
+  }
+
+  /**
+   * Return the key of the artifact property in which the path to the downloaded peer artifact is stored.
+   *
+   * @return the key of the artifact property in which the path to the downloaded peer artifact is stored.
+   */
+  @Nonnull
+  final String getFilenameKey()
+  {
+    return _filenameKey;
+  }
+
+  abstract boolean shouldDownloadPeerArtifact( @Nonnull ApplicationModel model, @Nonnull Artifact artifact );
+
+  @Nonnull
+  abstract SubArtifact toPeerArtifact( @Nonnull Artifact artifact );
+}
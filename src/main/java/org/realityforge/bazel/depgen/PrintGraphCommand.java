@@ -26,6 +26,11 @@ final class PrintGraphCommand
     return true;
   }
 
+  boolean mayRunInServer()
+  {
+    return true;
+  }
+
   @Override
   int run( @Nonnull final Context context )
     throws Exception
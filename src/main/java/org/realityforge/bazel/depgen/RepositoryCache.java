@@ -0,0 +1,180 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nonnull;
+
+/**
+ * Installs files into the content addressable section of Bazel's repository cache.
+ * Bazel expects a file with the sha256 "abc..." to be located at
+ * <code>[repositoryCache]/content_addressable/sha256/abc.../file</code>.
+ *
+ * <p>A file is installed by creating a hard link to the file if possible so that no data is copied. If the link
+ * can not be created (i.e. the repository cache is on a different filesystem) then the file is copied via
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} so that the copy is
+ * performed by the kernel, into a temporary file that is atomically renamed into place so that bazel never
+ * observes a partially written file.</p>
+ */
+final class RepositoryCache
+{
+  /**
+   * The repository cache directory.
+   */
+  @Nonnull
+  private final Path _repositoryCache;
+  /**
+   * The sha256 hashes of the files present in the repository cache when the cache was opened.
+   */
+  @Nonnull
+  private final Set<String> _installed;
+
+  /**
+   * Open the repository cache, reading the sha256 hashes of the files present in the cache from a single
+   * listing of the cache directory rather than checking for the presence of each file.
+   *
+   * @param repositoryCache the repository cache directory.
+   * @return the repository cache.
+   * @throws IOException if there is an error listing the repository cache.
+   */
+  @Nonnull
+  static RepositoryCache open( @Nonnull final Path repositoryCache )
+    throws IOException
+  {
+    final Set<String> installed = new HashSet<>();
+    try ( final DirectoryStream<Path> stream = Files.newDirectoryStream( getDirectory( repositoryCache ) ) )
+    {
+      for ( final Path entry : stream )
+      {
+        installed.add( entry.getFileName().toString() );
+      }
+    }
+    catch ( final NoSuchFileException ignored )
+    {
+      // The repository cache has yet to be populated
+    }
+    return new RepositoryCache( repositoryCache, installed );
+  }
+
+  private RepositoryCache( @Nonnull final Path repositoryCache, @Nonnull final Set<String> installed )
+  {
+    _repositoryCache = repositoryCache;
+    _installed = installed;
+  }
+
+  /**
+   * Return true if the file with the specified sha256 was present in the repository cache when the cache was opened.
+   */
+  boolean isInstalled( @Nonnull final String sha256 )
+  {
+    return _installed.contains( toKey( sha256 ) );
+  }
+
+  /**
+   * Install the file into the repository cache.
+   * This method may be invoked concurrently.
+   *
+   * @param file   the file.
+   * @param sha256 the sha256 of the file.
+   * @return true if the file was installed, false if the file was already present.
+   * @throws IOException if there is an error installing the file.
+   */
+  boolean install( @Nonnull final Path file, @Nonnull final String sha256 )
+    throws IOException
+  {
+    return install( getFile( _repositoryCache, sha256 ), file );
+  }
+
+  /**
+   * Return the location of the file with the specified sha256 within the repository cache.
+   */
+  @Nonnull
+  static Path getFile( @Nonnull final Path repositoryCache, @Nonnull final String sha256 )
+  {
+    return getDirectory( repositoryCache ).resolve( toKey( sha256 ) ).resolve( "file" );
+  }
+
+  /**
+   * Install the file at the specified location in the repository cache.
+   *
+   * @param target the location in the repository cache.
+   * @param file   the file to install.
+   * @return true if the file was installed, false if the file was already present.
+   * @throws IOException if there is an error installing the file.
+   */
+  static boolean install( @Nonnull final Path target, @Nonnull final Path file )
+    throws IOException
+  {
+    Files.createDirectories( target.getParent() );
+    try
+    {
+      Files.createLink( target, file );
+      return true;
+    }
+    catch ( final FileAlreadyExistsException faee )
+    {
+      return false;
+    }
+    catch ( final IOException | UnsupportedOperationException e )
+    {
+      // Hard links are not supported by the filesystem or the file and the cache are on different filesystems
+    }
+
+    final Path tmpFile =
+      target.resolveSibling( "." + target.getFileName() + "." +
+                             Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+    try
+    {
+      try ( final FileChannel input = FileChannel.open( file, StandardOpenOption.READ );
+            final FileChannel output =
+              FileChannel.open( tmpFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE ) )
+      {
+        final long size = input.size();
+        long position = 0;
+        while ( position < size )
+        {
+          position += input.transferTo( position, size - position, output );
+        }
+      }
+      try
+      {
+        Files.move( tmpFile, target, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch ( final AtomicMoveNotSupportedException amnse )
+      {
+        Files.move( tmpFile, target, StandardCopyOption.REPLACE_EXISTING );
+      }
+      return true;
+    }
+    finally
+    {
+      Files.deleteIfExists( tmpFile );
+    }
+  }
+
+  @Nonnull
+  private static Path getDirectory( @Nonnull final Path repositoryCache )
+  {
+    return repositoryCache.resolve( "content_addressable" ).resolve( "sha256" );
+  }
+
+  /**
+   * Return the key under which bazel stores the file, which is the sha256 as lower case hex.
+   */
+  @Nonnull
+  private static String toKey( @Nonnull final String sha256 )
+  {
+    return sha256.toLowerCase( Locale.ROOT );
+  }
+}
@@ -0,0 +1,562 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.Exclusion;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+import org.eclipse.aether.version.VersionScheme;
+
+/**
+ * A persisted snapshot of the dependency graphs collected for each root dependency.
+ * The graphs are captured after collection but before conflict resolution so that the graphs for
+ * the roots that have not changed can be merged with the graphs collected for the roots that have
+ * changed and conflict resolution re-run over the merged graph.
+ *
+ * <p>Each graph is stored against a key derived from the root dependency and the configuration that
+ * shapes the graph. Graphs that may change without a change in the inputs, such as those that contain
+ * version ranges or snapshot versions, are never stored.</p>
+ *
+ * <p>The snapshot is shared by every configuration that uses the same cache directory, so saving merges the
+ * graphs used in the current resolution with the graphs currently stored in the file. Each graph records when
+ * it was last used and graphs that have not been used for {@link #MAX_UNUSED_AGE} are discarded.</p>
+ */
+final class ResolutionSnapshot
+{
+  @Nonnull
+  static final String FILENAME = "_depgen.resolution";
+  /**
+   * The bytes "DGRS" that identify the file.
+   */
+  private static final int MAGIC = 0x44475253;
+  /**
+   * The version of the format. This should be incremented if the format changes.
+   */
+  static final int VERSION = 2;
+  /**
+   * The duration in milliseconds after which a graph that has not been used is discarded.
+   */
+  static final long MAX_UNUSED_AGE = TimeUnit.DAYS.toMillis( 30 );
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_BOOLEAN = 1;
+  private static final byte TYPE_INTEGER = 2;
+  @Nonnull
+  private final Path _file;
+  /**
+   * The serialized graphs loaded from the file.
+   */
+  @Nonnull
+  private final Map<String, Entry> _existing;
+  /**
+   * The serialized graphs used in the current resolution.
+   */
+  @Nonnull
+  private final Map<String, byte[]> _retained = new LinkedHashMap<>();
+  @Nonnull
+  private final VersionScheme _versionScheme = new GenericVersionScheme();
+
+  @Nonnull
+  static ResolutionSnapshot load( @Nonnull final Path file )
+  {
+    return new ResolutionSnapshot( file, read( file ) );
+  }
+
+  private ResolutionSnapshot( @Nonnull final Path file, @Nonnull final Map<String, Entry> existing )
+  {
+    _file = Objects.requireNonNull( file );
+    _existing = Objects.requireNonNull( existing );
+  }
+
+  /**
+   * Return the graph stored against the key and retain the graph in the snapshot.
+   * Return null if no graph is stored against the key or the stored graph is no longer valid.
+   *
+   * @param key          the key.
+   * @param repositories the repositories that the graph may reference, keyed by id.
+   * @return the graph or null.
+   */
+  @Nullable
+  DependencyNode get( @Nonnull final String key, @Nonnull final Map<String, RemoteRepository> repositories )
+  {
+    final Entry entry = _existing.get( key );
+    if ( null == entry )
+    {
+      return null;
+    }
+    final byte[] data = entry.getData();
+    try
+    {
+      final DependencyNode node = deserialize( data, repositories );
+      _retained.put( key, data );
+      return node;
+    }
+    catch ( final IOException | InvalidVersionSpecificationException ignored )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Store the graph against the key if the graph can be stored.
+   *
+   * @param key          the key.
+   * @param node         the root node of the graph.
+   * @param repositories the repositories that the graph may reference, keyed by id.
+   */
+  void put( @Nonnull final String key,
+            @Nonnull final DependencyNode node,
+            @Nonnull final Map<String, RemoteRepository> repositories )
+  {
+    final byte[] data = serialize( node, repositories );
+    if ( null != data )
+    {
+      _retained.put( key, data );
+    }
+  }
+
+  /**
+   * Persist the graphs used in the current resolution, merged with the graphs stored by other resolutions
+   * that have been used within {@link #MAX_UNUSED_AGE}.
+   */
+  void save()
+  {
+    save( System.currentTimeMillis() );
+  }
+
+  /**
+   * Persist the graphs as if the current time was the specified time.
+   *
+   * @param now the current time in milliseconds.
+   */
+  void save( final long now )
+  {
+    // Re-read the file so that graphs stored by resolutions that completed since the file was loaded are retained
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+    for ( final Map.Entry<String, Entry> entry : read( _file ).entrySet() )
+    {
+      if ( now - entry.getValue().getLastUsed() <= MAX_UNUSED_AGE )
+      {
+        entries.put( entry.getKey(), entry.getValue() );
+      }
+    }
+    for ( final Map.Entry<String, byte[]> entry : _retained.entrySet() )
+    {
+      entries.put( entry.getKey(), new Entry( now, entry.getValue() ) );
+    }
+    try
+    {
+      Files.createDirectories( _file.getParent() );
+      final Path tmpFile = Files.createTempFile( _file.getParent(), FILENAME, ".tmp" );
+      try
+      {
+        try ( final DataOutputStream output = new DataOutputStream( Files.newOutputStream( tmpFile ) ) )
+        {
+          output.writeInt( MAGIC );
+          output.writeInt( VERSION );
+          output.writeInt( entries.size() );
+          for ( final Map.Entry<String, Entry> entry : entries.entrySet() )
+          {
+            final byte[] data = entry.getValue().getData();
+            output.writeUTF( entry.getKey() );
+            output.writeLong( entry.getValue().getLastUsed() );
+            output.writeInt( data.length );
+            output.write( data );
+          }
+        }
+        try
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( final AtomicMoveNotSupportedException ignored )
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING );
+        }
+      }
+      finally
+      {
+        Files.deleteIfExists( tmpFile );
+      }
+    }
+    catch ( final IOException ignored )
+    {
+      //Ignored. The dependencies will be collected again in the next run.
+    }
+  }
+
+  @Nonnull
+  private static Map<String, Entry> read( @Nonnull final Path file )
+  {
+    final Map<String, Entry> entries = new HashMap<>();
+    if ( Files.isRegularFile( file ) )
+    {
+      try ( final InputStream inputStream = Files.newInputStream( file ) )
+      {
+        final DataInputStream input = new DataInputStream( inputStream );
+        if ( MAGIC == input.readInt() && VERSION == input.readInt() )
+        {
+          final int count = input.readInt();
+          for ( int i = 0; i < count; i++ )
+          {
+            final String key = input.readUTF();
+            final long lastUsed = input.readLong();
+            final byte[] data = new byte[ input.readInt() ];
+            input.readFully( data );
+            entries.put( key, new Entry( lastUsed, data ) );
+          }
+        }
+      }
+      catch ( final IOException ignored )
+      {
+        //Ignored. Any entries that could not be read will be collected again.
+        entries.clear();
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Serialize the graph. The identity of the nodes and of the lists of children is retained as the
+   * dependency collector shares both between parts of the graph. Return null if the graph can not be
+   * stored.
+   */
+  @Nullable
+  private static byte[] serialize( @Nonnull final DependencyNode root,
+                                   @Nonnull final Map<String, RemoteRepository> repositories )
+  {
+    final Map<DependencyNode, Integer> nodeIds = new IdentityHashMap<>();
+    final List<DependencyNode> nodes = new ArrayList<>();
+    final Map<List<DependencyNode>, Integer> listIds = new IdentityHashMap<>();
+    final List<List<DependencyNode>> lists = new ArrayList<>();
+    final Deque<DependencyNode> queue = new ArrayDeque<>();
+    nodeIds.put( root, 0 );
+    nodes.add( root );
+    queue.add( root );
+    while ( !queue.isEmpty() )
+    {
+      final DependencyNode node = queue.removeFirst();
+      final Dependency dependency = node.getDependency();
+      final VersionConstraint constraint = node.getVersionConstraint();
+      final Version version = node.getVersion();
+      if ( null == dependency ||
+           ( null != constraint && null != constraint.getRange() ) ||
+           ( null != version && version.toString().endsWith( "-SNAPSHOT" ) ) ||
+           !node.getRepositories().stream().allMatch( r -> r == repositories.get( r.getId() ) ) )
+      {
+        return null;
+      }
+      final List<DependencyNode> children = node.getChildren();
+      if ( !listIds.containsKey( children ) )
+      {
+        listIds.put( children, lists.size() );
+        lists.add( children );
+        for ( final DependencyNode child : children )
+        {
+          if ( !nodeIds.containsKey( child ) )
+          {
+            nodeIds.put( child, nodes.size() );
+            nodes.add( child );
+            queue.add( child );
+          }
+        }
+      }
+    }
+
+    try
+    {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream output = new DataOutputStream( bytes );
+      output.writeInt( nodes.size() );
+      for ( final DependencyNode node : nodes )
+      {
+        final Dependency dependency = node.getDependency();
+        assert null != dependency;
+        writeArtifact( output, dependency.getArtifact() );
+        output.writeUTF( dependency.getScope() );
+        final Boolean optional = dependency.getOptional();
+        output.writeByte( null == optional ? 0 : optional ? 1 : 2 );
+        final Collection<Exclusion> exclusions = dependency.getExclusions();
+        output.writeInt( exclusions.size() );
+        for ( final Exclusion exclusion : exclusions )
+        {
+          output.writeUTF( exclusion.getGroupId() );
+          output.writeUTF( exclusion.getArtifactId() );
+          output.writeUTF( exclusion.getClassifier() );
+          output.writeUTF( exclusion.getExtension() );
+        }
+        writeArtifacts( output, node.getRelocations() );
+        writeArtifacts( output, node.getAliases() );
+        writeOptionalString( output, null == node.getVersionConstraint() ?
+                                     null :
+                                     node.getVersionConstraint().toString() );
+        writeOptionalString( output, null == node.getVersion() ? null : node.getVersion().toString() );
+        output.writeInt( node.getManagedBits() );
+        output.writeUTF( node.getRequestContext() );
+        output.writeInt( node.getRepositories().size() );
+        for ( final RemoteRepository repository : node.getRepositories() )
+        {
+          output.writeUTF( repository.getId() );
+        }
+        final Map<?, ?> data = node.getData();
+        output.writeInt( data.size() );
+        for ( final Map.Entry<?, ?> entry : data.entrySet() )
+        {
+          final Object key = entry.getKey();
+          final Object value = entry.getValue();
+          if ( !( key instanceof String ) )
+          {
+            return null;
+          }
+          output.writeUTF( (String) key );
+          if ( value instanceof String )
+          {
+            output.writeByte( TYPE_STRING );
+            output.writeUTF( (String) value );
+          }
+          else if ( value instanceof Boolean )
+          {
+            output.writeByte( TYPE_BOOLEAN );
+            output.writeBoolean( (Boolean) value );
+          }
+          else if ( value instanceof Integer )
+          {
+            output.writeByte( TYPE_INTEGER );
+            output.writeInt( (Integer) value );
+          }
+          else
+          {
+            return null;
+          }
+        }
+        output.writeInt( listIds.get( node.getChildren() ) );
+      }
+      output.writeInt( lists.size() );
+      for ( final List<DependencyNode> list : lists )
+      {
+        output.writeInt( list.size() );
+        for ( final DependencyNode child : list )
+        {
+          output.writeInt( nodeIds.get( child ) );
+        }
+      }
+      output.flush();
+      return bytes.toByteArray();
+    }
+    catch ( final IOException ioe )
+    {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException( ioe );
+    }
+  }
+
+  @Nonnull
+  private DependencyNode deserialize( @Nonnull final byte[] data,
+                                      @Nonnull final Map<String, RemoteRepository> repositories )
+    throws IOException, InvalidVersionSpecificationException
+  {
+    final DataInputStream input = new DataInputStream( new ByteArrayInputStream( data ) );
+    final int nodeCount = input.readInt();
+    final List<DefaultDependencyNode> nodes = new ArrayList<>( nodeCount );
+    final int[] nodeListIds = new int[ nodeCount ];
+    for ( int i = 0; i < nodeCount; i++ )
+    {
+      final Artifact artifact = readArtifact( input );
+      final String scope = input.readUTF();
+      final byte optional = input.readByte();
+      final int exclusionCount = input.readInt();
+      final List<Exclusion> exclusions = new ArrayList<>( exclusionCount );
+      for ( int j = 0; j < exclusionCount; j++ )
+      {
+        exclusions.add( new Exclusion( input.readUTF(), input.readUTF(), input.readUTF(), input.readUTF() ) );
+      }
+      final DefaultDependencyNode node =
+        new DefaultDependencyNode( new Dependency( artifact,
+                                                   scope,
+                                                   0 == optional ? null : 1 == optional,
+                                                   exclusions ) );
+      node.setRelocations( readArtifacts( input ) );
+      node.setAliases( readArtifacts( input ) );
+      final String constraint = readOptionalString( input );
+      node.setVersionConstraint( null == constraint ? null : _versionScheme.parseVersionConstraint( constraint ) );
+      final String version = readOptionalString( input );
+      node.setVersion( null == version ? null : _versionScheme.parseVersion( version ) );
+      node.setManagedBits( input.readInt() );
+      node.setRequestContext( input.readUTF() );
+      final int repositoryCount = input.readInt();
+      final List<RemoteRepository> nodeRepositories = new ArrayList<>( repositoryCount );
+      for ( int j = 0; j < repositoryCount; j++ )
+      {
+        final RemoteRepository repository = repositories.get( input.readUTF() );
+        if ( null == repository )
+        {
+          throw new IOException( "Snapshot references an unknown repository" );
+        }
+        nodeRepositories.add( repository );
+      }
+      node.setRepositories( nodeRepositories );
+      final int dataCount = input.readInt();
+      final Map<Object, Object> nodeData = new HashMap<>();
+      for ( int j = 0; j < dataCount; j++ )
+      {
+        final String key = input.readUTF();
+        final byte type = input.readByte();
+        nodeData.put( key,
+                      TYPE_STRING == type ? input.readUTF() :
+                      TYPE_BOOLEAN == type ? (Object) input.readBoolean() :
+                      (Object) input.readInt() );
+      }
+      node.setData( nodeData );
+      nodeListIds[ i ] = input.readInt();
+      nodes.add( node );
+    }
+    final int listCount = input.readInt();
+    final List<List<DependencyNode>> lists = new ArrayList<>( listCount );
+    for ( int i = 0; i < listCount; i++ )
+    {
+      final int size = input.readInt();
+      final List<DependencyNode> list = new ArrayList<>( size );
+      for ( int j = 0; j < size; j++ )
+      {
+        list.add( nodes.get( input.readInt() ) );
+      }
+      lists.add( list );
+    }
+    for ( int i = 0; i < nodeCount; i++ )
+    {
+      nodes.get( i ).setChildren( lists.get( nodeListIds[ i ] ) );
+    }
+    return nodes.get( 0 );
+  }
+
+  private static void writeArtifacts( @Nonnull final DataOutputStream output,
+                                      @Nonnull final Collection<? extends Artifact> artifacts )
+    throws IOException
+  {
+    output.writeInt( artifacts.size() );
+    for ( final Artifact artifact : artifacts )
+    {
+      writeArtifact( output, artifact );
+    }
+  }
+
+  @Nonnull
+  private static List<Artifact> readArtifacts( @Nonnull final DataInputStream input )
+    throws IOException
+  {
+    final int count = input.readInt();
+    final List<Artifact> artifacts = new ArrayList<>( count );
+    for ( int i = 0; i < count; i++ )
+    {
+      artifacts.add( readArtifact( input ) );
+    }
+    return artifacts;
+  }
+
+  private static void writeArtifact( @Nonnull final DataOutputStream output, @Nonnull final Artifact artifact )
+    throws IOException
+  {
+    output.writeUTF( artifact.getGroupId() );
+    output.writeUTF( artifact.getArtifactId() );
+    output.writeUTF( artifact.getClassifier() );
+    output.writeUTF( artifact.getExtension() );
+    output.writeUTF( artifact.getVersion() );
+    final Map<String, String> properties = artifact.getProperties();
+    output.writeInt( properties.size() );
+    for ( final Map.Entry<String, String> entry : properties.entrySet() )
+    {
+      output.writeUTF( entry.getKey() );
+      output.writeUTF( entry.getValue() );
+    }
+  }
+
+  @Nonnull
+  private static Artifact readArtifact( @Nonnull final DataInputStream input )
+    throws IOException
+  {
+    final String groupId = input.readUTF();
+    final String artifactId = input.readUTF();
+    final String classifier = input.readUTF();
+    final String extension = input.readUTF();
+    final String version = input.readUTF();
+    final int propertyCount = input.readInt();
+    final Map<String, String> properties = new HashMap<>();
+    for ( int i = 0; i < propertyCount; i++ )
+    {
+      properties.put( input.readUTF(), input.readUTF() );
+    }
+    return new DefaultArtifact( groupId, artifactId, classifier, extension, version, properties, (File) null );
+  }
+
+  private static void writeOptionalString( @Nonnull final DataOutputStream output, @Nullable final String value )
+    throws IOException
+  {
+    output.writeBoolean( null != value );
+    if ( null != value )
+    {
+      output.writeUTF( value );
+    }
+  }
+
+  @Nullable
+  private static String readOptionalString( @Nonnull final DataInputStream input )
+    throws IOException
+  {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static final class Entry
+  {
+    /**
+     * The time in milliseconds at which the graph was last used.
+     */
+    private final long _lastUsed;
+    @Nonnull
+    private final byte[] _data;
+
+    Entry( final long lastUsed, @Nonnull final byte[] data )
+    {
+      _lastUsed = lastUsed;
+      _data = Objects.requireNonNull( data );
+    }
+
+    long getLastUsed()
+    {
+      return _lastUsed;
+    }
+
+    @Nonnull
+    byte[] getData()
+    {
+      return _data;
+    }
+  }
+}
@@ -1,20 +1,34 @@
 package org.realityforge.bazel.depgen;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.apache.maven.artifact.Artifact;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryException;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.collection.DependencyGraphTransformationContext;
+import org.eclipse.aether.collection.DependencyGraphTransformer;
+import org.eclipse.aether.graph.DefaultDependencyNode;
 import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyCycle;
 import org.eclipse.aether.graph.DependencyFilter;
+import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.graph.Exclusion;
 import org.eclipse.aether.repository.AuthenticationContext;
 import org.eclipse.aether.repository.RemoteRepository;
@@ -28,15 +42,20 @@ import org.eclipse.aether.resolution.DependencyRequest;
 import org.eclipse.aether.resolution.DependencyResolutionException;
 import org.eclipse.aether.resolution.DependencyResult;
 import org.eclipse.aether.util.graph.manager.ClassicDependencyManager;
-import org.eclipse.aether.util.graph.selector.AndDependencySelector;
-import org.eclipse.aether.util.graph.selector.ExclusionDependencySelector;
 import org.eclipse.aether.util.graph.transformer.ConflictResolver;
 import org.eclipse.aether.util.graph.traverser.FatArtifactTraverser;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.model.ArtifactModel;
+import org.realityforge.bazel.depgen.model.ReplacementModel;
+import org.realityforge.bazel.depgen.util.HashUtil;
+import org.realityforge.bazel.depgen.util.ParallelUtil;
 
 final class Resolver
 {
+  /**
+   * The maximum number of root artifacts that will be resolved concurrently.
+   */
+  private static final int MAX_CONCURRENT_ROOT_RESOLUTIONS = 8;
   @Nonnull
   private final Environment _environment;
   @Nonnull
@@ -90,29 +109,215 @@ final class Resolver
     throws DependencyResolutionException
   {
     final DefaultRepositorySystemSession session = (DefaultRepositorySystemSession) _session;
-    final ArrayList<Exclusion> exclusions = ResolverUtil.deriveGlobalExclusions( model );
-    session.setDependencySelector( new AndDependencySelector( new ExclusionDependencySelector( exclusions ),
-                                                              new ReplacementDependencySelector( model ),
-                                                              new OptionalDependencySelector( model ) ) );
+    session.setDependencySelector( ApplicationDependencySelector.create( model ) );
     session.setDependencyTraverser( new FatArtifactTraverser() );
     session.setDependencyManager( new ClassicDependencyManager() );
-    final DependencyResult result = resolveDependencies( deriveRootDependencies( model, onInvalidPomFn ) );
-    result.getRoot().accept( new SourceDownloaderVisitor( this, model ) );
-    result.getRoot().accept( new ExternalAnnotationsDownloaderVisitor( this, model ) );
+    final DependencyResult result = resolveDependencies( model, deriveRootDependencies( model, onInvalidPomFn ) );
+    final PeerArtifactDownloader downloader =
+      new PeerArtifactDownloader( this,
+                                  model,
+                                  Arrays.asList( new SourcesPeerArtifactType(),
+                                                 new ExternalAnnotationsPeerArtifactType() ) );
+    result.getRoot().accept( downloader );
+    downloader.download();
     return result;
   }
 
+  /**
+   * Resolve the dependencies, collecting the dependency graph of each root dependency independently.
+   * The graph collected for each root is persisted in a {@link ResolutionSnapshot} in the local repository
+   * and subsequent resolutions only collect the graphs for the roots whose inputs have changed. The graphs
+   * are merged under a single root and conflict resolution is performed over the merged graph.
+   */
   @Nonnull
-  private DependencyResult resolveDependencies( @Nonnull final List<Dependency> dependencies )
+  private DependencyResult resolveDependencies( @Nonnull final ApplicationModel model,
+                                                @Nonnull final List<Dependency> dependencies )
     throws DependencyResolutionException
   {
-    final CollectRequest collectRequest = new CollectRequest();
-    collectRequest.setDependencies( dependencies );
-    collectRequest.setRepositories( _repositories );
+    final ResolutionSnapshot snapshot =
+      ResolutionSnapshot.load( _session.getLocalRepository().getBasedir().toPath()
+                                 .resolve( ResolutionSnapshot.FILENAME ) );
+    final Map<String, RemoteRepository> repositories = new HashMap<>();
+    for ( final RemoteRepository repository : _repositories )
+    {
+      repositories.put( repository.getId(), repository );
+    }
+    final String modelKey = deriveSnapshotKey( model );
+
+    final List<String> keys = new ArrayList<>();
+    final List<DependencyNode> nodes = new ArrayList<>();
+    final List<Dependency> stale = new ArrayList<>();
+    for ( final Dependency dependency : dependencies )
+    {
+      final String key = HashUtil.sha256( ( modelKey + deriveSnapshotKey( dependency ) )
+                                            .getBytes( StandardCharsets.UTF_8 ) );
+      final DependencyNode node = snapshot.get( key, repositories );
+      keys.add( key );
+      nodes.add( node );
+      if ( null == node )
+      {
+        stale.add( dependency );
+      }
+    }
+
+    // Collect the graphs of the changed roots without transforming them, so that the graphs
+    // can be persisted and merged with the graphs of the unchanged roots before conflict resolution
+    final DefaultRepositorySystemSession collectSession = new DefaultRepositorySystemSession( _session );
+    collectSession.setDependencyGraphTransformer( null );
+    final List<RootCollection> collections =
+      ParallelUtil.map( stale, MAX_CONCURRENT_ROOT_RESOLUTIONS, d -> new RootCollection( collectSession, d ) );
+
+    final List<DependencyCycle> cycles = new ArrayList<>();
+    final List<Exception> exceptions = new ArrayList<>();
+    DependencyCollectionException collectionException = null;
+    int index = 0;
+    for ( final RootCollection collection : collections )
+    {
+      while ( null != nodes.get( index ) )
+      {
+        index++;
+      }
+      final CollectResult result = collection.getResult();
+      final DependencyNode collectedRoot = result.getRoot();
+      // The node is absent if the root dependency was excluded
+      final DependencyNode node =
+        null == collectedRoot || collectedRoot.getChildren().isEmpty() ? null : collectedRoot.getChildren().get( 0 );
+      nodes.set( index, node );
+      cycles.addAll( result.getCycles() );
+      exceptions.addAll( result.getExceptions() );
+      if ( null != collection.getException() )
+      {
+        if ( null == collectionException )
+        {
+          collectionException = collection.getException();
+        }
+      }
+      else if ( null != node && result.getCycles().isEmpty() && result.getExceptions().isEmpty() )
+      {
+        snapshot.put( keys.get( index ), node, repositories );
+      }
+      index++;
+    }
+    snapshot.save();
+
+    final DefaultDependencyNode root = new DefaultDependencyNode( (org.eclipse.aether.artifact.Artifact) null );
+    root.setRequestContext( "" );
+    root.setRepositories( _repositories );
+    root.setChildren( nodes.stream().filter( Objects::nonNull ).collect( Collectors.toList() ) );
+
+    final CollectResult collectResult = new CollectResult( new CollectRequest( dependencies, null, _repositories ) );
+    cycles.forEach( collectResult::addCycle );
+    exceptions.forEach( collectResult::addException );
+    try
+    {
+      final DependencyGraphTransformer transformer = _session.getDependencyGraphTransformer();
+      collectResult.setRoot( null != transformer ?
+                             transformer.transformGraph( root, new GraphTransformationContext( _session ) ) :
+                             root );
+    }
+    catch ( final RepositoryException re )
+    {
+      collectResult.setRoot( root );
+      collectResult.addException( re );
+      final DependencyResult result = new DependencyResult( new DependencyRequest( root, null ) );
+      result.setRoot( root );
+      result.setCycles( collectResult.getCycles() );
+      result.setCollectExceptions( collectResult.getExceptions() );
+      throw new DependencyResolutionException( result, new DependencyCollectionException( collectResult ) );
+    }
+
     // This filter may also need to skip artifacts with replacements.
     final DependencyFilter filter =
       ( node, parents ) -> !node.getData().containsKey( ConflictResolver.NODE_DATA_WINNER );
-    return _system.resolveDependencies( _session, new DependencyRequest( collectRequest, filter ) );
+    DependencyResult result;
+    DependencyResolutionException resolutionException = null;
+    try
+    {
+      result = _system.resolveDependencies( _session, new DependencyRequest( collectResult.getRoot(), filter ) );
+    }
+    catch ( final DependencyResolutionException dre )
+    {
+      resolutionException = dre;
+      result = dre.getResult();
+    }
+    result.setCycles( collectResult.getCycles() );
+    result.setCollectExceptions( collectResult.getExceptions() );
+    if ( null != collectionException )
+    {
+      throw new DependencyResolutionException( result, collectionException );
+    }
+    else if ( null != resolutionException )
+    {
+      throw resolutionException;
+    }
+    return result;
+  }
+
+  /**
+   * Derive the part of the snapshot key shared by every root. This is derived from the configuration
+   * consulted by the dependency selectors and the repository session while collecting the graphs.
+   */
+  @Nonnull
+  private String deriveSnapshotKey( @Nonnull final ApplicationModel model )
+  {
+    final StringBuilder sb = new StringBuilder();
+    sb.append( "depgen.version=" ).append( DepGenConfig.getVersion() ).append( "\n" );
+    sb.append( "snapshot.version=" ).append( ResolutionSnapshot.VERSION ).append( "\n" );
+    sb.append( "failOnMissingPom=" ).append( model.getOptions().failOnMissingPom() ).append( "\n" );
+    sb.append( "failOnInvalidPom=" ).append( model.getOptions().failOnInvalidPom() ).append( "\n" );
+    for ( final RemoteRepository repository : _repositories )
+    {
+      sb
+        .append( "repository." )
+        .append( repository.getId() )
+        .append( "=" )
+        .append( repository.getUrl() )
+        .append( "\n" );
+    }
+    for ( final Exclusion exclusion : ResolverUtil.deriveGlobalExclusions( model ) )
+    {
+      sb.append( "exclude=" ).append( toKey( exclusion ) ).append( "\n" );
+    }
+    for ( final ReplacementModel replacement : model.getReplacements() )
+    {
+      sb.append( "replacement=" ).append( replacement.getGroup() ).append( ":" ).append( replacement.getId() );
+      sb.append( "\n" );
+    }
+    model.getArtifacts()
+      .stream()
+      .filter( ArtifactModel::includeOptional )
+      .map( a -> "includeOptional=" + a.getGroup() + ":" + a.getId() + "\n" )
+      .sorted()
+      .forEach( sb::append );
+    return sb.toString();
+  }
+
+  /**
+   * Derive the part of the snapshot key that describes the root dependency.
+   */
+  @Nonnull
+  private String deriveSnapshotKey( @Nonnull final Dependency dependency )
+  {
+    final org.eclipse.aether.artifact.Artifact artifact = dependency.getArtifact();
+    final StringBuilder sb = new StringBuilder();
+    sb.append( "dependency=" ).append( dependency ).append( "\n" );
+    sb.append( "optional=" ).append( dependency.getOptional() ).append( "\n" );
+    new TreeMap<>( artifact.getProperties() )
+      .forEach( ( key, value ) -> sb.append( "property." ).append( key ).append( "=" ).append( value ).append( "\n" ) );
+    for ( final Exclusion exclusion : dependency.getExclusions() )
+    {
+      sb.append( "exclusion=" ).append( toKey( exclusion ) ).append( "\n" );
+    }
+    return sb.toString();
+  }
+
+  @Nonnull
+  private String toKey( @Nonnull final Exclusion exclusion )
+  {
+    return exclusion.getGroupId() + ":" +
+           exclusion.getArtifactId() + ":" +
+           exclusion.getClassifier() + ":" +
+           exclusion.getExtension();
   }
 
   @Nonnull
@@ -122,11 +327,20 @@ final class Resolver
     final List<ArtifactModel> artifactModels =
       model.getArtifacts().stream().filter( ArtifactModel::isVersioned ).collect( Collectors.toList() );
     artifactModels.addAll( model.getSystemArtifacts() );
+    // Resolve the roots concurrently but report errors and assemble the dependencies on the
+    // calling thread and in declaration order so that the output remains deterministic
+    final List<RootResolution> resolutions =
+      ParallelUtil.map( artifactModels, MAX_CONCURRENT_ROOT_RESOLUTIONS, RootResolution::new );
     final List<Dependency> dependencies = new ArrayList<>();
-    for ( final ArtifactModel artifactModel : artifactModels )
+    for ( final RootResolution resolution : resolutions )
     {
-      dependencies.add( new Dependency( toArtifact( artifactModel,
-                                                    e -> onInvalidPomFn.onInvalidPom( artifactModel, e ) ),
+      final ArtifactModel artifactModel = resolution.getModel();
+      final List<Exception> exceptions = resolution.getExceptions();
+      if ( null != exceptions )
+      {
+        onInvalidPomFn.onInvalidPom( artifactModel, exceptions );
+      }
+      dependencies.add( new Dependency( resolution.getArtifact(),
                                         Artifact.SCOPE_COMPILE,
                                         Boolean.FALSE,
                                         ResolverUtil.deriveExclusions( artifactModel ) ) );
@@ -196,6 +410,121 @@ final class Resolver
     }
   }
 
+  /**
+   * The result of resolving a root artifact. Any exceptions are captured rather than reported
+   * so that they can be reported on the thread that requested the resolution.
+   */
+  private final class RootResolution
+  {
+    @Nonnull
+    private final ArtifactModel _model;
+    @Nonnull
+    private final org.eclipse.aether.artifact.Artifact _artifact;
+    @Nullable
+    private List<Exception> _exceptions;
+
+    RootResolution( @Nonnull final ArtifactModel model )
+    {
+      _model = Objects.requireNonNull( model );
+      _artifact = toArtifact( model, e -> _exceptions = e );
+    }
+
+    @Nonnull
+    ArtifactModel getModel()
+    {
+      return _model;
+    }
+
+    @Nonnull
+    org.eclipse.aether.artifact.Artifact getArtifact()
+    {
+      return _artifact;
+    }
+
+    @Nullable
+    List<Exception> getExceptions()
+    {
+      return _exceptions;
+    }
+  }
+
+  /**
+   * The result of collecting the dependency graph of a root dependency. Any exception is captured rather
+   * than thrown so that the results of collecting the other roots are retained.
+   */
+  private final class RootCollection
+  {
+    @Nonnull
+    private final CollectResult _result;
+    @Nullable
+    private final DependencyCollectionException _exception;
+
+    RootCollection( @Nonnull final RepositorySystemSession session, @Nonnull final Dependency dependency )
+    {
+      final CollectRequest request = new CollectRequest( Collections.singletonList( dependency ), null, _repositories );
+      CollectResult result;
+      DependencyCollectionException exception = null;
+      try
+      {
+        result = _system.collectDependencies( session, request );
+      }
+      catch ( final DependencyCollectionException dce )
+      {
+        exception = dce;
+        result = dce.getResult();
+      }
+      _result = result;
+      _exception = exception;
+    }
+
+    @Nonnull
+    CollectResult getResult()
+    {
+      return _result;
+    }
+
+    @Nullable
+    DependencyCollectionException getException()
+    {
+      return _exception;
+    }
+  }
+
+  /**
+   * A minimal context used when transforming the merged dependency graph.
+   */
+  private static final class GraphTransformationContext
+    implements DependencyGraphTransformationContext
+  {
+    @Nonnull
+    private final RepositorySystemSession _session;
+    @Nonnull
+    private final Map<Object, Object> _data = new HashMap<>();
+
+    GraphTransformationContext( @Nonnull final RepositorySystemSession session )
+    {
+      _session = Objects.requireNonNull( session );
+    }
+
+    @Override
+    public RepositorySystemSession getSession()
+    {
+      return _session;
+    }
+
+    @Override
+    public Object get( @Nonnull final Object key )
+    {
+      return _data.get( key );
+    }
+
+    @Override
+    public Object put( @Nonnull final Object key, @Nullable final Object value )
+    {
+      return null != value ? _data.put( key, value ) : _data.remove( key );
+    }
+  }
+
   @FunctionalInterface
   interface OnInvalidPomFn
   {
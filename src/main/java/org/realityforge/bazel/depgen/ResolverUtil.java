@@ -5,10 +5,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryCache;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
@@ -35,6 +37,12 @@ import org.realityforge.bazel.depgen.model.RepositoryModel;
 
 final class ResolverUtil
 {
+  /**
+   * The repository system is stateless and expensive to create so it is created once per process.
+   */
+  @Nullable
+  private static RepositorySystem c_repositorySystem;
+
   private ResolverUtil()
   {
   }
@@ -60,12 +68,22 @@ final class ResolverUtil
                                   final boolean failOnMissingPom,
                                   final boolean failOnInvalidPom )
   {
-    final RepositorySystem system = newRepositorySystem( environment );
+    final RepositorySystem system = getRepositorySystem( environment );
     final RepositorySystemSession session =
       newRepositorySystemSession( system, cacheDir, environment, failOnMissingPom, failOnInvalidPom );
     return new Resolver( environment, system, session, repositories );
   }
 
+  @Nonnull
+  private static synchronized RepositorySystem getRepositorySystem( @Nonnull final Environment environment )
+  {
+    if ( null == c_repositorySystem )
+    {
+      c_repositorySystem = newRepositorySystem( environment );
+    }
+    return c_repositorySystem;
+  }
+
   @Nonnull
   private static RepositorySystem newRepositorySystem( @Nonnull final Environment environment )
   {
@@ -118,6 +136,15 @@ final class ResolverUtil
     session.setTransferListener( new SimpleTransferListener( environment ) );
     session.setRepositoryListener( new SimpleRepositoryListener( environment ) );
     session.setArtifactDescriptorPolicy( new SimpleArtifactDescriptorPolicy( !failOnMissingPom, !failOnInvalidPom ) );
+    // Resolve artifacts from the local repository and fail rather than contact a remote repository
+    session.setOffline( environment.isOffline() );
+
+    final RepositoryCache sessionCache = environment.getSessionCache();
+    if ( null != sessionCache )
+    {
+      // Share the parsed artifact descriptors between the sessions created by a long-lived process
+      session.setCache( sessionCache );
+    }
 
     return session;
   }
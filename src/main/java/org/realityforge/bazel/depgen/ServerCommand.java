@@ -0,0 +1,118 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.getopt4j.CLOption;
+import org.realityforge.getopt4j.CLOptionDescriptor;
+
+final class ServerCommand
+  extends ConfigurableCommand
+{
+  @Nonnull
+  static final String COMMAND = "server";
+  /**
+   * The name of the socket created in the cache directory if no socket is specified.
+   */
+  @Nonnull
+  static final String DEFAULT_SOCKET_NAME = "depgen.sock";
+  private static final int SOCKET_OPT = 1;
+  private static final CLOptionDescriptor[] OPTIONS = new CLOptionDescriptor[]
+    {
+      new CLOptionDescriptor( "socket",
+                              CLOptionDescriptor.ARGUMENT_REQUIRED,
+                              SOCKET_OPT,
+                              "The path to the unix domain socket on which to listen. Defaults to " +
+                              "'" + DEFAULT_SOCKET_NAME + "' in the cache directory." )
+    };
+  @Nullable
+  private Path _socket;
+
+  ServerCommand()
+  {
+    super( COMMAND,
+           "Run a server that runs the generate, print-graph and hash commands on behalf of clients that " +
+           "specify the --server-socket option.",
+           OPTIONS );
+  }
+
+  @Override
+  boolean requireConfigFile()
+  {
+    return false;
+  }
+
+  @Override
+  boolean mayUseArtifactCache()
+  {
+    return true;
+  }
+
+  @Override
+  boolean processArguments( @Nonnull final Environment environment, @Nonnull final List<CLOption> arguments )
+  {
+    // Get a list of parsed options
+    for ( final CLOption option : arguments )
+    {
+      switch ( option.getId() )
+      {
+        case CLOption.TEXT_ARGUMENT:
+        {
+          final String argument = option.getArgument();
+          environment.logger().log( Level.SEVERE, "Error: Invalid argument: " + argument );
+          return false;
+        }
+        case SOCKET_OPT:
+        {
+          _socket = environment.currentDirectory().resolve( option.getArgument() ).toAbsolutePath().normalize();
+          break;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  int run( @Nonnull final Context context )
+    throws IOException
+  {
+    final Environment environment = context.environment();
+    final Logger logger = environment.logger();
+    final Path socket = null != _socket ? _socket : environment.getCacheDir().resolve( DEFAULT_SOCKET_NAME );
+    Files.createDirectories( socket.getParent() );
+
+    final DepgenServer server = new DepgenServer( socket, logger );
+    try ( final ServerSocketChannel channel = server.bind() )
+    {
+      final Thread shutdownHook = new Thread( () -> close( channel, socket ) );
+      Runtime.getRuntime().addShutdownHook( shutdownHook );
+      logger.log( Level.INFO, "Listening on " + socket );
+      server.serve( channel );
+    }
+    finally
+    {
+      Files.deleteIfExists( socket );
+    }
+    return ExitCodes.SUCCESS_EXIT_CODE;
+  }
+
+  private void close( @Nonnull final ServerSocketChannel channel, @Nonnull final Path socket )
+  {
+    try
+    {
+      channel.close();
+      Files.deleteIfExists( socket );
+    }
+    catch ( final IOException ignored )
+    {
+      // The process is exiting
+    }
+  }
+}
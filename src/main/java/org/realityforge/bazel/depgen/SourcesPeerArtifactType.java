@@ -6,20 +6,19 @@ import org.eclipse.aether.util.artifact.SubArtifact;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.model.ArtifactModel;
 
-final class SourceDownloaderVisitor
-  extends PeerArtifactDownloaderVisitor
+final class SourcesPeerArtifactType
+  extends PeerArtifactType
 {
   private static final String SOURCES_PRESENT_PROPERTY = "sources.present";
 
-  SourceDownloaderVisitor( @Nonnull final Resolver resolver, @Nonnull final ApplicationModel model )
+  SourcesPeerArtifactType()
   {
-    super( resolver, model, SOURCES_PRESENT_PROPERTY, Constants.SOURCE_ARTIFACT_FILENAME );
+    super( SOURCES_PRESENT_PROPERTY, Constants.SOURCE_ARTIFACT_FILENAME );
   }
 
   @Override
-  boolean shouldDownloadPeerArtifact( @Nonnull final Artifact artifact )
+  boolean shouldDownloadPeerArtifact( @Nonnull final ApplicationModel model, @Nonnull final Artifact artifact )
   {
-    final ApplicationModel model = getModel();
     final ArtifactModel artifactModel = model.findArtifact( artifact.getGroupId(), artifact.getArtifactId() );
     final boolean includeSource = model.getOptions().includeSource();
     return null == artifactModel ? includeSource : artifactModel.includeSource( includeSource );
@@ -0,0 +1,166 @@
+package org.realityforge.bazel.depgen;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+import org.realityforge.bazel.depgen.model.OptionsModel;
+import org.realityforge.bazel.depgen.record.ApplicationRecord;
+import org.realityforge.bazel.depgen.util.Exec;
+import org.realityforge.getopt4j.CLOption;
+import org.realityforge.getopt4j.CLOptionDescriptor;
+
+/**
+ * Create a class data sharing archive by running the generated regenerate target via <code>bazel run</code>
+ * in a JVM that records the classes that are loaded. The archive is only valid for the JVM and the classpath
+ * used to create the archive so the workload is the target launched by bazel, using the java runtime and the
+ * runfiles classpath that are used when the archive is passed to the JVM via the <code>-XX:SharedArchiveFile</code>
+ * flag. The archive is passed to the JVM when the bazel defines described by
+ * {@link ApplicationRecord#CLASS_DATA_SHARING_DEFINE} and {@link ApplicationRecord#CLASS_DATA_SHARING_ARCHIVE_DEFINE}
+ * are specified, typically in a bazelrc file that is not committed.
+ */
+final class TrainCdsCommand
+  extends ConfigurableCommand
+{
+  @Nonnull
+  static final String COMMAND = "train-cds";
+  /**
+   * The name of the archive created in the cache directory if no archive is specified.
+   */
+  @Nonnull
+  static final String DEFAULT_ARCHIVE_NAME = "depgen.jsa";
+  private static final int ARCHIVE_OPT = 1;
+  private static final CLOptionDescriptor[] OPTIONS = new CLOptionDescriptor[]
+    {
+      new CLOptionDescriptor( "archive",
+                              CLOptionDescriptor.ARGUMENT_REQUIRED,
+                              ARCHIVE_OPT,
+                              "The path to the archive to create. Defaults to '" + DEFAULT_ARCHIVE_NAME +
+                              "' in the cache directory." )
+    };
+  @Nullable
+  private Path _archive;
+
+  TrainCdsCommand()
+  {
+    super( COMMAND, "Create a class data sharing archive that reduces the startup time of the tool.", OPTIONS );
+  }
+
+  @Override
+  boolean processArguments( @Nonnull final Environment environment, @Nonnull final List<CLOption> arguments )
+  {
+    // Get a list of parsed options
+    for ( final CLOption option : arguments )
+    {
+      switch ( option.getId() )
+      {
+        case CLOption.TEXT_ARGUMENT:
+        {
+          final String argument = option.getArgument();
+          environment.logger().log( Level.SEVERE, "Error: Invalid argument: " + argument );
+          return false;
+        }
+        case ARCHIVE_OPT:
+        {
+          _archive = environment.currentDirectory().resolve( option.getArgument() ).toAbsolutePath().normalize();
+          break;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  int run( @Nonnull final Context context )
+    throws IOException
+  {
+    final Environment environment = context.environment();
+    final ApplicationModel model = context.loadModel();
+    final OptionsModel options = model.getOptions();
+    if ( !options.classDataSharing() || !options.verifyConfigSha256() )
+    {
+      throw new DepgenException( "The 'classDataSharing' and 'verifyConfigSha256' options must be enabled so " +
+                                 "that the generated regenerate target can use a class data sharing archive." );
+    }
+    final Path archive = null != _archive ? _archive : environment.getCacheDir().resolve( DEFAULT_ARCHIVE_NAME );
+    Files.createDirectories( archive.getParent() );
+
+    // The JVM writes the archive as it exits so the archive is written to a temporary file that
+    // is moved into place once complete so that a JVM never maps a partially written archive
+    final Path tmpArchive = archive.resolveSibling( "." + archive.getFileName() + ".tmp" );
+    Files.deleteIfExists( tmpArchive );
+    try
+    {
+      final List<String> command = buildCommand( model, tmpArchive );
+      environment.logger().log( Level.FINE, "Running workload: " + command );
+      Exec.run( p -> p.command( command ).directory( options.getWorkspaceDirectory().toFile() ),
+                ExitCodes.SUCCESS_EXIT_CODE );
+      if ( !Files.exists( tmpArchive ) )
+      {
+        throw new DepgenException( "The JVM failed to create the class data sharing archive. The java runtime " +
+                                  "used by bazel must support the -XX:ArchiveClassesAtExit flag (i.e. Java 13 " +
+                                  "or later)." );
+      }
+      try
+      {
+        Files.move( tmpArchive, archive, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch ( final AtomicMoveNotSupportedException amnse )
+      {
+        Files.move( tmpArchive, archive, StandardCopyOption.REPLACE_EXISTING );
+      }
+    }
+    finally
+    {
+      Files.deleteIfExists( tmpArchive );
+    }
+
+    final Logger logger = environment.logger();
+    logger.log( Level.INFO, "Created class data sharing archive " + archive );
+    logger.log( Level.INFO,
+                "Add the following line to a bazelrc file that is not committed (i.e. the user bazelrc) to " +
+                "pass the archive to the JVM in the generated regenerate target:\n" +
+                getBazelrcLine( archive ) );
+    return ExitCodes.SUCCESS_EXIT_CODE;
+  }
+
+  /**
+   * Return the bazelrc line that enables the class data sharing archive in the generated regenerate target.
+   */
+  @Nonnull
+  static String getBazelrcLine( @Nonnull final Path archive )
+  {
+    return "build --define=" + ApplicationRecord.CLASS_DATA_SHARING_DEFINE + "=true " +
+           "--define=" + ApplicationRecord.CLASS_DATA_SHARING_ARCHIVE_DEFINE + "=" + archive;
+  }
+
+  /**
+   * Return the command that runs the regenerate target and creates the archive as the JVM exits.
+   * The existing archive is explicitly disabled as the JVM refuses to create a dynamic archive on
+   * top of an existing dynamic archive.
+   */
+  @Nonnull
+  static List<String> buildCommand( @Nonnull final ApplicationModel model, @Nonnull final Path archive )
+  {
+    final OptionsModel options = model.getOptions();
+    final Path configPackage = options.getWorkspaceDirectory().relativize( model.getConfigLocation().getParent() );
+    final List<String> command = new ArrayList<>();
+    command.add( "bazel" );
+    command.add( "run" );
+    command.add( "--define=" + ApplicationRecord.CLASS_DATA_SHARING_DEFINE + "=false" );
+    command.add( "//" + configPackage + ":" + model.regenerateTargetName() );
+    command.add( "--" );
+    // The java_binary launcher passes --jvm_flag arguments to the JVM rather than to the main class
+    command.add( "--jvm_flag=-XX:ArchiveClassesAtExit=" + archive );
+    return command;
+  }
+}
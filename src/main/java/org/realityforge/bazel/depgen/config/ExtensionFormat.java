@@ -0,0 +1,9 @@
+package org.realityforge.bazel.depgen.config;
+
+public enum ExtensionFormat
+{
+  // Each repository rule and target is defined by a separate call in the macros
+  Expanded,
+  // The repository rules and targets are described by tables and the macros define them by iterating over the tables
+  Table
+}
@@ -20,6 +20,9 @@ public final class OptionsConfig
   public static final boolean DEFAULT_EXPORT_DEPS = false;
   public static final boolean DEFAULT_SUPPORT_DEPENDENCY_OMIT = false;
   public static final boolean DEFAULT_VERIFY_CONFIG_SHA256 = true;
+  public static final boolean DEFAULT_CLASS_DATA_SHARING = false;
+  public static final int DEFAULT_EXTENSION_SHARD_COUNT = 1;
+  public static final ExtensionFormat DEFAULT_EXTENSION_FORMAT = ExtensionFormat.Expanded;
   public static final Nature DEFAULT_NATURE = Nature.Java;
   @Nullable
   private String workspaceDirectory;
@@ -50,6 +53,12 @@ public final class OptionsConfig
   @Nullable
   private Boolean verifyConfigSha256;
   @Nullable
+  private Integer extensionShardCount;
+  @Nullable
+  private ExtensionFormat extensionFormat;
+  @Nullable
+  private Boolean classDataSharing;
+  @Nullable
   private GlobalJavaConfig java;
 
   @Nullable
@@ -206,6 +215,39 @@ public final class OptionsConfig
     this.verifyConfigSha256 = Objects.requireNonNull( verifyConfigSha256 );
   }
 
+  @Nullable
+  public Integer getExtensionShardCount()
+  {
+    return extensionShardCount;
+  }
+
+  public void setExtensionShardCount( @Nonnull final Integer extensionShardCount )
+  {
+    this.extensionShardCount = Objects.requireNonNull( extensionShardCount );
+  }
+
+  @Nullable
+  public ExtensionFormat getExtensionFormat()
+  {
+    return extensionFormat;
+  }
+
+  public void setExtensionFormat( @Nonnull final ExtensionFormat extensionFormat )
+  {
+    this.extensionFormat = Objects.requireNonNull( extensionFormat );
+  }
+
+  @Nullable
+  public Boolean getClassDataSharing()
+  {
+    return classDataSharing;
+  }
+
+  public void setClassDataSharing( @Nonnull final Boolean classDataSharing )
+  {
+    this.classDataSharing = Objects.requireNonNull( classDataSharing );
+  }
+
   @Nullable
   public GlobalJavaConfig getJava()
   {
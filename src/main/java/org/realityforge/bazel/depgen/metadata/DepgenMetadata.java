@@ -3,11 +3,15 @@ package org.realityforge.bazel.depgen.metadata;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -31,6 +35,11 @@ import org.realityforge.bazel.depgen.util.OrderedProperties;
  *
  * <p>The data is derived in the context of a particular {@link ApplicationRecord} so that only the repositories that
  * are registered in <code>dependency.yaml</code> are checked etc.</p>
+ *
+ * <p>Instances created via {@link #fromDirectory(ApplicationModel, Path)} persist every change immediately while
+ * instances obtained from the {@link DepgenMetadataRegistry} defer writing changes until they are flushed.
+ * The registry may also be configured to store the metadata in a {@link MetadataIndex} rather than in a file in
+ * the directory of the artifact.</p>
  */
 public final class DepgenMetadata
 {
@@ -41,19 +50,85 @@ public final class DepgenMetadata
   private final ApplicationModel _model;
   @Nonnull
   private final Path _file;
+  /**
+   * True if changes are persisted when {@link #flush()} is invoked, false if persisted as soon as they are made.
+   */
+  private final boolean _writeBehind;
+  /**
+   * The index in which the metadata is stored or null if stored in {@link #_file}.
+   */
+  @Nullable
+  private final MetadataIndex _index;
+  /**
+   * The cache of inspections shared between directories or null if files are always inspected.
+   */
+  @Nullable
+  private final InspectionCache _inspectionCache;
   @Nullable
   private OrderedProperties _properties;
+  /**
+   * True if the cached properties contain changes that have not been persisted.
+   */
+  private boolean _dirty;
+  /**
+   * The time the metadata file was last modified when the properties were loaded or written or null if the
+   * file was not present. Used to determine whether another process has modified the file since.
+   */
+  @Nullable
+  private FileTime _lastModifiedTime;
+  /**
+   * Inspections of files performed by this instance so that a file is read at most once.
+   */
+  @Nonnull
+  private final Map<Path, JarInspection> _inspections = new HashMap<>();
 
   @Nonnull
   public static DepgenMetadata fromDirectory( @Nonnull final ApplicationModel model, @Nonnull final Path dir )
   {
-    return new DepgenMetadata( model, dir.resolve( FILENAME ) );
+    return new DepgenMetadata( model, dir.resolve( FILENAME ), false, null, null );
   }
 
-  private DepgenMetadata( @Nonnull final ApplicationModel model, @Nonnull final Path file )
+  DepgenMetadata( @Nonnull final ApplicationModel model,
+                  @Nonnull final Path file,
+                  final boolean writeBehind,
+                  @Nullable final MetadataIndex index,
+                  @Nullable final InspectionCache inspectionCache )
   {
     _model = Objects.requireNonNull( model );
     _file = Objects.requireNonNull( file );
+    _writeBehind = writeBehind;
+    _index = index;
+    _inspectionCache = inspectionCache;
+  }
+
+  @Nonnull
+  ApplicationModel getModel()
+  {
+    return _model;
+  }
+
+  /**
+   * Return an instance that derives metadata in the context of a different model.
+   * The properties loaded by this instance are reused if the metadata file has not been modified
+   * since the properties were loaded or written, so that the file is not read again.
+   *
+   * @param model the model in which the metadata is derived.
+   * @return the new instance.
+   */
+  @Nonnull
+  DepgenMetadata forModel( @Nonnull final ApplicationModel model )
+  {
+    flush();
+    final DepgenMetadata metadata = new DepgenMetadata( model, _file, _writeBehind, _index, _inspectionCache );
+    // Properties stored in an index are already held in memory by the index
+    if ( null != _properties && null == _index && Objects.equals( _lastModifiedTime, getLastModifiedTime() ) )
+    {
+      final OrderedProperties properties = new OrderedProperties();
+      properties.putAll( _properties );
+      metadata._properties = properties;
+      metadata._lastModifiedTime = _lastModifiedTime;
+    }
+    return metadata;
   }
 
   public void updateProperty( @Nonnull final String key, @Nonnull final String value )
@@ -62,6 +137,20 @@ public final class DepgenMetadata
     saveCachedProperties();
   }
 
+  /**
+   * Update several properties and persist the changes with a single write.
+   *
+   * @param properties the properties to update.
+   */
+  public void updateProperties( @Nonnull final Map<String, String> properties )
+  {
+    if ( !properties.isEmpty() )
+    {
+      getCachedProperties().putAll( properties );
+      saveCachedProperties();
+    }
+  }
+
   /**
    * Return the sha256 for artifact with filename and classifier.
    *
@@ -72,11 +161,13 @@ public final class DepgenMetadata
   @Nonnull
   public String getSha256( @Nonnull final String classifier, @Nonnull final File file )
   {
-    return getOrCompute( classifierAsKey( classifier ) + ".sha256", () -> RecordUtil.sha256( file ) );
+    return getOrCompute( classifierAsKey( classifier ) + ".sha256", () -> inspect( file ).getSha256() );
   }
 
   /**
    * Return the urls where the artifact can be found.
+   * If the model is offline then the urls are never looked up in the remote repositories and a
+   * {@link MissingCachedMetadataException} is raised if the url for any repository is not cached.
    *
    * @param artifact               the artifact.
    * @param repositories           the remote repositories associated with the artifact.
@@ -91,6 +182,7 @@ public final class DepgenMetadata
                                @Nonnull final RecordBuildCallback callback )
   {
     final ArrayList<String> urls = new ArrayList<>();
+    final List<String> missing = new ArrayList<>();
     for ( final RemoteRepository remoteRepository : repositories )
     {
       final String name = remoteRepository.getId();
@@ -118,17 +210,49 @@ public final class DepgenMetadata
         saveCachedProperties();
       }
 
-      final String url =
-        repository.cacheLookups() ?
-        getOrCompute( key, () -> lookupArtifact( artifact, remoteRepository, authenticationContexts ) ) :
-        lookupArtifact( artifact, remoteRepository, authenticationContexts );
+      final String url;
+      if ( _model.isOffline() )
+      {
+        // Never access the network in offline mode. Repositories where cacheLookups is false have no
+        // cached urls so the local repository is consulted to determine whether the artifact is present
+        if ( repository.cacheLookups() )
+        {
+          url = properties.getProperty( key );
+          if ( null == url )
+          {
+            missing.add( "artifact '" + artifact + "' in repository '" + name + "' (cache entry '" + key + "')" );
+            continue;
+          }
+        }
+        else
+        {
+          url = lookupArtifactOffline( artifact, remoteRepository, authenticationContexts );
+          if ( null == url )
+          {
+            missing.add( "artifact '" + artifact + "' in repository '" + name + "' " +
+                         "(not recorded in the local repository)" );
+            continue;
+          }
+        }
+      }
+      else
+      {
+        url =
+          repository.cacheLookups() ?
+          getOrCompute( key, () -> lookupArtifact( artifact, remoteRepository, authenticationContexts ) ) :
+          lookupArtifact( artifact, remoteRepository, authenticationContexts );
+      }
       if ( !SENTINEL.equals( url ) )
       {
         urls.add( url );
       }
     }
 
-    if ( urls.isEmpty() )
+    if ( !missing.isEmpty() )
+    {
+      throw new MissingCachedMetadataException( missing );
+    }
+    else if ( urls.isEmpty() )
     {
       throw new DepgenException( "Unable to locate artifact " + artifact + " in any repository." );
     }
@@ -138,7 +262,7 @@ public final class DepgenMetadata
   @Nullable
   public List<String> getProcessors( @Nonnull final File file )
   {
-    final String processors = getOrCompute( "processors", () -> RecordUtil.readAnnotationProcessors( file ) );
+    final String processors = getOrCompute( "processors", () -> inspect( file ).getProcessors() );
     return SENTINEL.equals( processors ) ?
            null :
            Collections.unmodifiableList( Arrays.asList( processors.split( "," ) ) );
@@ -147,12 +271,28 @@ public final class DepgenMetadata
   @Nullable
   public List<String> getJsAssets( @Nonnull final File file )
   {
-    final String assets = getOrCompute( "js_assets", () -> RecordUtil.readJsAssets( file ) );
+    final String assets = getOrCompute( "js_assets", () -> inspect( file ).getJsAssets() );
     return SENTINEL.equals( assets ) ?
            null :
            Collections.unmodifiableList( Arrays.asList( assets.split( "," ) ) );
   }
 
+  /**
+   * Inspect the file, reading it at most once regardless of how many facts are derived from it.
+   * If an inspection cache is present then the file is only read if it has changed since it was last inspected.
+   *
+   * @param file the file to inspect.
+   * @return the inspection.
+   */
+  @Nonnull
+  private JarInspection inspect( @Nonnull final File file )
+  {
+    return _inspections.computeIfAbsent( file.toPath(),
+                                         p -> null != _inspectionCache ?
+                                              _inspectionCache.inspect( file ) :
+                                              JarInspection.inspect( file ) );
+  }
+
   @Nonnull
   private String lookupArtifact( @Nonnull final Artifact artifact,
                                  @Nonnull final RemoteRepository remoteRepository,
@@ -163,6 +303,27 @@ public final class DepgenMetadata
     return null == url ? SENTINEL : url;
   }
 
+  /**
+   * Return the url of the artifact in the repository without accessing the network, the sentinel if the
+   * artifact is known to be absent from the repository or null if the presence of the artifact can not
+   * be determined without accessing the network.
+   */
+  @Nullable
+  private String lookupArtifactOffline( @Nonnull final Artifact artifact,
+                                        @Nonnull final RemoteRepository remoteRepository,
+                                        @Nonnull final Map<String, AuthenticationContext> authenticationContexts )
+  {
+    if ( remoteRepository.getUrl().startsWith( "file:" ) )
+    {
+      // A repository with a file url is inspected directly so the absence of the artifact is known
+      return lookupArtifact( artifact, remoteRepository, authenticationContexts );
+    }
+    else
+    {
+      return RecordUtil.lookupArtifactInRepositoryOffline( artifact, remoteRepository );
+    }
+  }
+
   /**
    * Return value cached under key or compute value and cache it before returning value.
    *
@@ -200,16 +361,66 @@ public final class DepgenMetadata
 
   private void saveCachedProperties()
   {
-    assert null != _properties;
-    try
+    _dirty = true;
+    if ( !_writeBehind )
     {
-      try ( final Writer writer = Files.newBufferedWriter( _file ) )
-      {
-        _properties.store( writer, null );
-      }
+      flush();
     }
-    catch ( final IOException ignored )
+  }
+
+  /**
+   * Persist any changes that have not yet been written.
+   * The properties are written to a temporary file that then replaces the metadata file so that
+   * a concurrent reader or an interrupted process never observes a partially written file.
+   */
+  public void flush()
+  {
+    if ( _dirty )
     {
+      assert null != _properties;
+      _dirty = false;
+      if ( null != _index )
+      {
+        final Map<String, String> properties = new HashMap<>();
+        for ( final String key : _properties.stringPropertyNames() )
+        {
+          properties.put( key, _properties.getProperty( key ) );
+        }
+        _index.put( _file.getParent(), properties );
+        return;
+      }
+      Path tmpFile = null;
+      try
+      {
+        tmpFile = Files.createTempFile( _file.getParent(), FILENAME, ".tmp" );
+        try ( final Writer writer = Files.newBufferedWriter( tmpFile ) )
+        {
+          _properties.store( writer, null );
+        }
+        try
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( final AtomicMoveNotSupportedException ignored )
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING );
+        }
+        _lastModifiedTime = getLastModifiedTime();
+      }
+      catch ( final IOException ignored )
+      {
+        if ( null != tmpFile )
+        {
+          try
+          {
+            Files.deleteIfExists( tmpFile );
+          }
+          catch ( final IOException ignored2 )
+          {
+            //Ignored. The temporary file will be left behind.
+          }
+        }
+      }
     }
   }
 
@@ -219,8 +430,17 @@ public final class DepgenMetadata
     if ( null == _properties )
     {
       final OrderedProperties properties = new OrderedProperties();
-      if ( _file.toFile().exists() && _file.toFile().isFile() )
+      if ( null != _index )
       {
+        final Map<String, String> existing = _index.get( _file.getParent() );
+        if ( null != existing )
+        {
+          properties.putAll( existing );
+        }
+      }
+      else if ( _file.toFile().exists() && _file.toFile().isFile() )
+      {
+        _lastModifiedTime = getLastModifiedTime();
         try
         {
           properties.load( Files.newBufferedReader( _file ) );
@@ -235,6 +455,19 @@ public final class DepgenMetadata
     return _properties;
   }
 
+  @Nullable
+  private FileTime getLastModifiedTime()
+  {
+    try
+    {
+      return Files.getLastModifiedTime( _file );
+    }
+    catch ( final IOException ignored )
+    {
+      return null;
+    }
+  }
+
   private boolean shouldResetCachedProperties()
   {
     return _model.shouldResetCachedMetadata();
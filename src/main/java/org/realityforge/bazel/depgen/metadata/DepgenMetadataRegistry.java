@@ -0,0 +1,115 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+
+/**
+ * A process-wide registry of {@link DepgenMetadata} instances.
+ * The registry shares a single instance per directory so that the metadata file is read once and
+ * every change made during the run is persisted by a single write when {@link #flush()} is invoked.
+ * The instances are retained after a flush so that the metadata remains in memory between the runs
+ * of a long-lived process.
+ * The registry can also be configured via {@link #configure(Path, boolean)} to cache the results of
+ * inspecting artifacts and to store the metadata in a single index file in the cache directory rather
+ * than in a file in the directory of each artifact.
+ */
+public final class DepgenMetadataRegistry
+{
+  /**
+   * The version of the format in which the metadata is stored.
+   */
+  public static final int INDEX_VERSION = MetadataIndex.VERSION;
+  @Nonnull
+  private static final Map<Path, DepgenMetadata> c_entries = new ConcurrentHashMap<>();
+  @Nullable
+  private static volatile MetadataIndex c_index;
+  @Nullable
+  private static volatile InspectionCache c_inspectionCache;
+  @Nullable
+  private static Path c_cacheDir;
+  private static boolean c_useIndex;
+
+  private DepgenMetadataRegistry()
+  {
+  }
+
+  /**
+   * Return the metadata for the specified directory.
+   * The same instance is returned for a directory while the model is unchanged. If the directory was
+   * previously accessed in the context of a different model then the existing instance is replaced by an
+   * instance that reuses the loaded properties unless the metadata file has been modified since.
+   *
+   * @param model the model in which the metadata is derived.
+   * @param dir   the directory containing the artifacts.
+   * @return the metadata.
+   */
+  @Nonnull
+  public static DepgenMetadata get( @Nonnull final ApplicationModel model, @Nonnull final Path dir )
+  {
+    final Path file = dir.resolve( DepgenMetadata.FILENAME ).toAbsolutePath().normalize();
+    return c_entries.compute( file, ( k, existing ) -> {
+      if ( null == existing )
+      {
+        return new DepgenMetadata( model, file, true, c_index, c_inspectionCache );
+      }
+      else if ( existing.getModel() == model )
+      {
+        return existing;
+      }
+      else
+      {
+        return existing.forModel( model );
+      }
+    } );
+  }
+
+  /**
+   * Specify the cache directory in which the registry stores the data shared by every artifact.
+   * The results of inspecting artifacts are always cached in the cache directory while the metadata
+   * is only stored in the metadata index if requested. Any outstanding changes are flushed before
+   * the configuration is changed. The call is ignored if the configuration is unchanged so that a
+   * long-lived process retains the index and the inspection cache in memory between runs.
+   *
+   * @param cacheDir the cache directory or null to neither cache inspections nor store an index.
+   * @param useIndex true to store the metadata in an index in the cache directory.
+   */
+  public static synchronized void configure( @Nullable final Path cacheDir, final boolean useIndex )
+  {
+    if ( Objects.equals( c_cacheDir, cacheDir ) && c_useIndex == useIndex )
+    {
+      return;
+    }
+    flush();
+    // The existing instances refer to the previous index and inspection cache
+    c_entries.clear();
+    c_cacheDir = cacheDir;
+    c_useIndex = useIndex;
+    c_index = null != cacheDir && useIndex ? MetadataIndex.open( cacheDir ) : null;
+    c_inspectionCache = null != cacheDir ? InspectionCache.open( cacheDir ) : null;
+  }
+
+  /**
+   * Persist the changes made to every metadata instance.
+   * The instances are retained so that a long-lived process does not reload the metadata in subsequent runs.
+   */
+  public static synchronized void flush()
+  {
+    for ( final DepgenMetadata metadata : c_entries.values() )
+    {
+      metadata.flush();
+    }
+    if ( null != c_index )
+    {
+      c_index.sync();
+    }
+    if ( null != c_inspectionCache )
+    {
+      c_inspectionCache.save();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A cache of {@link JarInspection} results keyed by the identity of the inspected file.
+ * The identity is composed of the size, the last modified time and the file key (i.e. the device and inode)
+ * of the file, or the path of the file if the filesystem does not expose file keys. This allows the results
+ * to be reused when the cached metadata is reset or when the same file is linked into another directory
+ * and avoids rehashing files that have not changed.
+ *
+ * <p>The path of the inspected file is recorded with each entry. When the cache is saved, the entries that
+ * were not used during the run are discarded if the recorded path no longer has the same identity (i.e.
+ * the file has been removed or modified) so that the cache does not grow without bound.</p>
+ */
+final class InspectionCache
+{
+  @Nonnull
+  static final String FILENAME = "_depgen.inspections";
+  @Nonnull
+  private final Path _file;
+  @Nonnull
+  private final Map<String, JarInspection> _entries = new ConcurrentHashMap<>();
+  /**
+   * The path of the file that was inspected to create the entry, keyed by identity.
+   */
+  @Nonnull
+  private final Map<String, String> _paths = new ConcurrentHashMap<>();
+  /**
+   * The identities of the entries that have been used since the cache was loaded.
+   */
+  @Nonnull
+  private final Set<String> _used = ConcurrentHashMap.newKeySet();
+  /**
+   * True if entries have been added since the cache was loaded or saved.
+   */
+  private volatile boolean _dirty;
+
+  @Nonnull
+  static InspectionCache open( @Nonnull final Path cacheDir )
+  {
+    final InspectionCache cache = new InspectionCache( cacheDir.resolve( FILENAME ) );
+    cache.load();
+    return cache;
+  }
+
+  private InspectionCache( @Nonnull final Path file )
+  {
+    _file = Objects.requireNonNull( file );
+  }
+
+  /**
+   * Return the inspection of the file, inspecting the file only if it has changed since it was last inspected.
+   *
+   * @param file the file.
+   * @return the inspection.
+   */
+  @Nonnull
+  JarInspection inspect( @Nonnull final File file )
+  {
+    final String identity = identityOf( file );
+    if ( null == identity )
+    {
+      return JarInspection.inspect( file );
+    }
+    _used.add( identity );
+    final JarInspection existing = _entries.get( identity );
+    if ( null != existing )
+    {
+      return existing;
+    }
+    else
+    {
+      final JarInspection inspection = JarInspection.inspect( file );
+      _paths.put( identity, file.toPath().toAbsolutePath().normalize().toString() );
+      _entries.put( identity, inspection );
+      _dirty = true;
+      return inspection;
+    }
+  }
+
+  /**
+   * Discard the entries that were not used since the cache was loaded and whose file has been removed or
+   * modified, then persist the cache if entries have been added or discarded.
+   */
+  synchronized void save()
+  {
+    for ( final String identity : _entries.keySet().toArray( new String[ 0 ] ) )
+    {
+      if ( !_used.contains( identity ) && !identity.equals( identityOf( new File( _paths.get( identity ) ) ) ) )
+      {
+        _entries.remove( identity );
+        _paths.remove( identity );
+        _dirty = true;
+      }
+    }
+    if ( _dirty )
+    {
+      _dirty = false;
+      try
+      {
+        Files.createDirectories( _file.getParent() );
+        final Path tmpFile = Files.createTempFile( _file.getParent(), FILENAME, ".tmp" );
+        try
+        {
+          try ( final Writer writer = Files.newBufferedWriter( tmpFile ) )
+          {
+            for ( final Map.Entry<String, JarInspection> entry : new TreeMap<>( _entries ).entrySet() )
+            {
+              final JarInspection inspection = entry.getValue();
+              writer.write( entry.getKey() + "\t" +
+                            _paths.get( entry.getKey() ) + "\t" +
+                            inspection.getSha256() + "\t" +
+                            inspection.getProcessors() + "\t" +
+                            inspection.getJsAssets() + "\n" );
+            }
+          }
+          try
+          {
+            Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+          }
+          catch ( final AtomicMoveNotSupportedException ignored )
+          {
+            Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING );
+          }
+        }
+        finally
+        {
+          Files.deleteIfExists( tmpFile );
+        }
+      }
+      catch ( final IOException ignored )
+      {
+        //Ignored. The files will be inspected again in the next run.
+      }
+    }
+  }
+
+  private void load()
+  {
+    if ( Files.isRegularFile( _file ) )
+    {
+      try ( final BufferedReader reader = Files.newBufferedReader( _file ) )
+      {
+        String line;
+        while ( null != ( line = reader.readLine() ) )
+        {
+          final String[] parts = line.split( "\t", -1 );
+          if ( 5 == parts.length )
+          {
+            _paths.put( parts[ 0 ], parts[ 1 ] );
+            _entries.put( parts[ 0 ], new JarInspection( parts[ 2 ], parts[ 3 ], parts[ 4 ] ) );
+          }
+        }
+      }
+      catch ( final IOException ignored )
+      {
+        //Ignored. Any entries that could not be read will be recalculated.
+      }
+    }
+  }
+
+  /**
+   * Return the identity of the file or null if the attributes of the file can not be read.
+   */
+  @Nullable
+  static String identityOf( @Nonnull final File file )
+  {
+    try
+    {
+      final Path path = file.toPath();
+      final BasicFileAttributes attributes = Files.readAttributes( path, BasicFileAttributes.class );
+      final Object fileKey = attributes.fileKey();
+      return attributes.size() + ":" +
+             attributes.lastModifiedTime().toMillis() + ":" +
+             ( null != fileKey ? fileKey : path.toAbsolutePath().normalize() );
+    }
+    catch ( final IOException ignored )
+    {
+      return null;
+    }
+  }
+}
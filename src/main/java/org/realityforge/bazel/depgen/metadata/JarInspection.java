@@ -0,0 +1,273 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.DepgenException;
+import org.realityforge.bazel.depgen.util.HashUtil;
+
+/**
+ * The facts derived from a single read of an artifact.
+ * The artifact is memory-mapped, hashed and, if it is a jar, the central directory is parsed from the
+ * same mapping to derive the annotation processors and js assets. If the jar uses features not supported
+ * by the central directory parser (i.e. zip64 archives) then the jar is read via {@link java.util.jar.JarFile}.
+ *
+ * <p>The processors and js assets are encoded in the same format as they are stored in the metadata.</p>
+ */
+final class JarInspection
+{
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_HEADER_SIGNATURE = 0x06054b50;
+  private static final int END_HEADER_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+  @Nonnull
+  private static final String PROCESSOR_SERVICE = "META-INF/services/javax.annotation.processing.Processor";
+  @Nonnull
+  private final String _sha256;
+  @Nonnull
+  private final String _processors;
+  @Nonnull
+  private final String _jsAssets;
+
+  @Nonnull
+  static JarInspection inspect( @Nonnull final File file )
+  {
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+    {
+      final long size = channel.size();
+      if ( size > Integer.MAX_VALUE )
+      {
+        // Too large to map in a single buffer so fallback to streaming the file
+        return new JarInspection( HashUtil.sha256( file.toPath() ),
+                                  RecordUtil.readAnnotationProcessors( file ),
+                                  RecordUtil.readJsAssets( file ) );
+      }
+      final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+      final String sha256 = HashUtil.sha256( buffer );
+      if ( !RecordUtil.isJarFile( file ) )
+      {
+        return new JarInspection( sha256, DepgenMetadata.SENTINEL, DepgenMetadata.SENTINEL );
+      }
+      final JarInspection inspection = parseCentralDirectory( sha256, buffer.order( ByteOrder.LITTLE_ENDIAN ) );
+      return null != inspection ?
+             inspection :
+             new JarInspection( sha256, RecordUtil.readAnnotationProcessors( file ), RecordUtil.readJsAssets( file ) );
+    }
+    catch ( final IOException ioe )
+    {
+      throw new DepgenException( "Error inspecting file " + file, ioe );
+    }
+  }
+
+  /**
+   * Parse the central directory of the jar in the buffer.
+   * Return null if the jar can not be parsed by this method.
+   */
+  @Nullable
+  private static JarInspection parseCentralDirectory( @Nonnull final String sha256, @Nonnull final ByteBuffer buffer )
+  {
+    try
+    {
+      final int end = findEndHeader( buffer );
+      if ( -1 == end )
+      {
+        return null;
+      }
+      final int entryCount = Short.toUnsignedInt( buffer.getShort( end + 10 ) );
+      final long directoryOffset = Integer.toUnsignedLong( buffer.getInt( end + 16 ) );
+      if ( 0xFFFF == entryCount || directoryOffset >= end )
+      {
+        // Either a zip64 archive or a corrupt archive
+        return null;
+      }
+
+      String processors = DepgenMetadata.SENTINEL;
+      final List<String> jsAssets = new ArrayList<>();
+      int offset = (int) directoryOffset;
+      for ( int i = 0; i < entryCount; i++ )
+      {
+        if ( CENTRAL_HEADER_SIGNATURE != buffer.getInt( offset ) )
+        {
+          return null;
+        }
+        final int method = Short.toUnsignedInt( buffer.getShort( offset + 10 ) );
+        final long compressedSize = Integer.toUnsignedLong( buffer.getInt( offset + 20 ) );
+        final long size = Integer.toUnsignedLong( buffer.getInt( offset + 24 ) );
+        final int nameLength = Short.toUnsignedInt( buffer.getShort( offset + 28 ) );
+        final int extraLength = Short.toUnsignedInt( buffer.getShort( offset + 30 ) );
+        final int commentLength = Short.toUnsignedInt( buffer.getShort( offset + 32 ) );
+        final long localHeaderOffset = Integer.toUnsignedLong( buffer.getInt( offset + 42 ) );
+        final String name = readString( buffer, offset + 46, nameLength );
+        offset += 46 + nameLength + extraLength + commentLength;
+
+        if ( name.endsWith( "/" ) )
+        {
+          continue;
+        }
+        if ( PROCESSOR_SERVICE.equals( name ) )
+        {
+          if ( 0xFFFFFFFFL == compressedSize || 0xFFFFFFFFL == size || 0xFFFFFFFFL == localHeaderOffset )
+          {
+            return null;
+          }
+          final byte[] content =
+            readEntry( buffer, (int) localHeaderOffset, method, (int) compressedSize, (int) size );
+          if ( null == content )
+          {
+            return null;
+          }
+          processors = parseProcessors( content );
+        }
+        else if ( name.endsWith( ".js" ) && !name.contains( "/public/" ) && !name.endsWith( ".native.js" ) )
+        {
+          jsAssets.add( name );
+        }
+      }
+      jsAssets.sort( null );
+      return new JarInspection( sha256,
+                                processors,
+                                jsAssets.isEmpty() ? DepgenMetadata.SENTINEL : String.join( ",", jsAssets ) );
+    }
+    catch ( final IndexOutOfBoundsException | IOException | DataFormatException ignored )
+    {
+      return null;
+    }
+  }
+
+  private static int findEndHeader( @Nonnull final ByteBuffer buffer )
+  {
+    final int limit = buffer.limit();
+    final int minimum = Math.max( 0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE );
+    for ( int offset = limit - END_HEADER_SIZE; offset >= minimum; offset-- )
+    {
+      if ( END_HEADER_SIGNATURE == buffer.getInt( offset ) )
+      {
+        return offset;
+      }
+    }
+    return -1;
+  }
+
+  @Nullable
+  private static byte[] readEntry( @Nonnull final ByteBuffer buffer,
+                                   final int localHeaderOffset,
+                                   final int method,
+                                   final int compressedSize,
+                                   final int size )
+    throws DataFormatException
+  {
+    if ( LOCAL_HEADER_SIGNATURE != buffer.getInt( localHeaderOffset ) )
+    {
+      return null;
+    }
+    final int nameLength = Short.toUnsignedInt( buffer.getShort( localHeaderOffset + 26 ) );
+    final int extraLength = Short.toUnsignedInt( buffer.getShort( localHeaderOffset + 28 ) );
+    final byte[] data = new byte[ compressedSize ];
+    buffer.duplicate().position( localHeaderOffset + 30 + nameLength + extraLength ).get( data );
+    if ( METHOD_STORED == method )
+    {
+      return data;
+    }
+    else if ( METHOD_DEFLATED == method )
+    {
+      final Inflater inflater = new Inflater( true );
+      try
+      {
+        inflater.setInput( data );
+        final byte[] content = new byte[ size ];
+        int length = 0;
+        while ( length < size && !inflater.finished() )
+        {
+          final int count = inflater.inflate( content, length, size - length );
+          if ( 0 == count && ( inflater.needsInput() || inflater.needsDictionary() ) )
+          {
+            break;
+          }
+          length += count;
+        }
+        return length == size ? content : null;
+      }
+      finally
+      {
+        inflater.end();
+      }
+    }
+    else
+    {
+      return null;
+    }
+  }
+
+  @Nonnull
+  private static String parseProcessors( @Nonnull final byte[] content )
+    throws IOException
+  {
+    try ( final BufferedReader reader =
+            new BufferedReader( new InputStreamReader( new ByteArrayInputStream( content ),
+                                                       StandardCharsets.UTF_8 ) ) )
+    {
+      final ArrayList<String> processors = new ArrayList<>();
+      String line;
+      while ( null != ( line = reader.readLine() ) )
+      {
+        final String l = line.trim();
+        if ( !l.isEmpty() && !l.startsWith( "#" ) )
+        {
+          processors.add( l );
+        }
+      }
+      return String.join( ",", processors );
+    }
+  }
+
+  @Nonnull
+  private static String readString( @Nonnull final ByteBuffer buffer, final int offset, final int length )
+  {
+    final byte[] bytes = new byte[ length ];
+    buffer.duplicate().position( offset ).get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  JarInspection( @Nonnull final String sha256, @Nonnull final String processors, @Nonnull final String jsAssets )
+  {
+    _sha256 = Objects.requireNonNull( sha256 );
+    _processors = Objects.requireNonNull( processors );
+    _jsAssets = Objects.requireNonNull( jsAssets );
+  }
+
+  @Nonnull
+  String getSha256()
+  {
+    return _sha256;
+  }
+
+  @Nonnull
+  String getProcessors()
+  {
+    return _processors;
+  }
+
+  @Nonnull
+  String getJsAssets()
+  {
+    return _jsAssets;
+  }
+}
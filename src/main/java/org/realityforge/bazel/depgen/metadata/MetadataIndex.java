@@ -0,0 +1,529 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.DepgenException;
+
+/**
+ * A single file that stores the metadata for every artifact in a cache directory.
+ * This is an alternative to storing a {@link DepgenMetadata#FILENAME} file in the directory of every artifact.
+ *
+ * <p>Entries are keyed by the directory of the artifact relative to the cache directory (i.e. the groupId,
+ * artifactId and version) and the metadata property (i.e. the classifier and repository). The file is
+ * append-only; a changed property is appended as a new record that supersedes the previous record and
+ * a removed property is appended as a record without a value. The file is memory-mapped and scanned once
+ * when opened and is compacted when superseded records dominate the file.</p>
+ *
+ * <p>Multiple processes may share the index. The file is only modified while holding a lock on a separate
+ * lock file, and the records appended or the file rewritten by other processes since the index was last
+ * read are scanned before the pending records are appended.</p>
+ *
+ * <p>When the index is created, the existing {@link DepgenMetadata#FILENAME} files in the cache
+ * directory are imported into the index.</p>
+ */
+final class MetadataIndex
+{
+  @Nonnull
+  static final String FILENAME = "_depgen.index";
+  /**
+   * The bytes "DGIX" that identify the file.
+   */
+  private static final int MAGIC = 0x44474958;
+  /**
+   * The version of the format. This should be incremented if the format changes.
+   */
+  static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  /**
+   * The value length that indicates the property has been removed.
+   */
+  private static final int REMOVED = -1;
+  /**
+   * The size below which the file is never compacted.
+   */
+  private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+  @Nonnull
+  private static final Object c_fileLock = new Object();
+  @Nonnull
+  private final Path _cacheDir;
+  @Nonnull
+  private final Path _file;
+  @Nonnull
+  private final Path _lockFile;
+  @Nonnull
+  private final Map<String, Map<String, String>> _entries = new HashMap<>();
+  /**
+   * The records that have been added to the index but not yet written to the file.
+   */
+  @Nonnull
+  private final ByteArrayOutputStream _pending = new ByteArrayOutputStream();
+  /**
+   * The length of the valid content of the file. Any content after this point is a partially written record.
+   */
+  private long _size;
+  /**
+   * The number of records in the file.
+   */
+  private int _recordCount;
+  /**
+   * The number of records that have been added to the index but not yet written to the file.
+   */
+  private int _pendingCount;
+  /**
+   * The key that identifies the file when it was last read or written. Used to detect that another process
+   * has replaced the file. May be null if the file system does not support file keys.
+   */
+  @Nullable
+  private Object _fileKey;
+
+  @Nonnull
+  static MetadataIndex open( @Nonnull final Path cacheDir )
+  {
+    final MetadataIndex index = new MetadataIndex( cacheDir );
+    index.withLock( () -> {
+      if ( !index.load() )
+      {
+        index.importProperties();
+        index.rewrite();
+      }
+    } );
+    return index;
+  }
+
+  private MetadataIndex( @Nonnull final Path cacheDir )
+  {
+    _cacheDir = Objects.requireNonNull( cacheDir ).toAbsolutePath().normalize();
+    _file = _cacheDir.resolve( FILENAME );
+    _lockFile = _cacheDir.resolve( FILENAME + ".lock" );
+  }
+
+  /**
+   * Return the properties for the directory or null if the index has no entry for the directory.
+   *
+   * @param dir the directory containing the artifacts.
+   * @return the properties or null if no entry.
+   */
+  @Nullable
+  synchronized Map<String, String> get( @Nonnull final Path dir )
+  {
+    final Map<String, String> properties = _entries.get( toKey( dir ) );
+    return null == properties ? null : new HashMap<>( properties );
+  }
+
+  /**
+   * Replace the properties for the directory.
+   * Only the differences are added to the index and they are not written until {@link #sync()} is invoked.
+   *
+   * @param dir        the directory containing the artifacts.
+   * @param properties the properties.
+   */
+  synchronized void put( @Nonnull final Path dir, @Nonnull final Map<String, String> properties )
+  {
+    final String key = toKey( dir );
+    final Map<String, String> existing = _entries.computeIfAbsent( key, k -> new HashMap<>() );
+    for ( final String property : existing.keySet().toArray( new String[ 0 ] ) )
+    {
+      if ( !properties.containsKey( property ) )
+      {
+        existing.remove( property );
+        appendRecord( key, property, null );
+      }
+    }
+    for ( final Map.Entry<String, String> entry : properties.entrySet() )
+    {
+      final String property = entry.getKey();
+      final String value = entry.getValue();
+      if ( !value.equals( existing.put( property, value ) ) )
+      {
+        appendRecord( key, property, value );
+      }
+    }
+  }
+
+  /**
+   * Write the pending records to the file, compacting the file if superseded records dominate it.
+   * Records written by other processes since the file was last read are added to the index first.
+   */
+  synchronized void sync()
+  {
+    if ( 0 != _pending.size() || shouldCompact() )
+    {
+      withLock( () -> {
+        if ( !reload() )
+        {
+          // The file has been removed or is in an unsupported format so write all of the entries
+          rewriteEntries();
+        }
+        else if ( shouldCompact() )
+        {
+          rewriteEntries();
+        }
+        else if ( 0 != _pending.size() )
+        {
+          try ( final FileChannel channel = FileChannel.open( _file, StandardOpenOption.WRITE ) )
+          {
+            // The lock is held so any content after the last complete record was left by a
+            // process that was terminated while appending a record and can be discarded
+            channel.truncate( _size );
+            final ByteBuffer buffer = ByteBuffer.wrap( _pending.toByteArray() );
+            channel.position( _size );
+            while ( buffer.hasRemaining() )
+            {
+              channel.write( buffer );
+            }
+          }
+          _size += _pending.size();
+          _recordCount += _pendingCount;
+          _pending.reset();
+          _pendingCount = 0;
+        }
+      } );
+    }
+  }
+
+  /**
+   * Rewrite the file so that it only contains the current value of each property.
+   */
+  synchronized void compact()
+  {
+    withLock( () -> {
+      reload();
+      rewriteEntries();
+    } );
+  }
+
+  private void rewriteEntries()
+  {
+    _pending.reset();
+    _pendingCount = 0;
+    for ( final Map.Entry<String, Map<String, String>> entry : _entries.entrySet() )
+    {
+      for ( final Map.Entry<String, String> property : entry.getValue().entrySet() )
+      {
+        appendRecord( entry.getKey(), property.getKey(), property.getValue() );
+      }
+    }
+    rewrite();
+  }
+
+  private boolean shouldCompact()
+  {
+    final int liveRecordCount = _entries.values().stream().mapToInt( Map::size ).sum();
+    return _size + _pending.size() > MIN_COMPACTION_SIZE && _recordCount + _pendingCount > 2 * liveRecordCount;
+  }
+
+  /**
+   * Import the metadata files in the cache directory into the index.
+   */
+  private void importProperties()
+  {
+    if ( Files.isDirectory( _cacheDir ) )
+    {
+      final List<Path> files;
+      try ( final Stream<Path> stream = Files.walk( _cacheDir ) )
+      {
+        files = stream
+          .filter( f -> f.getFileName().toString().equals( DepgenMetadata.FILENAME ) )
+          .sorted()
+          .collect( Collectors.toList() );
+      }
+      catch ( final IOException ioe )
+      {
+        throw new DepgenException( "Error scanning " + _cacheDir + " for metadata files", ioe );
+      }
+      for ( final Path file : files )
+      {
+        final Properties properties = new Properties();
+        try ( final Reader reader = Files.newBufferedReader( file ) )
+        {
+          properties.load( reader );
+        }
+        catch ( final IOException | IllegalArgumentException ignored )
+        {
+          //Ignored. Assumed to be invalid formatted file and the metadata will be recalculated.
+          continue;
+        }
+        put( file.getParent(),
+             properties
+               .stringPropertyNames()
+               .stream()
+               .collect( Collectors.toMap( k -> k, properties::getProperty ) ) );
+      }
+    }
+  }
+
+  /**
+   * Load the index from the file.
+   *
+   * @return true if the file existed and is in a supported format, false otherwise.
+   */
+  private boolean load()
+  {
+    if ( !Files.isRegularFile( _file ) )
+    {
+      return false;
+    }
+    try ( final FileChannel channel = FileChannel.open( _file, StandardOpenOption.READ ) )
+    {
+      final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      if ( !isValidHeader( buffer ) )
+      {
+        return false;
+      }
+      buffer.position( HEADER_SIZE );
+      _recordCount = applyRecords( buffer );
+      _size = buffer.position();
+      _fileKey = getFileKey();
+      return true;
+    }
+    catch ( final IOException ioe )
+    {
+      _entries.clear();
+      _recordCount = 0;
+      return false;
+    }
+  }
+
+  /**
+   * Add the records written to the file by other processes since the file was last read.
+   * If the file has been replaced then the file is read in full. The pending records are then
+   * applied again so that they supersede the records read from the file. Must be invoked while
+   * holding the lock.
+   *
+   * @return true if the file exists and is in a supported format, false otherwise.
+   */
+  private boolean reload()
+    throws IOException
+  {
+    if ( !Files.isRegularFile( _file ) )
+    {
+      return false;
+    }
+    try ( final FileChannel channel = FileChannel.open( _file, StandardOpenOption.READ ) )
+    {
+      final long length = channel.size();
+      final Object fileKey = getFileKey();
+      final boolean replaced = null == fileKey || !fileKey.equals( _fileKey ) || length < _size;
+      if ( !replaced && _size == length )
+      {
+        return true;
+      }
+      final long start = replaced ? 0 : _size;
+      final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, start, length - start );
+      if ( replaced )
+      {
+        if ( !isValidHeader( buffer ) )
+        {
+          return false;
+        }
+        buffer.position( HEADER_SIZE );
+        _entries.clear();
+        _recordCount = 0;
+      }
+      _recordCount += applyRecords( buffer );
+      _size = start + buffer.position();
+      _fileKey = fileKey;
+      applyRecords( ByteBuffer.wrap( _pending.toByteArray() ) );
+      return true;
+    }
+  }
+
+  private boolean isValidHeader( @Nonnull final ByteBuffer buffer )
+  {
+    return buffer.limit() >= HEADER_SIZE && MAGIC == buffer.getInt( 0 ) && VERSION == buffer.getInt( 4 );
+  }
+
+  /**
+   * Apply the records from the current position of the buffer to the entries.
+   * The buffer is left positioned after the last complete record.
+   *
+   * @return the number of records applied.
+   */
+  private int applyRecords( @Nonnull final ByteBuffer buffer )
+  {
+    int count = 0;
+    while ( buffer.remaining() >= 8 )
+    {
+      final int start = buffer.position();
+      final int keyLength = buffer.getInt();
+      if ( keyLength < 0 || keyLength > buffer.remaining() - 4 )
+      {
+        buffer.position( start );
+        break;
+      }
+      final String key = readString( buffer, keyLength );
+      final int valueLength = buffer.getInt();
+      if ( valueLength < REMOVED || valueLength > buffer.remaining() )
+      {
+        buffer.position( start );
+        break;
+      }
+      final String value = REMOVED == valueLength ? null : readString( buffer, valueLength );
+      final int separator = key.indexOf( '\n' );
+      if ( -1 == separator )
+      {
+        buffer.position( start );
+        break;
+      }
+      final String dir = key.substring( 0, separator );
+      final String property = key.substring( separator + 1 );
+      final Map<String, String> properties = _entries.computeIfAbsent( dir, k -> new HashMap<>() );
+      if ( null == value )
+      {
+        properties.remove( property );
+      }
+      else
+      {
+        properties.put( property, value );
+      }
+      count++;
+    }
+    return count;
+  }
+
+  @Nullable
+  private Object getFileKey()
+    throws IOException
+  {
+    return Files.readAttributes( _file, BasicFileAttributes.class ).fileKey();
+  }
+
+  /**
+   * Run the action while holding the lock that serializes modification of the file between processes.
+   */
+  private void withLock( @Nonnull final IndexAction action )
+  {
+    // A JVM may only hold a single lock on a file so the lock is also serialized between instances
+    synchronized ( c_fileLock )
+    {
+      try
+      {
+        Files.createDirectories( _cacheDir );
+        try ( final FileChannel channel =
+                FileChannel.open( _lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE ) )
+        {
+          // The lock is released when the channel is closed
+          channel.lock();
+          action.run();
+        }
+      }
+      catch ( final IOException ioe )
+      {
+        throw new DepgenException( "Error writing metadata index " + _file, ioe );
+      }
+    }
+  }
+
+  /**
+   * Write the header and the pending records to a temporary file that replaces the index file.
+   */
+  private void rewrite()
+  {
+    try
+    {
+      Files.createDirectories( _cacheDir );
+      final Path tmpFile = Files.createTempFile( _cacheDir, FILENAME, ".tmp" );
+      try
+      {
+        try ( final DataOutputStream output = new DataOutputStream( Files.newOutputStream( tmpFile ) ) )
+        {
+          output.writeInt( MAGIC );
+          output.writeInt( VERSION );
+          _pending.writeTo( output );
+        }
+        try
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( final AtomicMoveNotSupportedException ignored )
+        {
+          Files.move( tmpFile, _file, StandardCopyOption.REPLACE_EXISTING );
+        }
+      }
+      finally
+      {
+        Files.deleteIfExists( tmpFile );
+      }
+      _size = HEADER_SIZE + _pending.size();
+      _recordCount = _pendingCount;
+      _pending.reset();
+      _pendingCount = 0;
+      _fileKey = getFileKey();
+    }
+    catch ( final IOException ioe )
+    {
+      throw new DepgenException( "Error writing metadata index " + _file, ioe );
+    }
+  }
+
+  private void appendRecord( @Nonnull final String dir, @Nonnull final String property, @Nullable final String value )
+  {
+    try
+    {
+      final DataOutputStream output = new DataOutputStream( _pending );
+      final byte[] key = ( dir + "\n" + property ).getBytes( StandardCharsets.UTF_8 );
+      output.writeInt( key.length );
+      output.write( key );
+      if ( null == value )
+      {
+        output.writeInt( REMOVED );
+      }
+      else
+      {
+        final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        output.writeInt( bytes.length );
+        output.write( bytes );
+      }
+      _pendingCount++;
+    }
+    catch ( final IOException ioe )
+    {
+      // Writing to a ByteArrayOutputStream never fails
+      throw new IllegalStateException( ioe );
+    }
+  }
+
+  @Nonnull
+  private String toKey( @Nonnull final Path dir )
+  {
+    final Path path = dir.toAbsolutePath().normalize();
+    final Path key = path.startsWith( _cacheDir ) ? _cacheDir.relativize( path ) : path;
+    return key.toString().replace( '\\', '/' );
+  }
+
+  @FunctionalInterface
+  private interface IndexAction
+  {
+    void run()
+      throws IOException;
+  }
+
+  @Nonnull
+  private static String readString( @Nonnull final ByteBuffer buffer, final int length )
+  {
+    final byte[] bytes = new byte[ length ];
+    buffer.get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+}
@@ -0,0 +1,32 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import org.realityforge.bazel.depgen.DepgenException;
+
+/**
+ * Exception raised in offline mode when metadata that is not present in the cache is required.
+ */
+public final class MissingCachedMetadataException
+  extends DepgenException
+{
+  /**
+   * A description of each missing entry.
+   */
+  @Nonnull
+  private final List<String> _entries;
+
+  MissingCachedMetadataException( @Nonnull final List<String> entries )
+  {
+    super( "Unable to locate " + String.join( ", ", entries ) + " in offline mode as the urls are not cached." );
+    _entries = Collections.unmodifiableList( Objects.requireNonNull( entries ) );
+  }
+
+  @Nonnull
+  public List<String> getEntries()
+  {
+    return _entries;
+  }
+}
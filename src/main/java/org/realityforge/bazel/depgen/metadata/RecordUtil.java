@@ -5,15 +5,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Map;
+import java.util.Properties;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -29,6 +28,12 @@ import org.realityforge.bazel.depgen.util.HashUtil;
 
 final class RecordUtil
 {
+  /**
+   * The file in which the local repository records the remote repositories from which artifacts were downloaded.
+   */
+  @Nonnull
+  private static final String REMOTE_REPOSITORIES_FILENAME = "_remote.repositories";
+
   private RecordUtil()
   {
   }
@@ -38,7 +43,7 @@ final class RecordUtil
   {
     try
     {
-      return HashUtil.sha256( Files.readAllBytes( file.toPath() ) );
+      return HashUtil.sha256( file.toPath() );
     }
     catch ( final IOException ioe )
     {
@@ -69,30 +74,8 @@ final class RecordUtil
       final String protocol = url.getProtocol();
       if ( "http".equals( protocol ) || "https".equals( protocol ) )
       {
-        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod( "HEAD" );
-        final AuthenticationContext context = authenticationContexts.get( remoteRepository.getId() );
-        if ( null != context )
-        {
-          final String username = context.get( AuthenticationContext.USERNAME );
-          final String password = context.get( AuthenticationContext.PASSWORD );
-          if ( null != username && null != password )
-          {
-            final String encoded =
-              Base64.getEncoder().encodeToString( ( username + ":" + password ).getBytes( StandardCharsets.UTF_8 ) );
-            connection.setRequestProperty( "Authorization", "Basic " + encoded );
-          }
-        }
-        else if ( null != uri.getUserInfo() )
-        {
-          final String userInfo = uri.getUserInfo();
-          final String encoded =
-            Base64.getEncoder().encodeToString( userInfo.getBytes( StandardCharsets.UTF_8 ) );
-          connection.setRequestProperty( "Authorization", "Basic " + encoded );
-        }
-        connection.connect();
-        final int responseCode = connection.getResponseCode();
-        if ( 200 == responseCode )
+        final RepositoryProbe probe = RepositoryProbe.get();
+        if ( probe.isPresent( uriSansAuth, remoteRepository, uri.getUserInfo(), authenticationContexts ) )
         {
           return url.toExternalForm();
         }
@@ -112,9 +95,66 @@ final class RecordUtil
     catch ( final IOException | URISyntaxException ignored )
     {
     }
+    catch ( final InterruptedException ie )
+    {
+      Thread.currentThread().interrupt();
+      throw new DepgenException( "Interrupted looking up " + artifact + " in repository " +
+                                 remoteRepository.getId(), ie );
+    }
     return null;
   }
 
+  /**
+   * Return the url of the artifact in the repository without accessing the network.
+   * The artifact is present in the repository if the local repository records that the artifact was
+   * downloaded from the repository. Otherwise the presence of the artifact is unknown and null is returned.
+   */
+  @Nullable
+  static String lookupArtifactInRepositoryOffline( @Nonnull final Artifact artifact,
+                                                   @Nonnull final RemoteRepository remoteRepository )
+  {
+    final String repoUrl = remoteRepository.getUrl();
+    final File file = artifact.getFile();
+    if ( null == file )
+    {
+      return null;
+    }
+    final Path trackingFile = file.toPath().resolveSibling( REMOTE_REPOSITORIES_FILENAME );
+    if ( !Files.exists( trackingFile ) )
+    {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try ( final Reader reader = Files.newBufferedReader( trackingFile ) )
+    {
+      properties.load( reader );
+    }
+    catch ( final IOException ignored )
+    {
+      return null;
+    }
+    if ( !properties.containsKey( file.getName() + ">" + remoteRepository.getId() ) )
+    {
+      return null;
+    }
+    try
+    {
+      final URI uri =
+        new URI( repoUrl + ( repoUrl.endsWith( "/" ) ? "" : "/" ) + ArtifactUtil.artifactToPath( artifact ) );
+      return new URI( uri.getScheme(),
+                      null,
+                      uri.getHost(),
+                      uri.getPort(),
+                      uri.getPath(),
+                      uri.getQuery(),
+                      uri.getFragment() ).toURL().toExternalForm();
+    }
+    catch ( final IOException | URISyntaxException ignored )
+    {
+      return null;
+    }
+  }
+
   @Nonnull
   static String readAnnotationProcessors( @Nonnull final File file )
   {
@@ -187,7 +227,7 @@ final class RecordUtil
     return DepgenMetadata.SENTINEL;
   }
 
-  private static boolean isJarFile( @Nonnull final File file )
+  static boolean isJarFile( @Nonnull final File file )
   {
     return file.getName().endsWith( ".jar" );
   }
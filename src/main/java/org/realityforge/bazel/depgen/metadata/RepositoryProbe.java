@@ -0,0 +1,166 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.eclipse.aether.repository.AuthenticationContext;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Probes http(s) repositories to determine whether a resource is present.
+ * A single pooled client is shared by all probes so that connections are kept alive and, where the
+ * server supports it, requests are multiplexed over HTTP/2 connections. The timeouts can be configured
+ * by the system properties {@link #CONNECT_TIMEOUT_PROPERTY} and {@link #REQUEST_TIMEOUT_PROPERTY}
+ * which specify durations in seconds.
+ */
+final class RepositoryProbe
+{
+  @Nonnull
+  static final String CONNECT_TIMEOUT_PROPERTY = "bazel-depgen.http.connect-timeout";
+  @Nonnull
+  static final String REQUEST_TIMEOUT_PROPERTY = "bazel-depgen.http.request-timeout";
+  private static final long DEFAULT_CONNECT_TIMEOUT = 30;
+  private static final long DEFAULT_REQUEST_TIMEOUT = 60;
+  /**
+   * The maximum number of concurrent requests made to a single repository host.
+   */
+  private static final int MAX_CONCURRENT_REQUESTS_PER_HOST = 4;
+  /**
+   * The value cached when a repository has no credentials as the map does not support null values.
+   */
+  @Nonnull
+  private static final String NO_AUTHORIZATION = "";
+  @Nullable
+  private static RepositoryProbe c_instance;
+  @Nonnull
+  private final HttpClient _client;
+  @Nonnull
+  private final Duration _requestTimeout;
+  @Nonnull
+  private final Map<String, Semaphore> _hostPermits = new ConcurrentHashMap<>();
+  @Nonnull
+  private final Map<RemoteRepository, String> _authorizationHeaders = new ConcurrentHashMap<>();
+
+  @Nonnull
+  static synchronized RepositoryProbe get()
+  {
+    if ( null == c_instance )
+    {
+      c_instance = new RepositoryProbe( getTimeout( CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT ),
+                                        getTimeout( REQUEST_TIMEOUT_PROPERTY, DEFAULT_REQUEST_TIMEOUT ) );
+    }
+    return c_instance;
+  }
+
+  @Nonnull
+  private static Duration getTimeout( @Nonnull final String key, final long defaultValue )
+  {
+    final String value = System.getProperty( key );
+    try
+    {
+      return Duration.ofSeconds( null == value ? defaultValue : Long.parseLong( value.trim() ) );
+    }
+    catch ( final NumberFormatException ignored )
+    {
+      return Duration.ofSeconds( defaultValue );
+    }
+  }
+
+  RepositoryProbe( @Nonnull final Duration connectTimeout, @Nonnull final Duration requestTimeout )
+  {
+    _requestTimeout = Objects.requireNonNull( requestTimeout );
+    _client = HttpClient
+      .newBuilder()
+      .version( HttpClient.Version.HTTP_2 )
+      .followRedirects( HttpClient.Redirect.NORMAL )
+      .connectTimeout( Objects.requireNonNull( connectTimeout ) )
+      .build();
+  }
+
+  /**
+   * Return true if a HEAD request for the resource completes with a 200 response.
+   *
+   * @param uri                    the uri of the resource, excluding any user info.
+   * @param remoteRepository       the repository that contains the resource.
+   * @param userInfo               the user info extracted from the repository url, if any.
+   * @param authenticationContexts the authentication contexts used to authenticate against repositories.
+   * @return true if the resource is present.
+   */
+  boolean isPresent( @Nonnull final URI uri,
+                     @Nonnull final RemoteRepository remoteRepository,
+                     @Nullable final String userInfo,
+                     @Nonnull final Map<String, AuthenticationContext> authenticationContexts )
+    throws IOException, InterruptedException
+  {
+    final HttpRequest.Builder builder =
+      HttpRequest.newBuilder( uri ).method( "HEAD", HttpRequest.BodyPublishers.noBody() ).timeout( _requestTimeout );
+    final String authorization = getAuthorizationHeader( remoteRepository, userInfo, authenticationContexts );
+    if ( !NO_AUTHORIZATION.equals( authorization ) )
+    {
+      builder.header( "Authorization", authorization );
+    }
+    final HttpRequest request = builder.build();
+
+    final Semaphore permits =
+      _hostPermits.computeIfAbsent( uri.getHost() + ":" + uri.getPort(),
+                                    k -> new Semaphore( MAX_CONCURRENT_REQUESTS_PER_HOST ) );
+    permits.acquire();
+    try
+    {
+      return 200 == _client.send( request, HttpResponse.BodyHandlers.discarding() ).statusCode();
+    }
+    finally
+    {
+      permits.release();
+    }
+  }
+
+  @Nonnull
+  private String getAuthorizationHeader( @Nonnull final RemoteRepository remoteRepository,
+                                         @Nullable final String userInfo,
+                                         @Nonnull final Map<String, AuthenticationContext> authenticationContexts )
+  {
+    return _authorizationHeaders
+      .computeIfAbsent( remoteRepository,
+                        r -> deriveAuthorizationHeader( r, userInfo, authenticationContexts ) );
+  }
+
+  @Nonnull
+  private String deriveAuthorizationHeader( @Nonnull final RemoteRepository remoteRepository,
+                                            @Nullable final String userInfo,
+                                            @Nonnull final Map<String, AuthenticationContext> authenticationContexts )
+  {
+    final AuthenticationContext context = authenticationContexts.get( remoteRepository.getId() );
+    if ( null != context )
+    {
+      final String username = context.get( AuthenticationContext.USERNAME );
+      final String password = context.get( AuthenticationContext.PASSWORD );
+      return null != username && null != password ? basic( username + ":" + password ) : NO_AUTHORIZATION;
+    }
+    else if ( null != userInfo )
+    {
+      return basic( userInfo );
+    }
+    else
+    {
+      return NO_AUTHORIZATION;
+    }
+  }
+
+  @Nonnull
+  private String basic( @Nonnull final String credentials )
+  {
+    return "Basic " + Base64.getEncoder().encodeToString( credentials.getBytes( StandardCharsets.UTF_8 ) );
+  }
+}
@@ -4,10 +4,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Predicate;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,6 +30,7 @@ public final class ApplicationModel
   @Nonnull
   private final ApplicationConfig _source;
   private final boolean _resetCachedMetadata;
+  private final boolean _offline;
   @Nonnull
   private final String _configSha256;
   @Nonnull
@@ -42,9 +45,31 @@ public final class ApplicationModel
   private final List<GlobalExcludeModel> _excludes;
   @Nonnull
   private final List<RepositoryModel> _repositories;
+  /**
+   * The indexes used to look up the models by groupId and artifactId (or by name in the case of repositories).
+   * Where multiple models share a key, the first declared model is indexed.
+   */
+  @Nonnull
+  private final Map<String, ArtifactModel> _artifactIndex;
+  @Nonnull
+  private final Map<String, ArtifactModel> _systemArtifactIndex;
+  @Nonnull
+  private final Map<String, ReplacementModel> _replacementIndex;
+  @Nonnull
+  private final Map<String, GlobalExcludeModel> _excludeIndex;
+  @Nonnull
+  private final Map<String, RepositoryModel> _repositoryIndex;
 
   @Nonnull
   public static ApplicationModel load( @Nonnull final ApplicationConfig source, final boolean resetCachedMetadata )
+  {
+    return load( source, resetCachedMetadata, false );
+  }
+
+  @Nonnull
+  public static ApplicationModel load( @Nonnull final ApplicationConfig source,
+                                       final boolean resetCachedMetadata,
+                                       final boolean offline )
   {
     final String configSha256 = calculateConfigSha256( source );
     final Path baseDirectory = source.getConfigLocation().toAbsolutePath().normalize().getParent();
@@ -92,6 +117,7 @@ public final class ApplicationModel
 
     return new ApplicationModel( source,
                                  resetCachedMetadata,
+                                 offline,
                                  configSha256,
                                  optionsModel,
                                  artifactModels,
@@ -101,8 +127,12 @@ public final class ApplicationModel
                                  repositories );
   }
 
+  /**
+   * Return the canonical sha256 of the configuration, derived from the version of the tool and the
+   * yaml representation of the configuration.
+   */
   @Nonnull
-  static String calculateConfigSha256( @Nonnull final ApplicationConfig config )
+  public static String calculateConfigSha256( @Nonnull final ApplicationConfig config )
   {
     return HashUtil.sha256( DepGenConfig.getVersion().getBytes( StandardCharsets.UTF_8 ),
                             YamlUtil.asYamlString( config ).getBytes() );
@@ -110,6 +140,7 @@ public final class ApplicationModel
 
   private ApplicationModel( @Nonnull final ApplicationConfig source,
                             final boolean resetCachedMetadata,
+                            final boolean offline,
                             @Nonnull final String configSha256,
                             @Nonnull final OptionsModel options,
                             @Nonnull final List<ArtifactModel> artifacts,
@@ -120,6 +151,7 @@ public final class ApplicationModel
   {
     _source = Objects.requireNonNull( source );
     _resetCachedMetadata = resetCachedMetadata;
+    _offline = offline;
     _configSha256 = Objects.requireNonNull( configSha256 );
     _options = Objects.requireNonNull( options );
     _artifacts = Objects.requireNonNull( artifacts );
@@ -127,9 +159,31 @@ public final class ApplicationModel
     _replacements = Objects.requireNonNull( replacements );
     _excludes = Objects.requireNonNull( excludes );
     _repositories = Collections.unmodifiableList( Objects.requireNonNull( repositories ) );
+    _artifactIndex = index( _artifacts, m -> toKey( m.getGroup(), m.getId() ) );
+    _systemArtifactIndex = index( _systemArtifacts, m -> toKey( m.getGroup(), m.getId() ) );
+    _replacementIndex = index( _replacements, m -> toKey( m.getGroup(), m.getId() ) );
+    _excludeIndex = index( _excludes, m -> toKey( m.getGroup(), m.getId() ) );
+    _repositoryIndex = index( _repositories, RepositoryModel::getName );
     ensureArtifactRepositoriesAlign();
   }
 
+  @Nonnull
+  private static <T> Map<String, T> index( @Nonnull final List<T> models, @Nonnull final Function<T, String> keyFn )
+  {
+    final Map<String, T> index = new HashMap<>();
+    for ( final T model : models )
+    {
+      index.putIfAbsent( keyFn.apply( model ), model );
+    }
+    return Collections.unmodifiableMap( index );
+  }
+
+  @Nonnull
+  private static String toKey( @Nonnull final String groupId, @Nonnull final String artifactId )
+  {
+    return groupId + ":" + artifactId;
+  }
+
   private void ensureArtifactRepositoriesAlign()
   {
     final Set<String> repositoryNames =
@@ -165,6 +219,15 @@ public final class ApplicationModel
     return _resetCachedMetadata;
   }
 
+  /**
+   * Return true if the metadata must be derived without accessing remote repositories.
+   * The urls of artifacts are read from the cached metadata rather than looked up in the repositories.
+   */
+  public boolean isOffline()
+  {
+    return _offline;
+  }
+
   @Nonnull
   public String getConfigSha256()
   {
@@ -192,7 +255,7 @@ public final class ApplicationModel
   @Nullable
   public RepositoryModel findRepository( @Nonnull final String name )
   {
-    return _repositories.stream().filter( r -> r.getName().equals( name ) ).findAny().orElse( null );
+    return _repositoryIndex.get( name );
   }
 
   @Nonnull
@@ -216,45 +279,20 @@ public final class ApplicationModel
   @Nullable
   public ArtifactModel findArtifact( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return findArtifact( m -> m.getGroup().equals( groupId ) && m.getId().equals( artifactId ) );
+    final String key = toKey( groupId, artifactId );
+    final ArtifactModel artifact = _artifactIndex.get( key );
+    return null != artifact ? artifact : _systemArtifactIndex.get( key );
   }
 
   @Nullable
   public ArtifactModel findApplicationArtifact( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return findApplicationArtifact( m -> m.getGroup().equals( groupId ) && m.getId().equals( artifactId ) );
-  }
-
-  @Nullable
-  private ArtifactModel findApplicationArtifact( @Nonnull final Predicate<ArtifactModel> predicate )
-  {
-    return getArtifacts()
-      .stream()
-      .filter( predicate )
-      .findAny()
-      .orElse( null );
-  }
-
-  @Nullable
-  private ArtifactModel findArtifact( @Nonnull final Predicate<ArtifactModel> predicate )
-  {
-    final ArtifactModel artifact = findApplicationArtifact( predicate );
-    return null != artifact ? artifact : findSystemArtifact( predicate );
+    return _artifactIndex.get( toKey( groupId, artifactId ) );
   }
 
   public boolean isSystemArtifact( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return null != findSystemArtifact( m -> m.getGroup().equals( groupId ) && m.getId().equals( artifactId ) );
-  }
-
-  @Nullable
-  private ArtifactModel findSystemArtifact( @Nonnull final Predicate<ArtifactModel> predicate )
-  {
-    return getSystemArtifacts()
-      .stream()
-      .filter( predicate )
-      .findAny()
-      .orElse( null );
+    return _systemArtifactIndex.containsKey( toKey( groupId, artifactId ) );
   }
 
   @Nonnull
@@ -271,15 +309,13 @@ public final class ApplicationModel
 
   public boolean isExcluded( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return _excludes
-      .stream()
-      .anyMatch( exclude -> exclude.getGroup().equals( groupId ) && exclude.getId().equals( artifactId ) );
+    return _excludeIndex.containsKey( toKey( groupId, artifactId ) );
   }
 
   @Nullable
   public ReplacementModel findReplacement( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return findReplacement( m -> m.getGroup().equals( groupId ) && m.getId().equals( artifactId ) );
+    return _replacementIndex.get( toKey( groupId, artifactId ) );
   }
 
   @Nonnull
@@ -294,13 +330,9 @@ public final class ApplicationModel
     return getOptions().getNamePrefix() + "verify_config_sha256";
   }
 
-  @Nullable
-  private ReplacementModel findReplacement( @Nonnull final Predicate<ReplacementModel> predicate )
+  @Nonnull
+  public String regenerateTargetName()
   {
-    return getReplacements()
-      .stream()
-      .filter( predicate )
-      .findAny()
-      .orElse( null );
+    return getOptions().getNamePrefix() + "regenerate_depgen_extension";
   }
 }
@@ -3,6 +3,7 @@ package org.realityforge.bazel.depgen.model;
 import java.nio.file.Path;
 import java.util.Objects;
 import javax.annotation.Nonnull;
+import org.realityforge.bazel.depgen.config.ExtensionFormat;
 import org.realityforge.bazel.depgen.config.NameStrategy;
 import org.realityforge.bazel.depgen.config.GlobalJavaConfig;
 import org.realityforge.bazel.depgen.config.Nature;
@@ -27,6 +28,12 @@ public final class OptionsModel
   @Nonnull
   static OptionsModel parse( @Nonnull final Path configDirectory, @Nonnull final OptionsConfig source )
   {
+    final Integer extensionShardCount = source.getExtensionShardCount();
+    if ( null != extensionShardCount && extensionShardCount < 1 )
+    {
+      throw new InvalidModelException( "The 'extensionShardCount' property must be a positive integer but " +
+                                       "is specified as " + extensionShardCount + ".", source );
+    }
     final Path workspaceDirectory = deriveWorkspaceDirectory( configDirectory, source );
     final Path extensionFile = deriveExtensionFile( configDirectory, source );
     return new OptionsModel( source, workspaceDirectory, extensionFile );
@@ -76,6 +83,47 @@ public final class OptionsModel
     return _extensionFile;
   }
 
+  /**
+   * Return the number of shards into which the artifacts are split when generating the extension.
+   * If the count is greater than one then the extension file loads and delegates to the macros defined
+   * in the shard files returned by {@link #getExtensionShardFile(int)}.
+   *
+   * @return the number of shards into which the artifacts are split when generating the extension.
+   */
+  public int getExtensionShardCount()
+  {
+    final Integer count = _source.getExtensionShardCount();
+    return null == count ? OptionsConfig.DEFAULT_EXTENSION_SHARD_COUNT : count;
+  }
+
+  public boolean shardExtension()
+  {
+    return getExtensionShardCount() > 1;
+  }
+
+  /**
+   * Return the file containing the specified shard of the extension.
+   * The file is a sibling of the extension file and is named by adding the shard index to the name of the
+   * extension file. i.e. The shard 2 of the extension file "dependencies.bzl" is named "dependencies_2.bzl".
+   *
+   * @param shard the index of the shard.
+   * @return the file containing the shard.
+   */
+  @Nonnull
+  public Path getExtensionShardFile( final int shard )
+  {
+    final String filename = _extensionFile.getFileName().toString();
+    final String basename = filename.endsWith( ".bzl" ) ? filename.substring( 0, filename.length() - 4 ) : filename;
+    return _extensionFile.resolveSibling( basename + "_" + shard + ".bzl" );
+  }
+
+  @Nonnull
+  public ExtensionFormat getExtensionFormat()
+  {
+    final ExtensionFormat format = _source.getExtensionFormat();
+    return null == format ? OptionsConfig.DEFAULT_EXTENSION_FORMAT : format;
+  }
+
   @Nonnull
   public String getWorkspaceMacroName()
   {
@@ -164,4 +212,10 @@ public final class OptionsModel
     final Boolean flag = _source.getVerifyConfigSha256();
     return null == flag ? OptionsConfig.DEFAULT_VERIFY_CONFIG_SHA256 : flag;
   }
+
+  public boolean classDataSharing()
+  {
+    final Boolean flag = _source.getClassDataSharing();
+    return null == flag ? OptionsConfig.DEFAULT_CLASS_DATA_SHARING : flag;
+  }
 }
@@ -1,7 +1,9 @@
 package org.realityforge.bazel.depgen.record;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -12,7 +14,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -21,16 +22,41 @@ import org.eclipse.aether.repository.AuthenticationContext;
 import org.realityforge.bazel.depgen.DepGenConfig;
 import org.realityforge.bazel.depgen.DependencyGraphEmitter;
 import org.realityforge.bazel.depgen.DepgenValidationException;
+import org.realityforge.bazel.depgen.config.ExtensionFormat;
 import org.realityforge.bazel.depgen.config.Nature;
+import org.realityforge.bazel.depgen.metadata.DepgenMetadataRegistry;
 import org.realityforge.bazel.depgen.metadata.RecordBuildCallback;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.model.ArtifactModel;
 import org.realityforge.bazel.depgen.model.OptionsModel;
 import org.realityforge.bazel.depgen.model.ReplacementModel;
+import org.realityforge.bazel.depgen.util.ParallelUtil;
 import org.realityforge.bazel.depgen.util.StarlarkOutput;
 
 public final class ApplicationRecord
 {
+  /**
+   * The bazel define that must be "true" for the regenerate target to pass the class data sharing archive to the JVM.
+   */
+  @Nonnull
+  public static final String CLASS_DATA_SHARING_DEFINE = "depgen_class_data_sharing";
+  /**
+   * The bazel define that specifies the class data sharing archive passed to the JVM by the regenerate target.
+   */
+  @Nonnull
+  public static final String CLASS_DATA_SHARING_ARCHIVE_DEFINE = "depgen_class_data_sharing_archive";
+  @Nonnull
+  private static final String DEFINE_RULES_FUNCTION = "_define_rules";
+  @Nonnull
+  private static final String DEFINE_REPOSITORIES_FUNCTION = "_define_repositories";
+  @Nonnull
+  private static final String REPOSITORY_RULES_TABLE = "_REPOSITORY_RULES";
+  @Nonnull
+  private static final String TARGET_RULES_TABLE = "_TARGET_RULES";
+  /**
+   * The maximum number of artifacts for which starlark is rendered concurrently.
+   */
+  private static final int MAX_CONCURRENT_RENDERS = Math.max( 1, Runtime.getRuntime().availableProcessors() );
   @Nonnull
   private final ApplicationModel _source;
   @Nonnull
@@ -39,6 +65,23 @@ public final class ApplicationRecord
   private final Map<String, ArtifactRecord> _artifacts = new HashMap<>();
   @Nonnull
   private final Map<String, AuthenticationContext> _authenticationContexts;
+  /**
+   * The artifacts sorted by key. Derived when first accessed and discarded when an artifact is added.
+   */
+  @Nullable
+  private List<ArtifactRecord> _sortedArtifacts;
+  /**
+   * The artifacts that have a compile dependency on an artifact, keyed by the dependency.
+   * Derived in a single pass over the artifacts when first accessed.
+   */
+  @Nullable
+  private Map<ArtifactRecord, List<ArtifactRecord>> _reverseDeps;
+  /**
+   * The artifacts that have a runtime dependency on an artifact, keyed by the dependency.
+   * Derived in a single pass over the artifacts when first accessed.
+   */
+  @Nullable
+  private Map<ArtifactRecord, List<ArtifactRecord>> _reverseRuntimeDeps;
 
   @Nonnull
   public static ApplicationRecord build( @Nonnull final ApplicationModel model,
@@ -47,7 +90,16 @@ public final class ApplicationRecord
                                          @Nonnull final RecordBuildCallback callback )
   {
     final ApplicationRecord record = new ApplicationRecord( model, node, authenticationContexts );
-    node.accept( new DependencyCollector( record, callback ) );
+    final DependencyCollector collector = new DependencyCollector( record, callback );
+    node.accept( collector );
+    try
+    {
+      collector.collectArtifacts();
+    }
+    finally
+    {
+      DepgenMetadataRegistry.flush();
+    }
     propagateNature( record, Nature.J2cl, Nature.J2cl );
     propagateNature( record, Nature.Plugin, Nature.Java );
     propagateNature( record, Nature.Java, Nature.Java );
@@ -198,11 +250,59 @@ public final class ApplicationRecord
   @Nonnull
   public List<ArtifactRecord> getArtifacts()
   {
-    return _artifacts
-      .values()
-      .stream()
-      .sorted( Comparator.comparing( ArtifactRecord::getKey ) )
-      .collect( Collectors.toList() );
+    if ( null == _sortedArtifacts )
+    {
+      final ArtifactRecord[] artifacts = _artifacts.values().toArray( new ArtifactRecord[ 0 ] );
+      Arrays.sort( artifacts, Comparator.comparing( ArtifactRecord::getKey ) );
+      _sortedArtifacts = Collections.unmodifiableList( Arrays.asList( artifacts ) );
+    }
+    return _sortedArtifacts;
+  }
+
+  @Nonnull
+  List<ArtifactRecord> getReverseDeps( @Nonnull final ArtifactRecord artifact )
+  {
+    if ( null == _reverseDeps )
+    {
+      _reverseDeps = buildReverseIndex( false );
+    }
+    return _reverseDeps.getOrDefault( artifact, Collections.emptyList() );
+  }
+
+  @Nonnull
+  List<ArtifactRecord> getReverseRuntimeDeps( @Nonnull final ArtifactRecord artifact )
+  {
+    if ( null == _reverseRuntimeDeps )
+    {
+      _reverseRuntimeDeps = buildReverseIndex( true );
+    }
+    return _reverseRuntimeDeps.getOrDefault( artifact, Collections.emptyList() );
+  }
+
+  /**
+   * Invert the compile or runtime dependency edges. The artifacts are visited in key order and the
+   * dependencies of each artifact are distinct so each list in the result is distinct and sorted by key.
+   */
+  @Nonnull
+  private Map<ArtifactRecord, List<ArtifactRecord>> buildReverseIndex( final boolean runtime )
+  {
+    final Map<ArtifactRecord, List<ArtifactRecord>> index = new HashMap<>();
+    for ( final ArtifactRecord artifact : getArtifacts() )
+    {
+      for ( final ArtifactRecord dependency : runtime ? artifact.getRuntimeDeps() : artifact.getDeps() )
+      {
+        index.computeIfAbsent( dependency, k -> new ArrayList<>() ).add( artifact );
+      }
+    }
+    index.replaceAll( ( k, v ) -> Collections.unmodifiableList( v ) );
+    return index;
+  }
+
+  private void invalidateIndexes()
+  {
+    _sortedArtifacts = null;
+    _reverseDeps = null;
+    _reverseRuntimeDeps = null;
   }
 
   /**
@@ -224,11 +324,11 @@ public final class ApplicationRecord
   public void writeBazelExtension( @Nonnull final StarlarkOutput output )
     throws IOException
   {
+    final OptionsModel options = getSource().getOptions();
     emitAutoGeneratedComment( output, true );
     output.newLine();
 
     output.writeMultilineComment( o -> {
-      final OptionsModel options = getSource().getOptions();
       o.write( "Macro rules to load dependencies." );
       o.newLine();
       o.write( "Invoke '" + options.getWorkspaceMacroName() + "' from a WORKSPACE file." );
@@ -237,18 +337,125 @@ public final class ApplicationRecord
 
     writeDependencyGraphIfRequired( output );
 
+    if ( options.shardExtension() )
+    {
+      final String workspaceMacroName = options.getWorkspaceMacroName();
+      final String targetMacroName = options.getTargetMacroName();
+      for ( int shard = 0; shard < options.getExtensionShardCount(); shard++ )
+      {
+        output.write( "load(\":" + options.getExtensionShardFile( shard ).getFileName() + "\", " +
+                      "_" + workspaceMacroName + "_" + shard + " = \"" + workspaceMacroName + "\", " +
+                      "_" + targetMacroName + "_" + shard + " = \"" + targetMacroName + "\")" );
+      }
+      writeLoads( output, Collections.emptyList(), options.verifyConfigSha256() );
+      output.newLine();
+    }
+    else if ( writeLoads( output, getArtifacts(), options.verifyConfigSha256() ) )
+    {
+      output.newLine();
+    }
+
+    if ( options.verifyConfigSha256() )
+    {
+      output.write( "# SHA256 of the configuration content that generated this file" );
+      output.write( "_CONFIG_SHA256 = \"" + getSource().getConfigSha256() + "\"" );
+      output.newLine();
+    }
+
+    if ( !options.shardExtension() && ExtensionFormat.Table == options.getExtensionFormat() )
+    {
+      writeDefineRulesFunctions( output, getArtifacts() );
+      output.newLine();
+    }
+
+    writeWorkspaceMacro( output );
+
+    output.newLine();
+
+    writeTargetMacro( output );
+  }
+
+  /**
+   * Write the specified shard of the extension.
+   * The shard defines the workspace and target macros for the artifacts assigned to the shard and the macros
+   * are invoked by the macros in the extension. See {@link OptionsModel#getExtensionShardFile(int)}.
+   *
+   * @param output the output.
+   * @param shard  the index of the shard.
+   * @throws IOException if there is an error writing the shard.
+   */
+  public void writeBazelExtensionShard( @Nonnull final StarlarkOutput output, final int shard )
+    throws IOException
+  {
+    final OptionsModel options = getSource().getOptions();
+    assert shard >= 0 && shard < options.getExtensionShardCount();
+    emitAutoGeneratedComment( output, true );
+    output.newLine();
+
+    output.writeMultilineComment( o -> {
+      o.write( "Macro rules to load the dependencies assigned to shard " + shard + " of the extension." );
+      o.newLine();
+      o.write( "Invoked by the macros in '" + options.getExtensionFile().getFileName() + "'." );
+    } );
+    output.newLine();
+
+    final List<ArtifactRecord> artifacts = getShardArtifacts( shard );
+    // The verify targets are defined by the extension rather than by the shards
+    if ( writeLoads( output, artifacts, false ) )
+    {
+      output.newLine();
+    }
+
+    if ( ExtensionFormat.Table == options.getExtensionFormat() )
+    {
+      writeDefineRulesFunctions( output, artifacts );
+      output.newLine();
+    }
+
+    writeWorkspaceMacro( output, artifacts, false );
+
+    output.newLine();
+
+    writeTargetMacro( output, artifacts, false, false );
+  }
+
+  /**
+   * Return the index of the shard of the extension to which the artifact is assigned.
+   * The artifact is assigned by the hash of the key so that adding, removing or updating an artifact only
+   * changes the content of a single shard.
+   */
+  int getShard( @Nonnull final ArtifactRecord artifact )
+  {
+    return Math.floorMod( artifact.getKey().hashCode(), getSource().getOptions().getExtensionShardCount() );
+  }
+
+  @Nonnull
+  private List<ArtifactRecord> getShardArtifacts( final int shard )
+  {
+    return getArtifacts().stream().filter( a -> getShard( a ) == shard ).collect( Collectors.toList() );
+  }
+
+  /**
+   * Write the load statements required by the rules for the artifacts and by the verify targets if enabled.
+   *
+   * @return true if any load statements were written.
+   */
+  private boolean writeLoads( @Nonnull final StarlarkOutput output,
+                              @Nonnull final List<ArtifactRecord> artifacts,
+                              final boolean includeVerifyRules )
+    throws IOException
+  {
     boolean emittedLoad = false;
-    if ( !getArtifacts().isEmpty() )
+    if ( !artifacts.isEmpty() )
     {
       emittedLoad = true;
-      final boolean requiresHttpArchive =
-        getArtifacts().stream().anyMatch( a -> null != a.getJsAssets() && a.getNatures().contains( Nature.J2cl ) );
+      final boolean requiresHttpArchive = requiresHttpArchive( artifacts );
       output.write( "load(\"@bazel_tools//tools/build_defs/repo:http.bzl\", " +
                     "_http_file = \"http_file\"" +
                     ( requiresHttpArchive ? ", _http_archive = \"http_archive\"" : "" ) +
                     ")" );
     }
-    final Set<String> javaRules = getJavaRules();
+    final Set<String> javaRules = getJavaRules( artifacts, includeVerifyRules );
     if ( !javaRules.isEmpty() )
     {
       emittedLoad = true;
@@ -256,40 +463,24 @@ public final class ApplicationRecord
         javaRules.stream().sorted().map( r -> "_" + r + " = \"" + r + "\"" ).collect( Collectors.joining( ", " ) );
       output.write( "load(\"@rules_java//java:defs.bzl\", " + rules + ")" );
     }
-    if ( getArtifacts().stream().anyMatch( a -> a.getNatures().contains( Nature.J2cl ) ) )
+    if ( artifacts.stream().anyMatch( a -> a.getNatures().contains( Nature.J2cl ) ) )
     {
       emittedLoad = true;
       output.write( "load(\"@com_google_j2cl//build_defs:rules.bzl\", _j2cl_library = \"j2cl_library\")" );
     }
-    if ( emittedLoad )
-    {
-      output.newLine();
-    }
-
-    if ( getSource().getOptions().verifyConfigSha256() )
-    {
-      output.write( "# SHA256 of the configuration content that generated this file" );
-      output.write( "_CONFIG_SHA256 = \"" + getSource().getConfigSha256() + "\"" );
-      output.newLine();
-    }
-
-    writeWorkspaceMacro( output );
-
-    output.newLine();
-
-    writeTargetMacro( output );
+    return emittedLoad;
   }
 
   @Nonnull
-  private Set<String> getJavaRules()
+  private Set<String> getJavaRules( @Nonnull final List<ArtifactRecord> artifacts, final boolean includeVerifyRules )
   {
     final Set<String> javaRules = new HashSet<>();
-    if ( getSource().getOptions().verifyConfigSha256() )
+    if ( includeVerifyRules )
     {
       javaRules.add( "java_binary" );
       javaRules.add( "java_test" );
     }
-    for ( final ArtifactRecord artifact : getArtifacts() )
+    for ( final ArtifactRecord artifact : artifacts )
     {
       final List<Nature> natures = artifact.getNatures();
       if ( natures.contains( Nature.Java ) )
@@ -365,6 +556,7 @@ public final class ApplicationRecord
     final String key = record.getKey();
     assert !_artifacts.containsKey( key );
     _artifacts.put( key, record );
+    invalidateIndexes();
   }
 
   void artifact( @Nonnull final DependencyNode node,
@@ -398,12 +590,14 @@ public final class ApplicationRecord
     if ( null == existing )
     {
       _artifacts.put( key, record );
+      invalidateIndexes();
     }
     else
     {
       if ( !"".equals( existing.getArtifact().getClassifier() ) && "".equals( node.getArtifact().getClassifier() ) )
       {
         _artifacts.put( key, record );
+        invalidateIndexes();
       }
     }
   }
@@ -417,18 +611,8 @@ public final class ApplicationRecord
   @Nullable
   ArtifactRecord findArtifact( @Nonnull final String groupId, @Nonnull final String artifactId )
   {
-    return findArtifact( m -> m.shouldMatch( groupId, artifactId ) );
-  }
-
-  @Nullable
-  private ArtifactRecord findArtifact( @Nonnull final Predicate<ArtifactRecord> predicate )
-  {
-    return _artifacts
-      .values()
-      .stream()
-      .filter( predicate )
-      .findAny()
-      .orElse( null );
+    // Artifacts are keyed by groupId and artifactId. See ArtifactRecord.getKey()
+    return _artifacts.get( groupId + ":" + artifactId );
   }
 
   void writeRegenerateExtensionTarget( @Nonnull final StarlarkOutput output )
@@ -436,8 +620,23 @@ public final class ApplicationRecord
   {
     final String configLabel = getConfigFileLabel();
     final String depgenArtifactLabel = getDepgenArtifactLabel();
+    final OptionsModel options = _source.getOptions();
+    final String configSettingName = options.getNamePrefix() + CLASS_DATA_SHARING_DEFINE;
+    if ( options.classDataSharing() )
+    {
+      // The archive is only valid for the JVM and classpath used to create it and the JVM does not fall back
+      // to the default archive if the archive is missing or invalid. So the archive is only passed to the JVM
+      // when enabled by the user on a machine where the archive has been created by the train-cds command.
+      final LinkedHashMap<String, Object> settingArguments = new LinkedHashMap<>();
+      settingArguments.put( "name", "\"" + configSettingName + "\"" );
+      settingArguments.put( "define_values", "{\"" + CLASS_DATA_SHARING_DEFINE + "\": \"true\"}" );
+      settingArguments.put( "visibility", Collections.singletonList( "\"//visibility:private\"" ) );
+      output.writeCall( "native.config_setting", settingArguments );
+      output.newLine();
+    }
+
     final LinkedHashMap<String, Object> arguments = new LinkedHashMap<>();
-    arguments.put( "name", "\"" + _source.getOptions().getNamePrefix() + "regenerate_depgen_extension\"" );
+    arguments.put( "name", "\"" + _source.regenerateTargetName() + "\"" );
     arguments.put( "runtime_deps", Collections.singletonList( "\"" + depgenArtifactLabel + "\"" ) );
     arguments.put( "main_class", "\"org.realityforge.bazel.depgen.Main\"" );
     arguments.put( "args",
@@ -445,6 +644,13 @@ public final class ApplicationRecord
                                   "\"$(rootpath " + configLabel + ")\"",
                                   "\"--verbose\"",
                                   "\"generate\"" ) );
+    if ( options.classDataSharing() )
+    {
+      arguments.put( "jvm_flags",
+                     "select({\":" + configSettingName + "\": " +
+                     "[\"-XX:SharedArchiveFile=$(" + CLASS_DATA_SHARING_ARCHIVE_DEFINE + ")\"], " +
+                     "\"//conditions:default\": []})" );
+    }
 
     arguments.put( "tags",
                    Arrays.asList( "\"local\"", "\"manual\"", "\"no-cache\"", "\"no-remote\"", "\"no-sandbox\"" ) );
@@ -462,8 +668,11 @@ public final class ApplicationRecord
     arguments.put( "name", "\"" + _source.verifyTargetName() + "\"" );
     arguments.put( "size", "\"small\"" );
     arguments.put( "runtime_deps", Collections.singletonList( "\"" + getDepgenArtifactLabel() + "\"" ) );
-    arguments.put( "main_class", "\"org.realityforge.bazel.depgen.Main\"" );
+    // The minimal entry point avoids loading the classes that are only required to resolve dependencies
+    arguments.put( "main_class", "\"org.realityforge.bazel.depgen.HashMain\"" );
     arguments.put( "use_testrunner", Boolean.FALSE );
+    // The test is short-lived so the JIT compilation performed by the optimizing compiler is never recouped
+    arguments.put( "jvm_flags", Collections.singletonList( "\"-XX:TieredStopAtLevel=1\"" ) );
 
     final String configLabel = getConfigFileLabel();
     arguments.put( "args",
@@ -523,78 +732,344 @@ public final class ApplicationRecord
     throws IOException
   {
     final OptionsModel options = getSource().getOptions();
-    final boolean supportDependencyOmit = options.supportDependencyOmit();
-    output.writeMacro( options.getTargetMacroName(),
-                       supportDependencyOmit ?
-                       getArtifacts()
-                         .stream()
-                         .filter( a -> null == a.getReplacementModel() )
-                         .sorted( Comparator.comparing( ArtifactRecord::getSymbol ) )
-                         .map( a -> "omit_" + a.getSymbol() + " = False" )
-                         .collect( Collectors.toList() ) :
-                       Collections.emptyList(), macro -> {
-        macro.writeMultilineComment( o -> o.write( "Macro to define targets for dependencies." ) );
-        if ( getSource().getOptions().verifyConfigSha256() )
+    writeTargetMacro( output, getArtifacts(), options.verifyConfigSha256(), options.shardExtension() );
+  }
+
+  /**
+   * Write the target macro that defines the targets for the artifacts.
+   * If delegateToShards is true then the macro invokes the target macros of the shards rather than
+   * defining the targets directly. Otherwise if the extension uses the table format then the targets
+   * are described by a table that precedes the macro and the macro defines the targets described by the table.
+   */
+  private void writeTargetMacro( @Nonnull final StarlarkOutput output,
+                                 @Nonnull final List<ArtifactRecord> artifacts,
+                                 final boolean includeVerifyTargets,
+                                 final boolean delegateToShards )
+    throws IOException
+  {
+    final OptionsModel options = getSource().getOptions();
+    final boolean useTable = !delegateToShards && ExtensionFormat.Table == options.getExtensionFormat();
+    if ( useTable )
+    {
+      output.write( "# The targets for each dependency, keyed by the symbol of the dependency" );
+      writeRulesTable( output, TARGET_RULES_TABLE, artifacts, ( artifact, o ) -> artifact.writeArtifactTargets( o ) );
+      output.newLine();
+    }
+    final ArtifactBlock block =
+      options.supportDependencyOmit() ?
+      ( artifact, o ) -> o.writeIfCondition( "not omit_" + artifact.getSymbol(), artifact::writeArtifactTargets ) :
+      ( artifact, o ) -> artifact.writeArtifactTargets( o );
+    output.writeMacro( options.getTargetMacroName(), getMacroParameters( artifacts, useTable ), macro -> {
+      macro.writeMultilineComment( o -> o.write( "Macro to define targets for dependencies." ) );
+      if ( includeVerifyTargets )
+      {
+        macro.newLine();
+        writeVerifyTarget( output );
+        macro.newLine();
+        writeRegenerateExtensionTarget( output );
+      }
+      if ( delegateToShards )
+      {
+        writeShardMacroCalls( macro, options.getTargetMacroName() );
+      }
+      else if ( useTable )
+      {
+        writeDefineRulesCall( macro, DEFINE_RULES_FUNCTION, TARGET_RULES_TABLE );
+      }
+      else
+      {
+        final List<byte[]> fragments = renderArtifacts( macro, artifacts, false, block );
+        for ( final byte[] fragment : fragments )
         {
           macro.newLine();
-          writeVerifyTarget( output );
-          macro.newLine();
-          writeRegenerateExtensionTarget( output );
+          macro.writeFragment( fragment );
         }
-        for ( final ArtifactRecord artifact : getArtifacts() )
+      }
+    } );
+  }
+
+  void writeWorkspaceMacro( @Nonnull final StarlarkOutput output )
+    throws IOException
+  {
+    writeWorkspaceMacro( output, getArtifacts(), getSource().getOptions().shardExtension() );
+  }
+
+  /**
+   * Write the workspace macro that defines the repository rules for the artifacts.
+   * If delegateToShards is true then the macro invokes the workspace macros of the shards rather than
+   * defining the repository rules directly. Otherwise if the extension uses the table format then the
+   * files downloaded by the repository rules are described by a table that precedes the macro.
+   */
+  private void writeWorkspaceMacro( @Nonnull final StarlarkOutput output,
+                                    @Nonnull final List<ArtifactRecord> artifacts,
+                                    final boolean delegateToShards )
+    throws IOException
+  {
+    final OptionsModel options = getSource().getOptions();
+    final ArtifactBlock block =
+      options.supportDependencyOmit() ?
+      ( artifact, o ) -> o.writeIfCondition( "not omit_" + artifact.getSymbol(),
+                                             c -> writeArtifactHttpRules( artifact, c ) ) :
+      this::writeArtifactHttpRules;
+    final boolean useTable = !delegateToShards && ExtensionFormat.Table == options.getExtensionFormat();
+    if ( useTable )
+    {
+      output.write( "# The files downloaded for each dependency, keyed by the symbol of the dependency" );
+      writeRulesTable( output,
+                       REPOSITORY_RULES_TABLE,
+                       artifacts,
+                       ( artifact, o ) -> artifact.writeArtifactRepositoryRows( o ) );
+      output.newLine();
+    }
+    output.writeMacro( options.getWorkspaceMacroName(), getMacroParameters( artifacts, useTable ), macro -> {
+      macro.writeMultilineComment( o -> {
+        o.write( "Repository rules macro to load dependencies." );
+        o.newLine();
+        o.write( "Must be run from a WORKSPACE file." );
+      } );
+
+      if ( delegateToShards )
+      {
+        writeShardMacroCalls( macro, options.getWorkspaceMacroName() );
+      }
+      else if ( useTable )
+      {
+        writeDefineRulesCall( macro, DEFINE_REPOSITORIES_FUNCTION, REPOSITORY_RULES_TABLE );
+      }
+      else
+      {
+        final List<byte[]> fragments = renderArtifacts( macro, artifacts, false, block );
+        for ( final byte[] fragment : fragments )
         {
-          if ( null == artifact.getReplacementModel() )
-          {
-            macro.newLine();
-            if ( supportDependencyOmit )
-            {
-              macro.writeIfCondition( "not omit_" + artifact.getSymbol(), artifact::writeArtifactTargets );
-            }
-            else
-            {
-              artifact.writeArtifactTargets( macro );
-            }
-          }
+          macro.newLine();
+          macro.writeFragment( fragment );
         }
-      } );
+      }
+    } );
   }
 
-  void writeWorkspaceMacro( @Nonnull final StarlarkOutput output )
+  /**
+   * Return the parameters of the workspace and target macros.
+   * The macros that define the rules described by a table accept the omit parameters as keyword arguments
+   * that are validated by the function that defines the rules. See {@link #writeDefineRulesFunction(StarlarkOutput)}.
+   */
+  @Nonnull
+  private List<String> getMacroParameters( @Nonnull final List<ArtifactRecord> artifacts, final boolean useTable )
+  {
+    if ( useTable )
+    {
+      return getSource().getOptions().supportDependencyOmit() ?
+             Collections.singletonList( "**kwargs" ) :
+             Collections.emptyList();
+    }
+    else
+    {
+      return getOmitParameters( artifacts );
+    }
+  }
+
+  @Nonnull
+  private List<String> getOmitParameters( @Nonnull final List<ArtifactRecord> artifacts )
+  {
+    return getSource().getOptions().supportDependencyOmit() ?
+           artifacts
+             .stream()
+             .filter( a -> null == a.getReplacementModel() )
+             .sorted( Comparator.comparing( ArtifactRecord::getSymbol ) )
+             .map( a -> "omit_" + a.getSymbol() + " = False" )
+             .collect( Collectors.toList() ) :
+           Collections.emptyList();
+  }
+
+  /**
+   * Invoke the macro with the specified name in every shard, passing through the omit parameters of the
+   * artifacts assigned to the shard.
+   */
+  private void writeShardMacroCalls( @Nonnull final StarlarkOutput output, @Nonnull final String macroName )
     throws IOException
   {
     final OptionsModel options = getSource().getOptions();
     final boolean supportDependencyOmit = options.supportDependencyOmit();
-    output.writeMacro( options.getWorkspaceMacroName(),
-                       supportDependencyOmit ?
-                       getArtifacts()
-                         .stream()
-                         .filter( a -> null == a.getReplacementModel() )
-                         .sorted( Comparator.comparing( ArtifactRecord::getSymbol ) )
-                         .map( a -> "omit_" + a.getSymbol() + " = False" )
-                         .collect( Collectors.toList() ) :
-                       Collections.emptyList(), macro -> {
-        macro.writeMultilineComment( o -> {
-          o.write( "Repository rules macro to load dependencies." );
-          o.newLine();
-          o.write( "Must be run from a WORKSPACE file." );
-        } );
-
-        for ( final ArtifactRecord artifact : getArtifacts() )
+    output.newLine();
+    for ( int shard = 0; shard < options.getExtensionShardCount(); shard++ )
+    {
+      final LinkedHashMap<String, Object> arguments = new LinkedHashMap<>();
+      if ( supportDependencyOmit )
+      {
+        getShardArtifacts( shard )
+          .stream()
+          .filter( a -> null == a.getReplacementModel() )
+          .sorted( Comparator.comparing( ArtifactRecord::getSymbol ) )
+          .forEach( a -> arguments.put( "omit_" + a.getSymbol(), "omit_" + a.getSymbol() ) );
+      }
+      output.writeCall( "_" + macroName + "_" + shard, arguments );
+    }
+  }
+
+  private boolean requiresHttpArchive( @Nonnull final List<ArtifactRecord> artifacts )
+  {
+    return artifacts.stream().anyMatch( a -> null != a.getJsAssets() && a.getNatures().contains( Nature.J2cl ) );
+  }
+
+  /**
+   * Write the functions that define the rules described by the tables.
+   * The target table maps the symbol of each dependency to a list of (rule, arguments) tuples while the
+   * repository table maps the symbol of each dependency to the rows written by
+   * {@link ArtifactRecord#writeArtifactRepositoryRows(StarlarkOutput)} and the repository rules are derived
+   * from the rows. The rules for a dependency are omitted if the omit parameter for the dependency is True.
+   */
+  private void writeDefineRulesFunctions( @Nonnull final StarlarkOutput output,
+                                          @Nonnull final List<ArtifactRecord> artifacts )
+    throws IOException
+  {
+    output.writeMacro( DEFINE_REPOSITORIES_FUNCTION, Arrays.asList( "repositories", "omit" ), macro -> {
+      macro.writeMultilineComment( o -> o.write( "Define the repository rules described by the table " +
+                                                 "unless omitted." ) );
+      macro.newLine();
+      writeOmitCheck( macro, "repositories" );
+      macro.write( "for symbol, files in repositories.items():" );
+      macro.incIndent();
+      macro.writeIfCondition( "not omit.get(\"omit_\" + symbol, False)", o -> {
+        o.write( "for name, downloaded_file_path, sha256, urls, js_assets in files:" );
+        o.incIndent();
+        final LinkedHashMap<String, Object> httpFileArguments = new LinkedHashMap<>();
+        httpFileArguments.put( "name", "name" );
+        httpFileArguments.put( "downloaded_file_path", "downloaded_file_path" );
+        httpFileArguments.put( "sha256", "sha256" );
+        httpFileArguments.put( "urls", "urls" );
+        if ( requiresHttpArchive( artifacts ) )
         {
-          if ( null == artifact.getReplacementModel() )
-          {
-            macro.newLine();
-            if ( supportDependencyOmit )
-            {
-              macro.writeIfCondition( "not omit_" + artifact.getSymbol(), o -> writeArtifactHttpRules( artifact, o ) );
-            }
-            else
-            {
-              writeArtifactHttpRules( artifact, macro );
-            }
-          }
+          o.writeIfCondition( "js_assets == None", c -> c.writeCall( "_http_file", httpFileArguments ) );
+          o.write( "else:" );
+          o.incIndent();
+          final LinkedHashMap<String, Object> httpArchiveArguments = new LinkedHashMap<>();
+          httpArchiveArguments.put( "name", "name" );
+          httpArchiveArguments.put( "sha256", "sha256" );
+          httpArchiveArguments.put( "urls", "urls" );
+          httpArchiveArguments.put( "build_file_content",
+                                    "\"filegroup(name = \\\"srcs\\\", " +
+                                    "visibility = [\\\"//visibility:public\\\"], srcs = %s)\\n\" % " +
+                                    "repr(js_assets)" );
+          o.writeCall( "_http_archive", httpArchiveArguments );
+          o.decIndent();
+        }
+        else
+        {
+          o.writeCall( "_http_file", httpFileArguments );
+        }
+        o.decIndent();
+      } );
+      macro.decIndent();
+    } );
+    output.newLine();
+    output.writeMacro( DEFINE_RULES_FUNCTION, Arrays.asList( "rules", "omit" ), macro -> {
+      macro.writeMultilineComment( o -> o.write( "Define the rules described by the table unless omitted." ) );
+      macro.newLine();
+      writeOmitCheck( macro, "rules" );
+      macro.write( "for symbol, entries in rules.items():" );
+      macro.incIndent();
+      macro.writeIfCondition( "not omit.get(\"omit_\" + symbol, False)", o -> {
+        o.write( "for function, arguments in entries:" );
+        o.incIndent();
+        o.write( "function(**arguments)" );
+        o.decIndent();
+      } );
+      macro.decIndent();
+    } );
+  }
+
+  private void writeOmitCheck( @Nonnull final StarlarkOutput output, @Nonnull final String tableParameter )
+    throws IOException
+  {
+    output.write( "for key in omit:" );
+    output.incIndent();
+    output.writeIfCondition( "not key.startswith(\"omit_\") or key[5:] not in " + tableParameter,
+                             o -> o.write( "fail(\"Unexpected argument '%s'\" % key)" ) );
+    output.decIndent();
+  }
+
+  private void writeDefineRulesCall( @Nonnull final StarlarkOutput output,
+                                     @Nonnull final String functionName,
+                                     @Nonnull final String tableName )
+    throws IOException
+  {
+    output.newLine();
+    final boolean supportDependencyOmit = getSource().getOptions().supportDependencyOmit();
+    output.write( functionName + "(" + tableName + ", " + ( supportDependencyOmit ? "kwargs" : "{}" ) + ")" );
+  }
+
+  /**
+   * Write a table that maps the symbol of each artifact that is not replaced to the entries written by the block.
+   */
+  private void writeRulesTable( @Nonnull final StarlarkOutput output,
+                                @Nonnull final String tableName,
+                                @Nonnull final List<ArtifactRecord> artifacts,
+                                @Nonnull final ArtifactBlock block )
+    throws IOException
+  {
+    output.write( tableName + " = {" );
+    output.incIndent();
+    final List<byte[]> fragments = renderArtifacts( output, artifacts, true, ( artifact, o ) -> {
+      o.write( "\"" + artifact.getSymbol() + "\": [" );
+      o.incIndent();
+      block.call( artifact, o );
+      o.decIndent();
+      o.write( "]," );
+    } );
+    for ( final byte[] fragment : fragments )
+    {
+      output.writeFragment( fragment );
+    }
+    output.decIndent();
+    output.write( "}" );
+  }
+
+  @FunctionalInterface
+  private interface ArtifactBlock
+  {
+    void call( @Nonnull ArtifactRecord artifact, @Nonnull StarlarkOutput output )
+      throws IOException;
+  }
+
+  /**
+   * Render the block for every specified artifact that is not replaced, at the current indent of the output.
+   * The fragments are rendered concurrently and are returned in the order of the artifacts so the
+   * result is identical to rendering the artifacts serially. If tableEntries is true then the calls
+   * are rendered as table entries. See {@link StarlarkOutput#renderTableFragment(StarlarkOutput.Block)}.
+   */
+  @Nonnull
+  private List<byte[]> renderArtifacts( @Nonnull final StarlarkOutput output,
+                                        @Nonnull final List<ArtifactRecord> artifacts,
+                                        final boolean tableEntries,
+                                        @Nonnull final ArtifactBlock block )
+    throws IOException
+  {
+    final List<ArtifactRecord> selected =
+      artifacts.stream().filter( a -> null == a.getReplacementModel() ).collect( Collectors.toList() );
+    if ( !selected.isEmpty() )
+    {
+      // Derive the lazily computed dependency indexes on this thread before they are accessed concurrently
+      getReverseDeps( selected.get( 0 ) );
+      getReverseRuntimeDeps( selected.get( 0 ) );
+    }
+    try
+    {
+      return ParallelUtil.map( selected, MAX_CONCURRENT_RENDERS, artifact -> {
+        try
+        {
+          final StarlarkOutput.Block artifactBlock = o -> block.call( artifact, o );
+          return tableEntries ? output.renderTableFragment( artifactBlock ) : output.renderFragment( artifactBlock );
+        }
+        catch ( final IOException ioe )
+        {
+          throw new UncheckedIOException( ioe );
         }
       } );
+    }
+    catch ( final UncheckedIOException uioe )
+    {
+      throw uioe.getCause();
+    }
   }
 
   private void writeArtifactHttpRules( @Nonnull final ArtifactRecord artifact, @Nonnull final StarlarkOutput output )
@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -70,11 +71,7 @@ public final class ArtifactRecord
   @Nullable
   private List<ArtifactRecord> _depsCache;
   @Nullable
-  private List<ArtifactRecord> _reverseDepsCache;
-  @Nullable
   private List<ArtifactRecord> _runtimeDepsCache;
-  @Nullable
-  private List<ArtifactRecord> _reverseRuntimeDepsCache;
 
   ArtifactRecord( @Nonnull final ApplicationRecord application,
                   @Nonnull final DependencyNode node,
@@ -585,15 +582,7 @@ public final class ArtifactRecord
   @Nonnull
   List<ArtifactRecord> getReverseDeps()
   {
-    if ( null == _reverseDepsCache )
-    {
-      _reverseDepsCache =
-        collectArtifacts( _application
-                            .getArtifacts()
-                            .stream()
-                            .filter( a -> a.getDeps().contains( this ) ) );
-    }
-    return _reverseDepsCache;
+    return _application.getReverseDeps( this );
   }
 
   @Nonnull
@@ -618,15 +607,7 @@ public final class ArtifactRecord
   @Nonnull
   List<ArtifactRecord> getReverseRuntimeDeps()
   {
-    if ( null == _reverseRuntimeDepsCache )
-    {
-      _reverseRuntimeDepsCache =
-        collectArtifacts( _application
-                            .getArtifacts()
-                            .stream()
-                            .filter( a -> a.getRuntimeDeps().contains( this ) ) );
-    }
-    return _reverseRuntimeDepsCache;
+    return _application.getReverseRuntimeDeps( this );
   }
 
   boolean shouldExportDeps()
@@ -649,13 +630,6 @@ public final class ArtifactRecord
     return ( includeOptional || !c.getDependency().isOptional() ) && scope.equals( c.getDependency().getScope() );
   }
 
-  boolean shouldMatch( @Nonnull final String groupId, @Nonnull final String artifactId )
-  {
-    final DependencyNode node = getNode();
-    final org.eclipse.aether.artifact.Artifact artifact = node.getDependency().getArtifact();
-    return groupId.equals( artifact.getGroupId() ) && artifactId.equals( artifact.getArtifactId() );
-  }
-
   void emitJavaImport( @Nonnull final StarlarkOutput output, @Nonnull final String nameSuffix )
     throws IOException
   {
@@ -978,6 +952,72 @@ public final class ArtifactRecord
     output.writeCall( "_http_archive", arguments );
   }
 
+  /**
+   * Write the rows of the repository table that describe the files downloaded for the artifact.
+   * Each row is a (name, downloaded_file_path, sha256, urls, js_assets) tuple that describes the same repository
+   * as the corresponding http rule. The js_assets are only specified for the archive of javascript sources
+   * and the downloaded_file_path is only specified for the other files.
+   *
+   * @param output the output.
+   * @throws IOException if there is an error writing the rows.
+   */
+  void writeArtifactRepositoryRows( @Nonnull final StarlarkOutput output )
+    throws IOException
+  {
+    assert null == getReplacementModel();
+    final org.eclipse.aether.artifact.Artifact a = getNode().getArtifact();
+    assert null != a;
+    final List<Nature> natures = getNatures();
+    if ( natures.contains( Nature.Java ) || natures.contains( Nature.Plugin ) )
+    {
+      final String sha256 = getSha256();
+      assert null != sha256;
+      writeRepositoryRow( output, getRepository(), ArtifactUtil.artifactToPath( a ), sha256, getUrls(), null );
+    }
+    final String sourceSha256 = getSourceSha256();
+    if ( null != sourceSha256 )
+    {
+      final String artifactPath =
+        ArtifactUtil.artifactToPath( a.getGroupId(), a.getArtifactId(), a.getVersion(), "sources", "jar" );
+      writeRepositoryRow( output, getSourceRepository(), artifactPath, sourceSha256, getSourceUrls(), null );
+    }
+    final String externalAnnotationSha256 = getExternalAnnotationSha256();
+    if ( null != externalAnnotationSha256 )
+    {
+      final String artifactPath =
+        ArtifactUtil.artifactToPath( a.getGroupId(), a.getArtifactId(), a.getVersion(), "annotations", "jar" );
+      writeRepositoryRow( output,
+                          getExternalAnnotationsRepository(),
+                          artifactPath,
+                          externalAnnotationSha256,
+                          getExternalAnnotationUrls(),
+                          null );
+    }
+    final List<String> jsAssets = getJsAssets();
+    if ( natures.contains( Nature.J2cl ) && null != jsAssets && null != sourceSha256 )
+    {
+      writeRepositoryRow( output, getJsSourceRepository(), null, sourceSha256, getSourceUrls(), jsAssets );
+    }
+  }
+
+  private void writeRepositoryRow( @Nonnull final StarlarkOutput output,
+                                   @Nonnull final String name,
+                                   @Nullable final String downloadedFilePath,
+                                   @Nonnull final String sha256,
+                                   @Nullable final List<String> urls,
+                                   @Nullable final List<String> jsAssets )
+    throws IOException
+  {
+    assert null != urls && !urls.isEmpty();
+    output.writeTableRow( Arrays.asList( asString( name ),
+                                         null == downloadedFilePath ? null : asString( downloadedFilePath ),
+                                         asString( sha256.toLowerCase() ),
+                                         urls.stream().map( this::asString ).collect( Collectors.toList() ),
+                                         null == jsAssets ?
+                                         null :
+                                         jsAssets.stream().map( this::asString ).collect( Collectors.toList() ) ) );
+  }
+
   @Nonnull
   private String deriveSuffix( @Nonnull final Nature nature )
   {
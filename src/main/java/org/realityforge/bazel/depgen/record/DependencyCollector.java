@@ -1,10 +1,18 @@
 package org.realityforge.bazel.depgen.record;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.graph.DependencyVisitor;
@@ -12,17 +20,35 @@ import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.util.artifact.SubArtifact;
 import org.eclipse.aether.util.graph.transformer.ConflictResolver;
 import org.realityforge.bazel.depgen.Constants;
+import org.realityforge.bazel.depgen.DepgenException;
 import org.realityforge.bazel.depgen.metadata.DepgenMetadata;
+import org.realityforge.bazel.depgen.metadata.DepgenMetadataRegistry;
+import org.realityforge.bazel.depgen.metadata.MissingCachedMetadataException;
 import org.realityforge.bazel.depgen.metadata.RecordBuildCallback;
 import org.realityforge.bazel.depgen.model.ArtifactModel;
+import org.realityforge.bazel.depgen.util.ParallelUtil;
 
 final class DependencyCollector
   implements DependencyVisitor
 {
+  /**
+   * The maximum number of artifacts for which metadata is computed concurrently.
+   */
+  private static final int MAX_CONCURRENT_ARTIFACTS = 16;
   @Nonnull
   private final ApplicationRecord _record;
   @Nonnull
   private final RecordBuildCallback _callback;
+  /**
+   * The artifact nodes in the order in which they were visited.
+   */
+  @Nonnull
+  private final List<DependencyNode> _nodes = new ArrayList<>();
+  /**
+   * The descriptions of the metadata missing from the cache in offline mode.
+   */
+  @Nonnull
+  private final List<String> _missingEntries = Collections.synchronizedList( new ArrayList<>() );
 
   DependencyCollector( @Nonnull final ApplicationRecord record, @Nonnull final RecordBuildCallback callback )
   {
@@ -53,12 +79,59 @@ final class DependencyCollector
     }
     else
     {
-      processArtifact( node );
+      _nodes.add( node );
       return true;
     }
   }
 
-  private void processArtifact( @Nonnull final DependencyNode node )
+  /**
+   * Compute the metadata for every artifact node visited and add the artifacts to the record.
+   * The metadata is computed concurrently but nodes that share a directory, and thus share a
+   * metadata file, are processed sequentially by the same task. The artifacts are added to the
+   * record in the order in which they were visited so that the result is deterministic.
+   */
+  void collectArtifacts()
+  {
+    final Map<Path, List<DependencyNode>> nodesByDirectory = new LinkedHashMap<>();
+    for ( final DependencyNode node : _nodes )
+    {
+      final File file = node.getArtifact().getFile();
+      assert null != file;
+      nodesByDirectory.computeIfAbsent( file.getParentFile().toPath(), k -> new ArrayList<>() ).add( node );
+    }
+    final List<List<Runnable>> actions =
+      ParallelUtil.map( new ArrayList<>( nodesByDirectory.values() ),
+                        MAX_CONCURRENT_ARTIFACTS,
+                        nodes -> nodes.stream().map( this::processArtifact ).collect( Collectors.toList() ) );
+    if ( !_missingEntries.isEmpty() )
+    {
+      // Report every missing entry rather than the first so that the cache can be populated in a single run
+      final String entries =
+        _missingEntries.stream().sorted().map( e -> "  " + e ).collect( Collectors.joining( "\n" ) );
+      throw new DepgenException( "Unable to derive the urls of artifacts in offline mode as the following " +
+                                 "entries are missing from the cached metadata:\n" + entries + "\n" +
+                                 "Run the command without the --offline option to populate the cache." );
+    }
+
+    final Map<DependencyNode, Runnable> actionsByNode = new IdentityHashMap<>();
+    int index = 0;
+    for ( final List<DependencyNode> nodes : nodesByDirectory.values() )
+    {
+      final List<Runnable> directoryActions = actions.get( index++ );
+      for ( int i = 0; i < nodes.size(); i++ )
+      {
+        actionsByNode.putIfAbsent( nodes.get( i ), directoryActions.get( i ) );
+      }
+    }
+    for ( final DependencyNode node : _nodes )
+    {
+      actionsByNode.get( node ).run();
+    }
+  }
+
+  // Compute the metadata for the node and return the action that will add the artifact to the record
+  @Nonnull
+  private Runnable processArtifact( @Nonnull final DependencyNode node )
   {
     final org.eclipse.aether.artifact.Artifact artifact = node.getArtifact();
     assert null != artifact;
@@ -66,7 +139,8 @@ final class DependencyCollector
     assert null != file;
 
     final ArtifactModel model = _record.getSource().findArtifact( artifact.getGroupId(), artifact.getArtifactId() );
-    final DepgenMetadata metadata = DepgenMetadata.fromDirectory( _record.getSource(), file.getParentFile().toPath() );
+    final DepgenMetadata metadata =
+      DepgenMetadataRegistry.get( _record.getSource(), file.getParentFile().toPath() );
 
     final String sha256 = metadata.getSha256( artifact.getClassifier(), artifact.getFile() );
     final List<RemoteRepository> repositories =
@@ -79,8 +153,7 @@ final class DependencyCollector
         .stream()
         .filter( r -> _record.getSource().getRepository( r.getId() ).searchByDefault() )
         .collect( Collectors.toList() );
-    final List<String> urls =
-      metadata.getUrls( artifact, repositories, _record.getAuthenticationContexts(), _callback );
+    final List<String> urls = getUrls( metadata, artifact, repositories );
 
     final List<String> jsAssets;
     final String sourceSha256;
@@ -93,8 +166,7 @@ final class DependencyCollector
         new SubArtifact( artifact, "sources", "jar" ).setFile( sourcesFile );
 
       sourceSha256 = metadata.getSha256( sourcesArtifact.getClassifier(), sourcesArtifact.getFile() );
-      sourceUrls =
-        metadata.getUrls( sourcesArtifact, repositories, _record.getAuthenticationContexts(), _callback );
+      sourceUrls = getUrls( metadata, sourcesArtifact, repositories );
       jsAssets = metadata.getJsAssets( sourcesFile );
     }
     else
@@ -114,8 +186,7 @@ final class DependencyCollector
         new SubArtifact( artifact, "annotations", "jar" ).setFile( sourcesFile );
 
       externalAnnotationSha256 = metadata.getSha256( sourcesArtifact.getClassifier(), sourcesArtifact.getFile() );
-      externalAnnotationUrls =
-        metadata.getUrls( sourcesArtifact, repositories, _record.getAuthenticationContexts(), _callback );
+      externalAnnotationUrls = getUrls( metadata, sourcesArtifact, repositories );
     }
     else
     {
@@ -125,25 +196,39 @@ final class DependencyCollector
 
     final List<String> processors = metadata.getProcessors( file );
 
-    _record.artifact( node,
-                      sha256,
-                      urls,
-                      sourceSha256,
-                      sourceUrls,
-                      externalAnnotationSha256,
-                      externalAnnotationUrls,
-                      processors,
-                      jsAssets );
+    return () -> _record.artifact( node,
+                                   sha256,
+                                   urls,
+                                   sourceSha256,
+                                   sourceUrls,
+                                   externalAnnotationSha256,
+                                   externalAnnotationUrls,
+                                   processors,
+                                   jsAssets );
+  }
+
+  // Return the urls of the artifact or null if the urls are missing from the cache in offline mode.
+  // The missing entries are collected so that every missing entry is reported once all artifacts are processed
+  @Nullable
+  private List<String> getUrls( @Nonnull final DepgenMetadata metadata,
+                                @Nonnull final org.eclipse.aether.artifact.Artifact artifact,
+                                @Nonnull final List<RemoteRepository> repositories )
+  {
+    try
+    {
+      return metadata.getUrls( artifact, repositories, _record.getAuthenticationContexts(), _callback );
+    }
+    catch ( final MissingCachedMetadataException mcme )
+    {
+      _missingEntries.addAll( mcme.getEntries() );
+      return null;
+    }
   }
 
   private boolean hasReplacement( @Nonnull final Dependency dependency )
   {
-    return _record
-      .getSource()
-      .getReplacements()
-      .stream()
-      .anyMatch( replacement -> replacement.getGroup().equals( dependency.getArtifact().getGroupId() ) &&
-                                replacement.getId().equals( dependency.getArtifact().getArtifactId() ) );
+    final Artifact artifact = dependency.getArtifact();
+    return null != _record.getSource().findReplacement( artifact.getGroupId(), artifact.getArtifactId() );
   }
 
   @Override
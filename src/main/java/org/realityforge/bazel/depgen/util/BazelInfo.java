@@ -0,0 +1,44 @@
+package org.realityforge.bazel.depgen.util;
+
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+
+/**
+ * The values reported by <code>bazel info</code> that are used by the tool.
+ */
+public final class BazelInfo
+{
+  @Nullable
+  private final Path _outputBase;
+  @Nullable
+  private final Path _repositoryCache;
+
+  public BazelInfo( @Nullable final Path outputBase, @Nullable final Path repositoryCache )
+  {
+    _outputBase = outputBase;
+    _repositoryCache = repositoryCache;
+  }
+
+  /**
+   * Return the output base of the workspace or null if the directory is not within a workspace.
+   *
+   * @return the output base of the workspace or null if the directory is not within a workspace.
+   */
+  @Nullable
+  public Path getOutputBase()
+  {
+    return _outputBase;
+  }
+
+  /**
+   * Return the repository cache of the workspace, or the default repository cache if the
+   * directory is not within a workspace, or null if the repository cache could not be determined.
+   *
+   * @return the repository cache.
+   */
+  @Nullable
+  public Path getRepositoryCache()
+  {
+    return _repositoryCache;
+  }
+}
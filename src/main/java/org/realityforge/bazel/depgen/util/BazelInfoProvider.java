@@ -0,0 +1,20 @@
+package org.realityforge.bazel.depgen.util;
+
+import java.nio.file.Path;
+import javax.annotation.Nonnull;
+
+/**
+ * The source of the values reported by <code>bazel info</code>.
+ */
+@FunctionalInterface
+public interface BazelInfoProvider
+{
+  /**
+   * Return the bazel info for the workspace containing the specified directory.
+   *
+   * @param directory the directory.
+   * @return the bazel info.
+   */
+  @Nonnull
+  BazelInfo getBazelInfo( @Nonnull Path directory );
+}
@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.realityforge.bazel.depgen.DepgenException;
 
 public final class BazelUtil
 {
@@ -21,32 +22,71 @@ public final class BazelUtil
 
   @Nullable
   public static File getOutputBase( @Nonnull final File cwd )
+  {
+    final Path outputBase = getBazelInfo( cwd ).getOutputBase();
+    return null == outputBase ? null : outputBase.toFile();
+  }
+
+  @Nullable
+  public static Path getRepositoryCache( @Nonnull final File cwd )
+  {
+    return getBazelInfo( cwd ).getRepositoryCache();
+  }
+
+  /**
+   * Query the output base and the repository cache of the workspace via a single invocation of bazel.
+   * If the directory is not within a workspace then the output base is null and the repository cache
+   * is the default repository cache.
+   *
+   * @param cwd the directory from which bazel is invoked.
+   * @return the bazel info.
+   */
+  @Nonnull
+  public static BazelInfo getBazelInfo( @Nonnull final File cwd )
   {
     try
     {
-      final String repositoryCache =
-        Exec.capture( p -> p.command( "bazel", "info", "output_base" ).directory( cwd ), 0 );
-      return new File( repositoryCache.trim() );
+      final String output =
+        Exec.capture( p -> p.command( "bazel", "info", "output_base", "repository_cache" ).directory( cwd ), 0 );
+      return parseBazelInfo( output );
     }
     catch ( final Exception e )
     {
-      return null;
+      return new BazelInfo( null, getDefaultRepositoryCache() );
     }
   }
 
-  @Nullable
-  public static Path getRepositoryCache( @Nonnull final File cwd )
+  /**
+   * Parse the output of <code>bazel info output_base repository_cache</code>.
+   * Bazel emits one "key: value" line per key when multiple keys are requested.
+   */
+  @Nonnull
+  static BazelInfo parseBazelInfo( @Nonnull final String output )
   {
-    try
+    Path outputBase = null;
+    Path repositoryCache = null;
+    for ( final String line : output.split( "\n" ) )
     {
-      final String repositoryCache =
-        Exec.capture( p -> p.command( "bazel", "info", "repository_cache" ).directory( cwd ), 0 );
-      return Paths.get( repositoryCache.trim() );
+      final int index = line.indexOf( ':' );
+      if ( -1 != index )
+      {
+        final String key = line.substring( 0, index ).trim();
+        final String value = line.substring( index + 1 ).trim();
+        if ( "output_base".equals( key ) )
+        {
+          outputBase = Paths.get( value );
+        }
+        else if ( "repository_cache".equals( key ) )
+        {
+          repositoryCache = Paths.get( value );
+        }
+      }
     }
-    catch ( final Exception e )
+    if ( null == outputBase || null == repositoryCache )
     {
-      return getDefaultRepositoryCache();
+      throw new DepgenException( "Unable to parse the output of bazel info: " + output );
     }
+    return new BazelInfo( outputBase, repositoryCache );
   }
 
   @SuppressWarnings( "ResultOfMethodCallIgnored" )
@@ -0,0 +1,250 @@
+package org.realityforge.bazel.depgen.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BazelInfoProvider} that memoizes the bazel info of each workspace in a file on disk so that
+ * bazel need not be invoked on every run of the tool. The memoized value is discarded if the fingerprint
+ * of the workspace changes or the output base no longer exists. The fingerprint is derived from the
+ * location of the workspace and the inputs that may change the bazel version or the bazel info, i.e.
+ * the <code>.bazelversion</code> file, the <code>USE_BAZEL_VERSION</code> environment variable, the bazel
+ * executable on the path and the <code>.bazelrc</code> files of the workspace and the user.
+ */
+public final class CachedBazelInfoProvider
+  implements BazelInfoProvider
+{
+  /**
+   * The system property that specifies the directory in which the bazel info is memoized.
+   */
+  public static final String CACHE_DIR_PROPERTY = "bazel-depgen.bazel-info.cache-dir";
+  private static final String FINGERPRINT_KEY = "fingerprint";
+  private static final String OUTPUT_BASE_KEY = "output_base";
+  private static final String REPOSITORY_CACHE_KEY = "repository_cache";
+  private static final String[] WORKSPACE_FILENAMES = { "WORKSPACE", "WORKSPACE.bazel", "MODULE.bazel" };
+  @Nonnull
+  private final Path _cacheDir;
+  @Nonnull
+  private final BazelInfoProvider _provider;
+
+  /**
+   * Create a provider that invokes bazel when the bazel info of a workspace is not memoized.
+   * The bazel info is memoized in the directory specified by the {@link #CACHE_DIR_PROPERTY} system
+   * property, defaulting to <code>~/.cache/bazel-depgen/bazel-info</code>.
+   *
+   * @return the provider.
+   */
+  @Nonnull
+  public static CachedBazelInfoProvider create()
+  {
+    final String cacheDir = System.getProperty( CACHE_DIR_PROPERTY );
+    return new CachedBazelInfoProvider( null != cacheDir ?
+                                        Paths.get( cacheDir ) :
+                                        Paths.get( System.getProperty( "user.home" ),
+                                                   ".cache",
+                                                   "bazel-depgen",
+                                                   "bazel-info" ),
+                                        directory -> BazelUtil.getBazelInfo( directory.toFile() ) );
+  }
+
+  public CachedBazelInfoProvider( @Nonnull final Path cacheDir, @Nonnull final BazelInfoProvider provider )
+  {
+    _cacheDir = Objects.requireNonNull( cacheDir );
+    _provider = Objects.requireNonNull( provider );
+  }
+
+  @Nonnull
+  @Override
+  public BazelInfo getBazelInfo( @Nonnull final Path directory )
+  {
+    final Path workspace = findWorkspace( directory.toAbsolutePath().normalize() );
+    final String location = null != workspace ? workspace.toString() : "";
+    final String fingerprint = fingerprint( location, workspace );
+    final Path file = _cacheDir.resolve( HashUtil.sha256( location.getBytes( StandardCharsets.UTF_8 ) ) );
+
+    final BazelInfo memoized = read( file, fingerprint );
+    if ( null != memoized )
+    {
+      return memoized;
+    }
+    final BazelInfo info = _provider.getBazelInfo( directory );
+    // The bazel info is only memoized if it was reported by bazel. If bazel could not be queried then
+    // the output base is absent and the repository cache may be a default that bazel would not report
+    if ( null != info.getOutputBase() && null != info.getRepositoryCache() )
+    {
+      write( file, fingerprint, info );
+    }
+    return info;
+  }
+
+  @Nullable
+  private static Path findWorkspace( @Nonnull final Path directory )
+  {
+    for ( Path dir = directory; null != dir; dir = dir.getParent() )
+    {
+      for ( final String filename : WORKSPACE_FILENAMES )
+      {
+        if ( Files.isRegularFile( dir.resolve( filename ) ) )
+        {
+          return dir;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nonnull
+  private static String fingerprint( @Nonnull final String location, @Nullable final Path workspace )
+  {
+    final StringBuilder sb = new StringBuilder();
+    sb.append( location ).append( '\n' );
+    if ( null != workspace )
+    {
+      appendContent( sb, workspace.resolve( ".bazelversion" ) );
+      appendContent( sb, workspace.resolve( ".bazelrc" ) );
+    }
+    appendContent( sb, Paths.get( System.getProperty( "user.home" ), ".bazelrc" ) );
+    sb.append( System.getenv( "USE_BAZEL_VERSION" ) ).append( '\n' );
+    final Path executable = findBazelExecutable();
+    if ( null != executable )
+    {
+      sb.append( executable );
+      try
+      {
+        sb.append( ':' ).append( Files.size( executable ) );
+        sb.append( ':' ).append( Files.getLastModifiedTime( executable ).toMillis() );
+      }
+      catch ( final IOException ignored )
+      {
+        // The executable is only used to detect changes
+      }
+    }
+    return HashUtil.sha256( sb.toString().getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  private static void appendContent( @Nonnull final StringBuilder sb, @Nonnull final Path file )
+  {
+    try
+    {
+      sb.append( HashUtil.sha256( file ) );
+    }
+    catch ( final Exception ignored )
+    {
+      // The file is absent
+    }
+    sb.append( '\n' );
+  }
+
+  @Nullable
+  private static Path findBazelExecutable()
+  {
+    final String path = System.getenv( "PATH" );
+    if ( null != path )
+    {
+      for ( final String element : path.split( File.pathSeparator ) )
+      {
+        if ( !element.isEmpty() )
+        {
+          final Path candidate = Paths.get( element ).resolve( "bazel" );
+          if ( Files.isExecutable( candidate ) )
+          {
+            return candidate;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static BazelInfo read( @Nonnull final Path file, @Nonnull final String fingerprint )
+  {
+    if ( !Files.exists( file ) )
+    {
+      return null;
+    }
+    final Properties properties = new Properties();
+    try ( final InputStream inputStream = Files.newInputStream( file ) )
+    {
+      properties.load( inputStream );
+    }
+    catch ( final IOException ioe )
+    {
+      return null;
+    }
+    if ( !fingerprint.equals( properties.getProperty( FINGERPRINT_KEY ) ) )
+    {
+      return null;
+    }
+    final String outputBase = properties.getProperty( OUTPUT_BASE_KEY );
+    final String repositoryCache = properties.getProperty( REPOSITORY_CACHE_KEY );
+    if ( null == repositoryCache || null == outputBase || !Files.isDirectory( Paths.get( outputBase ) ) )
+    {
+      // The output base has been removed (i.e. by "bazel clean --expunge") and may be relocated
+      return null;
+    }
+    return new BazelInfo( Paths.get( outputBase ), Paths.get( repositoryCache ) );
+  }
+
+  private static void write( @Nonnull final Path file,
+                             @Nonnull final String fingerprint,
+                             @Nonnull final BazelInfo info )
+  {
+    final Properties properties = new OrderedProperties();
+    properties.setProperty( FINGERPRINT_KEY, fingerprint );
+    final Path outputBase = info.getOutputBase();
+    assert null != outputBase;
+    properties.setProperty( OUTPUT_BASE_KEY, outputBase.toString() );
+    final Path repositoryCache = info.getRepositoryCache();
+    assert null != repositoryCache;
+    properties.setProperty( REPOSITORY_CACHE_KEY, repositoryCache.toString() );
+
+    final Path tmpFile =
+      file.resolveSibling( "." + file.getFileName() + "." +
+                           Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+    try
+    {
+      Files.createDirectories( file.getParent() );
+      try ( final OutputStream outputStream = Files.newOutputStream( tmpFile ) )
+      {
+        properties.store( outputStream, null );
+      }
+      try
+      {
+        Files.move( tmpFile, file, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch ( final AtomicMoveNotSupportedException amnse )
+      {
+        Files.move( tmpFile, file, StandardCopyOption.REPLACE_EXISTING );
+      }
+    }
+    catch ( final IOException ignored )
+    {
+      // Failing to memoize the bazel info only means that bazel is invoked on the next run
+    }
+    finally
+    {
+      try
+      {
+        Files.deleteIfExists( tmpFile );
+      }
+      catch ( final IOException ignored )
+      {
+        // Ignored
+      }
+    }
+  }
+}
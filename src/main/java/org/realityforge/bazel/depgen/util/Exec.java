@@ -13,7 +13,7 @@ import org.realityforge.bazel.depgen.DepgenException;
 /**
  * Utility methods for invoking native commands.
  */
-final class Exec
+public final class Exec
 {
   private static final int BUFFER_SIZE = 2 * 1024;
 
@@ -36,6 +36,20 @@ final class Exec
     return baos.toString();
   }
 
+  /**
+   * Execute a command, passing the output of the command through to the output of the current process.
+   *
+   * @param action           the callback responsible for setting up ProcessBuilder.
+   * @param expectedExitCode the expected exitCode of the process.
+   */
+  public static void run( @Nonnull final Consumer<ProcessBuilder> action, @Nullable final Integer expectedExitCode )
+  {
+    exec( b -> {
+      action.accept( b );
+      b.inheritIO();
+    }, null, expectedExitCode );
+  }
+
   /**
    * Low level utility for executing a process.
    * This method will return when the process completes.
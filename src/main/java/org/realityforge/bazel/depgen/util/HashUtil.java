@@ -1,5 +1,10 @@
 package org.realityforge.bazel.depgen.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import javax.annotation.Nonnull;
@@ -8,6 +13,15 @@ import org.realityforge.bazel.depgen.DepgenConfigurationException;
 public final class HashUtil
 {
   private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+  /**
+   * The size of the buffer used when streaming a file through the digest.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+  @Nonnull
+  private static final ThreadLocal<MessageDigest> c_digest = ThreadLocal.withInitial( HashUtil::newDigest );
+  @Nonnull
+  private static final ThreadLocal<ByteBuffer> c_buffer =
+    ThreadLocal.withInitial( () -> ByteBuffer.allocateDirect( BUFFER_SIZE ) );
 
   private HashUtil()
   {
@@ -16,14 +30,64 @@ public final class HashUtil
   @Nonnull
   public static String sha256( @Nonnull final byte[]... data )
   {
-    try
+    final MessageDigest digest = newDigest();
+    for ( final byte[] datum : data )
+    {
+      digest.update( datum );
+    }
+    return bytesToHex( digest.digest() );
+  }
+
+  /**
+   * Return the sha256 of the contents of the file.
+   * The file is streamed through a fixed size buffer so memory usage does not depend on the size of the file.
+   *
+   * @param file the file.
+   * @return the sha256 of the contents of the file.
+   * @throws IOException if there is an error reading the file.
+   */
+  @Nonnull
+  public static String sha256( @Nonnull final Path file )
+    throws IOException
+  {
+    final MessageDigest digest = c_digest.get();
+    final ByteBuffer buffer = c_buffer.get();
+    digest.reset();
+    try ( final FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
     {
-      final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
-      for ( final byte[] datum : data )
+      buffer.clear();
+      while ( -1 != channel.read( buffer ) )
       {
-        digest.update( datum );
+        buffer.flip();
+        digest.update( buffer );
+        buffer.clear();
       }
-      return bytesToHex( digest.digest() );
+    }
+    return bytesToHex( digest.digest() );
+  }
+
+  /**
+   * Return the sha256 of the remaining bytes in the buffer.
+   * The position of the supplied buffer is not modified.
+   *
+   * @param data the buffer.
+   * @return the sha256 of the remaining bytes in the buffer.
+   */
+  @Nonnull
+  public static String sha256( @Nonnull final ByteBuffer data )
+  {
+    final MessageDigest digest = c_digest.get();
+    digest.reset();
+    digest.update( data.duplicate() );
+    return bytesToHex( digest.digest() );
+  }
+
+  @Nonnull
+  private static MessageDigest newDigest()
+  {
+    try
+    {
+      return MessageDigest.getInstance( "SHA-256" );
     }
     catch ( final NoSuchAlgorithmException nsae )
     {
@@ -0,0 +1,111 @@
+package org.realityforge.bazel.depgen.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.Nonnull;
+import org.realityforge.bazel.depgen.DepgenException;
+
+/**
+ * Utility methods for running independent tasks concurrently on a bounded pool.
+ */
+public final class ParallelUtil
+{
+  private ParallelUtil()
+  {
+  }
+
+  /**
+   * Apply the action to every input using at most the specified number of threads.
+   * The results are returned in the same order as the inputs regardless of the order in which
+   * the actions complete. If any action throws an exception then the exception raised by the
+   * earliest input is rethrown on the calling thread.
+   *
+   * @param inputs         the inputs.
+   * @param maxConcurrency the maximum number of actions to run concurrently.
+   * @param action         the action to apply to each input.
+   * @param <I>            the type of the inputs.
+   * @param <O>            the type of the outputs.
+   * @return the outputs in the same order as the inputs.
+   */
+  @Nonnull
+  public static <I, O> List<O> map( @Nonnull final List<I> inputs,
+                                    final int maxConcurrency,
+                                    @Nonnull final Function<I, O> action )
+  {
+    final int size = inputs.size();
+    final List<O> outputs = new ArrayList<>( size );
+    if ( size <= 1 || maxConcurrency <= 1 )
+    {
+      for ( final I input : inputs )
+      {
+        outputs.add( action.apply( input ) );
+      }
+      return outputs;
+    }
+
+    final ExecutorService executor = newExecutor( Math.min( size, maxConcurrency ) );
+    try
+    {
+      final List<Future<O>> futures = new ArrayList<>( size );
+      for ( final I input : inputs )
+      {
+        futures.add( executor.submit( () -> action.apply( input ) ) );
+      }
+      for ( final Future<O> future : futures )
+      {
+        outputs.add( await( future ) );
+      }
+      return outputs;
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nonnull
+  private static ExecutorService newExecutor( final int threadCount )
+  {
+    final AtomicInteger counter = new AtomicInteger();
+    return Executors.newFixedThreadPool( threadCount, r -> {
+      final Thread thread = new Thread( r, "depgen-worker-" + counter.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    } );
+  }
+
+  private static <O> O await( @Nonnull final Future<O> future )
+  {
+    try
+    {
+      return future.get();
+    }
+    catch ( final InterruptedException ie )
+    {
+      Thread.currentThread().interrupt();
+      throw new DepgenException( "Interrupted waiting for concurrent task", ie );
+    }
+    catch ( final ExecutionException ee )
+    {
+      final Throwable cause = ee.getCause();
+      if ( cause instanceof RuntimeException )
+      {
+        throw (RuntimeException) cause;
+      }
+      else if ( cause instanceof Error )
+      {
+        throw (Error) cause;
+      }
+      else
+      {
+        throw new DepgenException( "Error performing concurrent task", cause );
+      }
+    }
+  }
+}
@@ -1,15 +1,21 @@
 package org.realityforge.bazel.depgen.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public final class StarlarkOutput
   implements AutoCloseable
@@ -21,36 +27,248 @@ public final class StarlarkOutput
       throws IOException;
   }
 
+  /**
+   * The number of spaces per indent level.
+   */
+  private static final int INDENT_SIZE = 4;
+  /**
+   * The size of the buffer when the output owns the stream. A smaller buffer is used otherwise as the buffer
+   * is drained at the end of every line.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int LINE_BUFFER_SIZE = 256;
+  /**
+   * The size of the buffer used when rendering a fragment. Fragments are typically a few kilobytes.
+   */
+  private static final int FRAGMENT_BUFFER_SIZE = 4 * 1024;
   @Nonnull
   private final OutputStream _outputStream;
+  /**
+   * The file that is replaced by the output when the output is closed, if any.
+   */
+  @Nullable
+  private final Path _file;
+  /**
+   * The temporary file in the same directory as {@link #_file} into which the output is written.
+   */
+  @Nullable
+  private final Path _tmpFile;
+  /**
+   * True if the output stream was created by this instance. The buffer is only drained to the stream when
+   * the buffer is full or the output is closed. Otherwise the buffer is drained at the end of every line so that
+   * the caller can observe the output without closing the output.
+   */
+  private final boolean _ownsOutputStream;
+  /**
+   * True if calls are written as table entries. See {@link #renderTableFragment(Block)}.
+   */
+  private final boolean _tableEntries;
+  /**
+   * True if the output was closed and the contents differed from the previous contents of {@link #_file}.
+   */
+  private boolean _changed;
+  /**
+   * True if the output was written to a file and the output was committed.
+   */
+  private boolean _committed;
+  /**
+   * The buffer into which the characters are encoded.
+   */
+  @Nonnull
+  private final byte[] _buffer;
+  private int _position;
   private int _indent;
 
+  /**
+   * Create an output that writes to the specified file.
+   * The output is written to a temporary file in the same directory and the file is only replaced,
+   * via an atomic rename, when the output is committed and the content differs from the existing content.
+   * An unchanged file retains the same modification time and inode so that tools such as Bazel that
+   * watch the file do not observe a change.
+   *
+   * @param extensionFile the file.
+   * @throws IOException if there is an error creating the temporary file.
+   */
   public StarlarkOutput( @Nonnull final Path extensionFile )
     throws IOException
   {
-    this( Files.newOutputStream( extensionFile.toFile().toPath() ) );
+    this( extensionFile, deriveTmpFile( extensionFile ) );
   }
 
   public StarlarkOutput( @Nonnull final OutputStream outputStream )
+  {
+    this( outputStream, null, null, false, false, LINE_BUFFER_SIZE );
+  }
+
+  private StarlarkOutput( @Nonnull final Path file, @Nonnull final Path tmpFile )
+    throws IOException
+  {
+    this( Files.newOutputStream( tmpFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE ),
+          file,
+          tmpFile,
+          true,
+          false,
+          BUFFER_SIZE );
+  }
+
+  private StarlarkOutput( @Nonnull final OutputStream outputStream,
+                          @Nullable final Path file,
+                          @Nullable final Path tmpFile,
+                          final boolean ownsOutputStream,
+                          final boolean tableEntries,
+                          final int bufferSize )
   {
     _outputStream = Objects.requireNonNull( outputStream );
+    _file = file;
+    _tmpFile = tmpFile;
+    _ownsOutputStream = ownsOutputStream;
+    _tableEntries = tableEntries;
+    _buffer = new byte[ bufferSize ];
+  }
+
+  @Nonnull
+  private static Path deriveTmpFile( @Nonnull final Path file )
+  {
+    return file.resolveSibling( "." + file.getFileName() + "." +
+                                Long.toHexString( ThreadLocalRandom.current().nextLong() ) + ".tmp" );
+  }
+
+  /**
+   * Return true if the output has been committed and the file was created or replaced.
+   * This returns false if the output was written to a file and the content was identical to the existing content.
+   * An output that writes to a stream is considered changed once it is closed.
+   *
+   * @return true if the output has been committed and the file was created or replaced.
+   */
+  public boolean isChanged()
+  {
+    return _changed;
   }
 
   public void write( @Nonnull final String line )
     throws IOException
   {
-    for ( int i = 0; i < _indent; i++ )
-    {
-      emit( "    " );
-    }
+    emitIndent();
     emit( line );
-    newLine();
+    endLine();
+  }
+
+  /**
+   * Write a line composed of the specified parts.
+   * This avoids the need to concatenate the parts before writing them.
+   */
+  private void write( @Nonnull final String part1,
+                      @Nonnull final String part2,
+                      @Nonnull final String part3,
+                      @Nonnull final String part4 )
+    throws IOException
+  {
+    emitIndent();
+    emit( part1 );
+    emit( part2 );
+    emit( part3 );
+    emit( part4 );
+    endLine();
   }
 
   public void newLine()
     throws IOException
   {
-    emit( "\n" );
+    // Blank lines only separate calls and calls are written one per line when writing table entries
+    if ( !_tableEntries )
+    {
+      endLine();
+    }
+  }
+
+  private void endLine()
+    throws IOException
+  {
+    if ( _position == _buffer.length )
+    {
+      drain();
+    }
+    _buffer[ _position++ ] = '\n';
+    if ( !_ownsOutputStream )
+    {
+      drain();
+    }
+  }
+
+  /**
+   * Render the block into a fragment that can be written to this output via {@link #writeFragment(byte[])}.
+   * The block is rendered at the current indent of this output but nothing is written to this output.
+   * As this output is not modified, multiple fragments may be rendered concurrently as long as this output
+   * is not written to until the fragments are rendered.
+   *
+   * @param block the block to render.
+   * @return the rendered fragment.
+   * @throws IOException if the block generates an error.
+   */
+  @Nonnull
+  public byte[] renderFragment( @Nonnull final Block block )
+    throws IOException
+  {
+    return renderFragment( block, false );
+  }
+
+  /**
+   * Render the block into a fragment in which every call is written as an entry in a table.
+   * Each call is written on a single line as a tuple of the function and a dict of the arguments,
+   * i.e. <code>(_http_file, {"name": "x", "urls": ["y"]}),</code> and blank lines are omitted. The
+   * entries are intended to be written within a list literal and the calls made by iterating over the list.
+   * See {@link #renderFragment(Block)} for the constraints on rendering fragments.
+   *
+   * @param block the block to render.
+   * @return the rendered fragment.
+   * @throws IOException if the block generates an error.
+   */
+  @Nonnull
+  public byte[] renderTableFragment( @Nonnull final Block block )
+    throws IOException
+  {
+    return renderFragment( block, true );
+  }
+
+  @Nonnull
+  private byte[] renderFragment( @Nonnull final Block block, final boolean tableEntries )
+    throws IOException
+  {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream( FRAGMENT_BUFFER_SIZE );
+    final StarlarkOutput output =
+      new StarlarkOutput( outputStream, null, null, true, tableEntries, FRAGMENT_BUFFER_SIZE );
+    output._indent = _indent;
+    block.call( output );
+    output.close();
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Write a fragment previously rendered via {@link #renderFragment(Block)}.
+   *
+   * @param fragment the fragment.
+   * @throws IOException if there is an error writing the fragment.
+   */
+  public void writeFragment( @Nonnull final byte[] fragment )
+    throws IOException
+  {
+    if ( fragment.length > _buffer.length - _position )
+    {
+      drain();
+    }
+    if ( fragment.length > _buffer.length )
+    {
+      _outputStream.write( fragment );
+    }
+    else
+    {
+      System.arraycopy( fragment, 0, _buffer, _position, fragment.length );
+      _position += fragment.length;
+    }
+    if ( !_ownsOutputStream )
+    {
+      drain();
+    }
   }
 
   public void writeMultilineComment( @Nonnull final Block body )
@@ -112,13 +330,17 @@ public final class StarlarkOutput
   public void writeCall( @Nonnull final String functionName, @Nonnull final LinkedHashMap<String, Object> arguments )
     throws IOException
   {
-    if ( arguments.isEmpty() )
+    if ( _tableEntries )
+    {
+      writeTableEntry( functionName, arguments );
+    }
+    else if ( arguments.isEmpty() )
     {
       write( functionName + "()" );
     }
     else
     {
-      write( functionName + "(" );
+      write( functionName, "(", "", "" );
       incIndent();
       for ( final Map.Entry<String, Object> entry : arguments.entrySet() )
       {
@@ -126,34 +348,34 @@ public final class StarlarkOutput
         final Object value = entry.getValue();
         if ( null == value )
         {
-          write( key + " = None," );
+          write( key, " = None,", "", "" );
         }
         else if ( Boolean.TRUE == value )
         {
-          write( key + " = True," );
+          write( key, " = True,", "", "" );
         }
         else if ( Boolean.FALSE == value )
         {
-          write( key + " = False," );
+          write( key, " = False,", "", "" );
         }
         else if ( value instanceof List )
         {
           final List<?> arg = (List<?>) value;
           if ( arg.isEmpty() )
           {
-            write( key + " = []," );
+            write( key, " = [],", "", "" );
           }
           else if ( 1 == arg.size() )
           {
-            write( key + " = [" + arg.get( 0 ) + "]," );
+            write( key, " = [", String.valueOf( arg.get( 0 ) ), "]," );
           }
           else
           {
-            write( key + " = [" );
+            write( key, " = [", "", "" );
             incIndent();
             for ( final Object innerValue : arg )
             {
-              write( innerValue + "," );
+              write( String.valueOf( innerValue ), ",", "", "" );
             }
             decIndent();
             write( "]," );
@@ -161,7 +383,7 @@ public final class StarlarkOutput
         }
         else
         {
-          write( key + " = " + value + "," );
+          write( key, " = ", String.valueOf( value ), "," );
         }
       }
       decIndent();
@@ -169,6 +391,94 @@ public final class StarlarkOutput
     }
   }
 
+  private void writeTableEntry( @Nonnull final String functionName,
+                                @Nonnull final LinkedHashMap<String, Object> arguments )
+    throws IOException
+  {
+    emitIndent();
+    emit( "(" );
+    emit( functionName );
+    emit( ", {" );
+    boolean first = true;
+    for ( final Map.Entry<String, Object> entry : arguments.entrySet() )
+    {
+      if ( !first )
+      {
+        emit( ", " );
+      }
+      first = false;
+      emit( "\"" );
+      emit( entry.getKey() );
+      emit( "\": " );
+      emitTableValue( entry.getValue() );
+    }
+    emit( "})," );
+    endLine();
+  }
+
+  /**
+   * Write a row of a data table on a single line as a tuple of the values, i.e. <code>("x", ["y"], None),</code>.
+   * The values are formatted as in {@link #writeCall(String, LinkedHashMap)} and the rows are intended to be
+   * written within a list literal and expanded by iterating over the list.
+   *
+   * @param values the values of the row.
+   * @throws IOException if there is an error writing the row.
+   */
+  public void writeTableRow( @Nonnull final List<?> values )
+    throws IOException
+  {
+    emitIndent();
+    emit( "(" );
+    boolean first = true;
+    for ( final Object value : values )
+    {
+      if ( !first )
+      {
+        emit( ", " );
+      }
+      first = false;
+      emitTableValue( value );
+    }
+    emit( ")," );
+    endLine();
+  }
+
+  private void emitTableValue( @Nullable final Object value )
+    throws IOException
+  {
+    if ( null == value )
+    {
+      emit( "None" );
+    }
+    else if ( Boolean.TRUE == value )
+    {
+      emit( "True" );
+    }
+    else if ( Boolean.FALSE == value )
+    {
+      emit( "False" );
+    }
+    else if ( value instanceof List )
+    {
+      emit( "[" );
+      boolean first = true;
+      for ( final Object element : (List<?>) value )
+      {
+        if ( !first )
+        {
+          emit( ", " );
+        }
+        first = false;
+        emit( String.valueOf( element ) );
+      }
+      emit( "]" );
+    }
+    else
+    {
+      emit( String.valueOf( value ) );
+    }
+  }
+
   public void incIndent()
   {
     _indent++;
@@ -180,16 +490,144 @@ public final class StarlarkOutput
     assert _indent >= 0;
   }
 
+  /**
+   * Complete the output and replace the file with the output if the content differs from the existing content.
+   * This must be invoked once the output has been rendered successfully when writing to a file. A file output
+   * that is closed without being committed discards the output and retains the existing file.
+   *
+   * @throws IOException if there is an error writing the output or replacing the file.
+   */
+  public void commit()
+    throws IOException
+  {
+    assert null != _file && null != _tmpFile;
+    try
+    {
+      try
+      {
+        drain();
+      }
+      finally
+      {
+        _outputStream.close();
+      }
+      replaceIfChanged( _file, _tmpFile );
+      _committed = true;
+    }
+    finally
+    {
+      Files.deleteIfExists( _tmpFile );
+    }
+  }
+
   @Override
   public void close()
     throws IOException
   {
-    _outputStream.close();
+    if ( null == _tmpFile )
+    {
+      try
+      {
+        drain();
+      }
+      finally
+      {
+        _outputStream.close();
+      }
+      _changed = true;
+    }
+    else if ( !_committed )
+    {
+      // The output is incomplete, most likely due to an error while rendering, so the existing file is retained
+      try
+      {
+        _outputStream.close();
+      }
+      finally
+      {
+        Files.deleteIfExists( _tmpFile );
+      }
+    }
+  }
+
+  private void replaceIfChanged( @Nonnull final Path file, @Nonnull final Path tmpFile )
+    throws IOException
+  {
+    if ( Files.exists( file ) &&
+         Files.size( file ) == Files.size( tmpFile ) &&
+         HashUtil.sha256( file ).equals( HashUtil.sha256( tmpFile ) ) )
+    {
+      _changed = false;
+    }
+    else
+    {
+      try
+      {
+        Files.move( tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+      }
+      catch ( final AtomicMoveNotSupportedException ignored )
+      {
+        Files.move( tmpFile, file, StandardCopyOption.REPLACE_EXISTING );
+      }
+      _changed = true;
+    }
   }
 
+  private void emitIndent()
+    throws IOException
+  {
+    int remaining = _indent * INDENT_SIZE;
+    while ( remaining > 0 )
+    {
+      if ( _position == _buffer.length )
+      {
+        drain();
+      }
+      final int count = Math.min( remaining, _buffer.length - _position );
+      Arrays.fill( _buffer, _position, _position + count, (byte) ' ' );
+      _position += count;
+      remaining -= count;
+    }
+  }
+
+  /**
+   * Encode the string into the buffer.
+   * The encoding matches {@link String#getBytes(java.nio.charset.Charset)} with the US-ASCII charset,
+   * i.e. characters outside the charset, including surrogate pairs, are replaced by a single '?'.
+   */
   private void emit( @Nonnull final String string )
     throws IOException
   {
-    _outputStream.write( string.getBytes( StandardCharsets.US_ASCII ) );
+    final int length = string.length();
+    for ( int i = 0; i < length; i++ )
+    {
+      if ( _position == _buffer.length )
+      {
+        drain();
+      }
+      final char ch = string.charAt( i );
+      if ( ch < 0x80 )
+      {
+        _buffer[ _position++ ] = (byte) ch;
+      }
+      else
+      {
+        _buffer[ _position++ ] = '?';
+        if ( Character.isHighSurrogate( ch ) && i + 1 < length && Character.isLowSurrogate( string.charAt( i + 1 ) ) )
+        {
+          i++;
+        }
+      }
+    }
+  }
+
+  private void drain()
+    throws IOException
+  {
+    if ( _position > 0 )
+    {
+      _outputStream.write( _buffer, 0, _position );
+      _position = 0;
+    }
   }
 }
@@ -31,6 +31,7 @@ import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.record.ApplicationRecord;
 import org.realityforge.bazel.depgen.record.ArtifactRecord;
 import org.realityforge.bazel.depgen.util.ArtifactUtil;
+import org.realityforge.bazel.depgen.util.CachedBazelInfoProvider;
 import org.testng.Assert;
 import org.testng.IHookCallBack;
 import org.testng.IHookable;
@@ -48,6 +49,8 @@ public abstract class AbstractTest
     {
       Gir.go( () -> FileUtil.inTempDir( () -> {
         writeBazelrc();
+        // Memoize bazel info in the temp dir rather than the cache of the user
+        System.setProperty( CachedBazelInfoProvider.CACHE_DIR_PROPERTY, FileUtil.createLocalTempDir().toString() );
         callBack.runTestMethod( testResult );
       } ) );
     }
@@ -58,6 +61,7 @@ public abstract class AbstractTest
     finally
     {
       System.getProperties().remove( DepGenConfig.PROPERTY_KEY );
+      System.getProperties().remove( CachedBazelInfoProvider.CACHE_DIR_PROPERTY );
     }
   }
 
@@ -0,0 +1,156 @@
+package org.realityforge.bazel.depgen;
+
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.DependencyCollectionContext;
+import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.Exclusion;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class ApplicationDependencySelectorTest
+  extends AbstractTest
+{
+  @Test
+  public void selectDependency()
+    throws Exception
+  {
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "excludes:\n" +
+                     "  - coord: com.example:blib\n" );
+    final ApplicationDependencySelector selector = ApplicationDependencySelector.create( loadApplicationModel() );
+
+    assertTrue( selector.selectDependency( dependency( "com.example:alib:1.0", "compile", false ) ) );
+    assertTrue( selector.selectDependency( dependency( "com.example:alib:1.0", "runtime", false ) ) );
+    assertTrue( selector.selectDependency( dependency( "com.example:alib:1.0", "", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.example:alib:1.0", "test", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.example:alib:1.0", "provided", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.example:blib:1.0", "compile", false ) ) );
+  }
+
+  @Test
+  public void selectDependency_wildcardGlobalExclude()
+    throws Exception
+  {
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "excludes:\n" +
+                     "  - coord: com.excluded:*\n" +
+                     "  - coord: \"*:blib\"\n" );
+    final ApplicationDependencySelector selector = ApplicationDependencySelector.create( loadApplicationModel() );
+
+    assertTrue( selector.selectDependency( dependency( "com.example:alib:1.0", "compile", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.excluded:alib:1.0", "compile", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.excluded:other:1.0", "compile", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "com.example:blib:1.0", "compile", false ) ) );
+    assertFalse( selector.selectDependency( dependency( "org.other:blib:1.0", "compile", false ) ) );
+
+    // Exclusions covered by a wildcard global exclude do not derive a new selector
+    final Dependency covered =
+      dependency( "com.example:myapp:1.0", "compile", false )
+        .setExclusions( Collections.singletonList( new Exclusion( "com.excluded", "clib", "*", "*" ) ) );
+    assertSame( selector.deriveChildSelector( context( covered ) ), selector );
+
+    // Exclusions that are broader than the wildcard global exclude are inherited
+    final Dependency broader =
+      dependency( "com.example:myapp:1.0", "compile", false )
+        .setExclusions( Collections.singletonList( new Exclusion( "*", "clib", "*", "*" ) ) );
+    final DependencySelector child = selector.deriveChildSelector( context( broader ) );
+    assertNotSame( child, selector );
+    assertFalse( child.selectDependency( dependency( "com.example:clib:1.0", "compile", false ) ) );
+  }
+
+  @Test
+  public void deriveChildSelector()
+    throws Exception
+  {
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "  - coord: com.example:mylib:1.0\n" +
+                     "    includeOptional: true\n" +
+                     "replacements:\n" +
+                     "  - coord: com.example:alib\n" +
+                     "    targets:\n" +
+                     "      - target: \"@com_example//:alib\"\n" +
+                     "excludes:\n" +
+                     "  - coord: com.example:blib\n" );
+    final ApplicationDependencySelector selector = ApplicationDependencySelector.create( loadApplicationModel() );
+
+    assertSame( selector.deriveChildSelector( context( null ) ), selector );
+    assertSame( selector.deriveChildSelector( context( dependency( "com.example:myapp:1.0", "compile", false ) ) ),
+                selector );
+
+    // Children of replacements are never selected
+    assertSame( selector.deriveChildSelector( context( dependency( "com.example:alib:1.0", "compile", false ) ) ),
+                RejectDependencySelector.INSTANCE );
+
+    // Children of optional dependencies are only selected if includeOptional is specified
+    assertSame( selector.deriveChildSelector( context( dependency( "com.example:other:1.0", "compile", true ) ) ),
+                RejectDependencySelector.INSTANCE );
+    assertSame( selector.deriveChildSelector( context( dependency( "com.example:mylib:1.0", "compile", true ) ) ),
+                selector );
+
+    // Exclusions are inherited by the children
+    final Exclusion exclusion = new Exclusion( "com.example", "clib", "*", "*" );
+    final Dependency dependency =
+      dependency( "com.example:myapp:1.0", "compile", false ).setExclusions( Collections.singletonList( exclusion ) );
+    final DependencySelector child = selector.deriveChildSelector( context( dependency ) );
+    assertNotSame( child, selector );
+    assertEquals( child, selector.deriveChildSelector( context( dependency ) ) );
+    assertFalse( child.selectDependency( dependency( "com.example:clib:1.0", "compile", false ) ) );
+    assertFalse( child.selectDependency( dependency( "com.example:blib:1.0", "compile", false ) ) );
+    assertTrue( child.selectDependency( dependency( "com.example:dlib:1.0", "compile", false ) ) );
+    assertTrue( selector.selectDependency( dependency( "com.example:clib:1.0", "compile", false ) ) );
+
+    // Exclusions that are already applied do not derive a new selector
+    assertSame( child.deriveChildSelector( context( dependency ) ), child );
+    final Dependency globallyExcluded =
+      dependency( "com.example:myapp:1.0", "compile", false )
+        .setExclusions( Collections.singletonList( new Exclusion( "com.example", "blib", "*", "*" ) ) );
+    assertSame( selector.deriveChildSelector( context( globallyExcluded ) ), selector );
+  }
+
+  @Nonnull
+  private Dependency dependency( @Nonnull final String coords, @Nonnull final String scope, final boolean optional )
+  {
+    return new Dependency( new DefaultArtifact( coords ), scope, optional );
+  }
+
+  @Nonnull
+  private DependencyCollectionContext context( @Nullable final Dependency dependency )
+  {
+    return new DependencyCollectionContext()
+    {
+      @Override
+      public RepositorySystemSession getSession()
+      {
+        return null;
+      }
+
+      @Override
+      public Artifact getArtifact()
+      {
+        return null == dependency ? null : dependency.getArtifact();
+      }
+
+      @Override
+      public Dependency getDependency()
+      {
+        return dependency;
+      }
+
+      @Override
+      public List<Dependency> getManagedDependencies()
+      {
+        return Collections.emptyList();
+      }
+    };
+  }
+}
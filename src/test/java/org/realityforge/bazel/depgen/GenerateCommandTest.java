@@ -9,6 +9,7 @@ import java.util.HashSet;
 import javax.annotation.Nonnull;
 import org.realityforge.bazel.depgen.model.ApplicationModel;
 import org.realityforge.bazel.depgen.record.ApplicationRecord;
+import org.realityforge.bazel.depgen.util.HashUtil;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
@@ -105,8 +106,9 @@ public class GenerateCommandTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -241,8 +243,9 @@ public class GenerateCommandTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -290,6 +293,106 @@ public class GenerateCommandTest
                   "    )\n" );
   }
 
+  @Test
+  public void generate_skippedWhenUpToDate()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeWorkspace();
+    writeConfigFile( dir,
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final GenerateCommand command = new GenerateCommand();
+    final Environment initialEnvironment = newEnvironment();
+    assertEquals( command.run( new CommandContextImpl( initialEnvironment ) ), ExitCodes.SUCCESS_EXIT_CODE );
+
+    final Path extensionFile = FileUtil.getCurrentDirectory().resolve( "thirdparty/dependencies.bzl" );
+    final Path fingerprintFile = GenerateCommand.getFingerprintFile( initialEnvironment, extensionFile );
+    assertNotNull( fingerprintFile );
+    assertTrue( fingerprintFile.startsWith( initialEnvironment.getCacheDir() ) );
+    assertTrue( Files.exists( fingerprintFile ) );
+    assertFalse( Files.exists( extensionFile.resolveSibling( "dependencies.bzl.fingerprint" ) ) );
+    final String extension = loadAsString( extensionFile );
+
+    final Environment environment = newEnvironment();
+    environment.setCacheDir( initialEnvironment.getCacheDir() );
+    environment.setRepositoryCacheDir( initialEnvironment.getRepositoryCacheDir() );
+    final Command.Context context = new Command.Context()
+    {
+      @Nonnull
+      @Override
+      public Environment environment()
+      {
+        return environment;
+      }
+
+      @Nonnull
+      @Override
+      public ApplicationModel loadModel()
+      {
+        return Main.loadModel( environment );
+      }
+
+      @Nonnull
+      @Override
+      public ApplicationRecord loadRecord()
+      {
+        fail( "Record loaded when extension is up to date" );
+        return null;
+      }
+    };
+
+    // Inputs and outputs unchanged so generation is skipped
+    assertEquals( command.run( context ), ExitCodes.SUCCESS_EXIT_CODE );
+    assertEquals( loadAsString( extensionFile ), extension );
+
+    // Extension modified so it is regenerated
+    FileUtil.write( extensionFile, "" );
+    final Environment modifiedEnvironment = newEnvironment();
+    modifiedEnvironment.setCacheDir( initialEnvironment.getCacheDir() );
+    modifiedEnvironment.setRepositoryCacheDir( initialEnvironment.getRepositoryCacheDir() );
+    assertEquals( command.run( new CommandContextImpl( modifiedEnvironment ) ), ExitCodes.SUCCESS_EXIT_CODE );
+    assertEquals( loadAsString( extensionFile ), extension );
+
+    // Repository cache does not contain the artifacts so the artifacts are installed
+    final Environment otherEnvironment = newEnvironment();
+    otherEnvironment.setCacheDir( initialEnvironment.getCacheDir() );
+    final String sha256 = HashUtil.sha256( dir.resolve( "com/example/myapp/1.0/myapp-1.0.jar" ) );
+    assertFalse( Files.exists( RepositoryCache.getFile( otherEnvironment.getRepositoryCacheDir(), sha256 ) ) );
+    assertEquals( command.run( new CommandContextImpl( otherEnvironment ) ), ExitCodes.SUCCESS_EXIT_CODE );
+    assertTrue( Files.exists( RepositoryCache.getFile( otherEnvironment.getRepositoryCacheDir(), sha256 ) ) );
+    assertEquals( loadAsString( extensionFile ), extension );
+  }
+
+  @Test
+  public void generate_transitiveVersionRangeNotFingerprinted()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeWorkspace();
+    writeConfigFile( dir,
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0", "com.example:mylib:[1.0,2.0)" );
+    deployArtifactToLocalRepository( dir, "com.example:mylib:1.0" );
+
+    final Environment environment = newEnvironment();
+    assertEquals( new GenerateCommand().run( new CommandContextImpl( environment ) ), ExitCodes.SUCCESS_EXIT_CODE );
+
+    // The range may resolve to a different version on the next run so the extension is always regenerated
+    final Path extensionFile = FileUtil.getCurrentDirectory().resolve( "thirdparty/dependencies.bzl" );
+    assertTrue( Files.exists( extensionFile ) );
+    final Path fingerprintFile = GenerateCommand.getFingerprintFile( environment, extensionFile );
+    assertNotNull( fingerprintFile );
+    assertFalse( Files.exists( fingerprintFile ) );
+  }
+
   @Test
   public void generate_directoryIsAFile()
     throws Exception
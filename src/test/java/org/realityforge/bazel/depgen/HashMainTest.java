@@ -0,0 +1,70 @@
+package org.realityforge.bazel.depgen;
+
+import gir.io.FileUtil;
+import java.nio.file.Path;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public class HashMainTest
+  extends AbstractTest
+{
+  private static final String SHA256 = "0A8DBED4B09238126BA5E065EB4E392A1B631FA1A20FCA9AE1DF5AA364F59C96";
+
+  @Test
+  public void run()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+
+    final Path dir = FileUtil.getCurrentDirectory();
+    assertEquals( HashMain.run( dir, "hash" ), (Integer) ExitCodes.SUCCESS_EXIT_CODE );
+    assertEquals( HashMain.run( dir, "--verbose", "hash", "--verify-sha256", SHA256 ),
+                  (Integer) ExitCodes.SUCCESS_EXIT_CODE );
+    assertEquals( HashMain.run( dir,
+                                "--config-file",
+                                "thirdparty/dependencies.yml",
+                                "--quiet",
+                                "hash",
+                                "--verify-sha256",
+                                SHA256 ),
+                  (Integer) ExitCodes.SUCCESS_EXIT_CODE );
+  }
+
+  @Test
+  public void run_delegatesToMain()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+
+    final Path dir = FileUtil.getCurrentDirectory();
+    // The hash does not match
+    assertNull( HashMain.run( dir, "hash", "--verify-sha256", "XXXX" ) );
+    // The config file does not exist
+    assertNull( HashMain.run( dir, "--config-file", "missing.yml", "hash" ) );
+    // Arguments not supported by the minimal entry point
+    assertNull( HashMain.run( dir, "--settings-file", "settings.xml", "hash" ) );
+    assertNull( HashMain.run( dir, "hash", "--help" ) );
+    assertNull( HashMain.run( dir, "generate" ) );
+    assertNull( HashMain.run( dir ) );
+  }
+
+  @Test
+  public void run_matchesHashCommand()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "options:\n" +
+                     "  extensionFile: workspace.bzl\n" +
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    excludes: ['org.realityforge.javax.annotation:javax.annotation']\n" );
+
+    final String configSha256 = loadApplicationModel().getConfigSha256();
+    assertEquals( HashMain.run( FileUtil.getCurrentDirectory(), "hash", "--verify-sha256", configSha256 ),
+                  (Integer) ExitCodes.SUCCESS_EXIT_CODE );
+  }
+}
@@ -23,6 +23,8 @@ public class InfoCommandTest
     assertOutputContains( output, "settings-file=" + environment.getSettingsFile() + "\n" );
     assertOutputContains( output, "cache-directory=" + environment.getCacheDir() + "\n" );
     assertOutputContains( output, "reset-cached-metadata=false\n" );
+    assertOutputContains( output, "metadata-index=false\n" );
+    assertOutputContains( output, "offline=false\n" );
     assertOutputContains( output, "bazel-repository-cache=" );
   }
 
@@ -1,7 +1,7 @@
 package org.realityforge.bazel.depgen;
 
 import gir.io.FileUtil;
-import java.io.File;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -44,6 +44,9 @@ public class MainTest
                   "\t\thash: Generate a hash of the content of the dependency configuration.\n" +
                   "\t\tinit: Initialize an empty dependency configuration and workspace infrastructure.\n" +
                   "\t\tinfo: Print runtime info about the tool.\n" +
+                  "\t\tserver: Run a server that runs the generate, print-graph and hash commands on " +
+                  "behalf of clients that specify the --server-socket option.\n" +
+                  "\t\ttrain-cds: Create a class data sharing archive that reduces the startup time of the tool.\n" +
                   "\tOptions:\n" +
                   "\t--version\n" +
                   "\t\tprint the version and exit\n" +
@@ -66,7 +69,17 @@ public class MainTest
                   "\t\temote repositories. Defaults to \"$(bazel info output_base)/.\n" +
                   "\t\tdepgen-cache\".\n" +
                   "\t--reset-cached-metadata\n" +
-                  "\t\tRecalculate metadata about an artifact." );
+                  "\t\tRecalculate metadata about an artifact.\n" +
+                  "\t--metadata-index\n" +
+                  "\t\tStore artifact metadata in an index in the cache directory.\n" +
+                  "\t--server-socket <argument>\n" +
+                  "\t\tThe path to the socket of a server started via the server co\n" +
+                  "\t\tmmand. The generate, print-graph and hash commands are run b\n" +
+                  "\t\ty the server if specified.\n" +
+                  "\t--offline\n" +
+                  "\t\tResolve artifacts and metadata from the cache directory with\n" +
+                  "\t\tout accessing the network. The command fails if anything req\n" +
+                  "\t\tuired is missing from the cache." );
   }
 
   @Test
@@ -388,6 +401,48 @@ public class MainTest
     assertTrue( environment.shouldResetCachedMetadata() );
   }
 
+  @Test
+  public void processOptions_metadata_index()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "" );
+
+    final TestHandler handler = new TestHandler();
+    final Environment environment = newEnvironment( handler );
+    assertFalse( environment.useMetadataIndex() );
+    assertTrue( Main.processOptions( environment, "--metadata-index", "generate" ) );
+    assertTrue( environment.useMetadataIndex() );
+  }
+
+  @Test
+  public void processOptions_offline()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "" );
+
+    final TestHandler handler = new TestHandler();
+    final Environment environment = newEnvironment( handler );
+    assertFalse( environment.isOffline() );
+    assertTrue( Main.processOptions( environment, "--offline", "generate" ) );
+    assertTrue( environment.isOffline() );
+    assertTrue( Main.loadModel( environment ).isOffline() );
+  }
+
+  @Test
+  public void processOptions_offline_resetCachedMetadata()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "" );
+
+    final TestHandler handler = new TestHandler();
+    final Environment environment = newEnvironment( handler );
+    assertFalse( Main.processOptions( environment, "--offline", "--reset-cached-metadata", "generate" ) );
+    assertFalse( handler.toString().isEmpty() );
+  }
+
   @Test
   public void loadConfigFile()
     throws Exception
@@ -486,8 +541,30 @@ public class MainTest
                      "  - coord: com.example:myapp:1.0\n" );
     deployArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
 
-    final ApplicationRecord record = Main.loadRecord( newEnvironment() );
+    final Environment environment = newEnvironment();
+    final ApplicationRecord record = Main.loadRecord( environment );
     assertNonSystemArtifactCount( record, 1 );
+    assertFalse( environment.isSessionCacheStale() );
+  }
+
+  @Test
+  public void loadRecord_versionRange()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeWorkspace();
+    writeConfigFile( dir,
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0", "com.example:mylib:[1.0,2.0)" );
+    deployArtifactToLocalRepository( dir, "com.example:mylib:1.0" );
+
+    final Environment environment = newEnvironment();
+    final ApplicationRecord record = Main.loadRecord( environment );
+    assertNonSystemArtifactCount( record, 2 );
+    // The resolution of the version range must not be shared with subsequent commands run by a server
+    assertTrue( environment.isSessionCacheStale() );
   }
 
   @Test
@@ -649,99 +726,6 @@ public class MainTest
     assertFalse( logger.getUseParentHandlers() );
   }
 
-  @Test
-  public void cacheRepositoryFile()
-    throws Exception
-  {
-    writeWorkspace();
-    writeConfigFile( "" );
-
-    final Path cacheDir = FileUtil.createLocalTempDir();
-    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
-    final byte[] content = { 1, 2, 3, 4 };
-    Files.write( file, content );
-
-    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
-
-    final Path targetFile =
-      cacheDir.resolve( "content_addressable" ).resolve( "sha256" ).resolve( sha256 ).resolve( "file" );
-
-    final TestHandler handler = new TestHandler();
-
-    assertFalse( Files.exists( targetFile ) );
-
-    Main.cacheRepositoryFile( createLogger( handler ), cacheDir, "myartifact", file.toFile(), sha256 );
-    assertEquals( handler.toString(), "Installed artifact 'myartifact' into repository cache." );
-
-    assertTrue( Files.exists( targetFile ) );
-    assertEquals( Files.readAllBytes( targetFile ), content );
-  }
-
-  @Test
-  public void cacheRepositoryFile_alreadyExists()
-    throws Exception
-  {
-    // Writing cacheContent into cache that differs from actual content so we can tell if it has been updated
-    writeWorkspace();
-    writeConfigFile( "" );
-
-    final Path cacheDir = FileUtil.createLocalTempDir();
-    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
-
-    Files.write( file, new byte[]{ 1, 2, 3, 4 } );
-
-    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
-
-    final Path targetFile =
-      cacheDir.resolve( "content_addressable" ).resolve( "sha256" ).resolve( sha256 ).resolve( "file" );
-
-    // Writing cacheContent into cache that differs from actual content so we can tell if it has been updated
-    final byte[] cacheContent = { 1, 2, 3, 4, 0 };
-    Files.createDirectories( targetFile.getParent() );
-    Files.write( targetFile, cacheContent );
-
-    final TestHandler handler = new TestHandler();
-
-    assertTrue( Files.exists( targetFile ) );
-
-    Main.cacheRepositoryFile( createLogger( handler ), cacheDir, "myartifact", file.toFile(), sha256 );
-    assertEquals( handler.toString(), "" );
-
-    assertTrue( Files.exists( targetFile ) );
-    assertEquals( Files.readAllBytes( targetFile ), cacheContent );
-  }
-
-  @Test
-  public void cacheRepositoryFile_FailedToWrite()
-    throws Exception
-  {
-    writeWorkspace();
-    writeConfigFile( "" );
-
-    final Path cacheDir = FileUtil.createLocalTempDir();
-    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
-    final byte[] content = { 1, 2, 3, 4 };
-    Files.write( file, content );
-
-    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
-
-    final Path targetFile =
-      cacheDir.resolve( "content_addressable" ).resolve( "sha256" ).resolve( sha256 ).resolve( "file" );
-
-    final File dir = targetFile.getParent().toFile();
-    assertTrue( dir.mkdirs() );
-    assertTrue( dir.setWritable( false ) );
-
-    final TestHandler handler = new TestHandler();
-
-    assertFalse( Files.exists( targetFile ) );
-
-    Main.cacheRepositoryFile( createLogger( handler ), cacheDir, "myartifact", file.toFile(), sha256 );
-    assertEquals( handler.toString(), "Failed to cache artifact 'myartifact' in repository cache." );
-
-    assertFalse( Files.exists( targetFile ) );
-  }
-
   @Test
   public void cacheArtifactsInRepositoryCache()
     throws Exception
@@ -768,8 +752,8 @@ public class MainTest
     assertNotNull( sourceSha256 );
 
     final Path cacheBase = repositoryCacheDir.resolve( "content_addressable" ).resolve( "sha256" );
-    final Path targetFile = cacheBase.resolve( sha256 ).resolve( "file" );
-    final Path sourceTargetFile = cacheBase.resolve( sourceSha256 ).resolve( "file" );
+    final Path targetFile = cacheBase.resolve( sha256.toLowerCase() ).resolve( "file" );
+    final Path sourceTargetFile = cacheBase.resolve( sourceSha256.toLowerCase() ).resolve( "file" );
 
     final TestHandler handler = new TestHandler();
 
@@ -811,7 +795,7 @@ public class MainTest
     assertNull( artifactRecord.getSourceSha256() );
 
     final Path cacheBase = repositoryCacheDir.resolve( "content_addressable" ).resolve( "sha256" );
-    final Path targetFile = cacheBase.resolve( sha256 ).resolve( "file" );
+    final Path targetFile = cacheBase.resolve( sha256.toLowerCase() ).resolve( "file" );
 
     final TestHandler handler = new TestHandler();
 
@@ -853,8 +837,8 @@ public class MainTest
     assertNotNull( file2Sha256 );
 
     final Path cacheBase = repositoryCacheDir.resolve( "content_addressable" ).resolve( "sha256" );
-    final Path targetFile1 = cacheBase.resolve( file1Sha256 ).resolve( "file" );
-    final Path targetFile2 = cacheBase.resolve( file2Sha256 ).resolve( "file" );
+    final Path targetFile1 = cacheBase.resolve( file1Sha256.toLowerCase() ).resolve( "file" );
+    final Path targetFile2 = cacheBase.resolve( file2Sha256.toLowerCase() ).resolve( "file" );
 
     final TestHandler handler = new TestHandler();
 
@@ -873,6 +857,58 @@ public class MainTest
     assertTrue( Files.exists( targetFile2 ) );
   }
 
+  @Test
+  public void cacheArtifactsInRepositoryCache_externalAnnotations()
+    throws Exception
+  {
+    final Path repositoryCacheDir = FileUtil.createLocalTempDir();
+    writeBazelrc( repositoryCacheDir );
+    FileUtil.write( "WORKSPACE", "" );
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeConfigFile( dir,
+                     "options:\n" +
+                     "  includeExternalAnnotations: true\n" +
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    includeSource: false\n" );
+    final Path jarFile1 = createJarFile( ValueUtil.randomString() + ".jar", ValueUtil.randomString() );
+    final Path jarFile2 = createJarFile( ValueUtil.randomString() + ".jar", ValueUtil.randomString() );
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:jar:annotations:1.0", jarFile1 );
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:1.0", jarFile2 );
+
+    final ApplicationRecord record = loadApplicationRecord();
+
+    final ArtifactRecord artifactRecord = record.getArtifacts().get( 0 );
+    final String sha256 = artifactRecord.getSha256();
+    assertNotNull( sha256 );
+    final String annotationSha256 = artifactRecord.getExternalAnnotationSha256();
+    assertNotNull( annotationSha256 );
+
+    final Path cacheBase = repositoryCacheDir.resolve( "content_addressable" ).resolve( "sha256" );
+    final Path targetFile = cacheBase.resolve( sha256.toLowerCase() ).resolve( "file" );
+    final Path annotationTargetFile = cacheBase.resolve( annotationSha256.toLowerCase() ).resolve( "file" );
+
+    final TestHandler handler = new TestHandler();
+    final Environment environment = newEnvironment( handler );
+    environment.setRepositoryCacheDir( repositoryCacheDir );
+    Main.cacheArtifactsInRepositoryCache( environment, record );
+    final String output = handler.toString();
+    assertOutputContains( output, "Installed artifact 'com.example:myapp:jar:1.0' into repository cache." );
+    assertOutputContains( output,
+                          "Installed artifact 'com.example:myapp:jar:annotations:1.0' into repository cache." );
+
+    assertTrue( Files.exists( targetFile ) );
+    assertEquals( Files.readAllBytes( annotationTargetFile ), Files.readAllBytes( jarFile1 ) );
+
+    // Files already present in the repository cache are not installed again
+    final TestHandler handler2 = new TestHandler();
+    final Environment environment2 = newEnvironment( handler2 );
+    environment2.setRepositoryCacheDir( repositoryCacheDir );
+    Main.cacheArtifactsInRepositoryCache( environment2, record );
+    assertEquals( handler2.toString(), "" );
+  }
+
   @Test
   public void run_validDependencySpec()
     throws Exception
@@ -902,6 +938,97 @@ public class MainTest
     assertEquals( output, "Content SHA256: 2DDCEE0CE8D16EE57C89A175877115495555796D3C1598EB32DC7652CA37204A" );
   }
 
+  @Test
+  public void run_hash_viaServer()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    excludes: ['org.realityforge.javax.annotation:javax.annotation']\n" );
+    final TestHandler serverHandler = new TestHandler();
+    final DepgenServer server =
+      new DepgenServer( FileUtil.getCurrentDirectory().resolve( "depgen.sock" ), createLogger( serverHandler ) );
+    final ServerSocketChannel channel = server.bind();
+    final Thread thread = new Thread( () -> server.serve( channel ) );
+    thread.start();
+    try
+    {
+      // The arguments are resolved relative to the directory of the client
+      final String output = runCommand( "--server-socket", "depgen.sock", "hash" );
+      assertEquals( output, "Content SHA256: 2DDCEE0CE8D16EE57C89A175877115495555796D3C1598EB32DC7652CA37204A" );
+
+      final String output2 =
+        runCommand( ExitCodes.ERROR_BAD_SHA256_CONFIG_CODE,
+                    "--server-socket", "depgen.sock", "--quiet", "hash", "--verify-sha256", "X" );
+      assertEquals( output2,
+                    "Content SHA256: 2DDCEE0CE8D16EE57C89A175877115495555796D3C1598EB32DC7652CA37204A " +
+                    "(Expected X)\n" +
+                    "Depgen generated extension file 'thirdparty/dependencies.bzl' is out of date with " +
+                    "the configuration file 'thirdparty/dependencies.yml.\n" +
+                    "Please run command 'bazel run //thirdparty:regenerate_depgen_extension' to update the extension." );
+    }
+    finally
+    {
+      channel.close();
+      thread.join();
+    }
+    final String runningMessage = "Running command hash in " + FileUtil.getCurrentDirectory();
+    assertEquals( serverHandler.toString(), runningMessage + "\n" + runningMessage );
+  }
+
+  @Test
+  public void run_viaServer_optionsProcessedByServer()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    excludes: ['org.realityforge.javax.annotation:javax.annotation']\n" );
+    final DepgenServer server =
+      new DepgenServer( FileUtil.getCurrentDirectory().resolve( "depgen.sock" ), createLogger( new TestHandler() ) );
+    final ServerSocketChannel channel = server.bind();
+    final Thread thread = new Thread( () -> server.serve( channel ) );
+    thread.start();
+    try
+    {
+      final TestHandler handler = new TestHandler();
+      final Environment environment =
+        new Environment( null, FileUtil.getCurrentDirectory(), createLogger( handler ) );
+      assertEquals( Main.run( environment, "--server-socket", "depgen.sock", "--verbose", "hash" ),
+                    ExitCodes.SUCCESS_EXIT_CODE );
+      assertTrue( handler.toString()
+                    .contains( "Content SHA256: 2DDCEE0CE8D16EE57C89A175877115495555796D3C1598EB32DC7652CA37204A" ) );
+
+      // The client only parses the arguments required to forward the command to the server
+      assertEquals( environment.logger().getLevel(), Level.ALL );
+      assertFalse( environment.hasCommand() );
+      assertFalse( environment.hasConfigFile() );
+      assertFalse( environment.hasSettingsFile() );
+      assertFalse( environment.hasCacheDir() );
+    }
+    finally
+    {
+      channel.close();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void run_hash_serverNotRunning()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    excludes: ['org.realityforge.javax.annotation:javax.annotation']\n" );
+    final String output = runCommand( "--server-socket", "depgen.sock", "hash" );
+    assertEquals( output,
+                  "Unable to run command via the server at " +
+                  FileUtil.getCurrentDirectory().resolve( "depgen.sock" ) + ". Running command locally.\n" +
+                  "Content SHA256: 2DDCEE0CE8D16EE57C89A175877115495555796D3C1598EB32DC7652CA37204A" );
+  }
+
   @Test
   public void run_invalidDependencySpec()
     throws Exception
@@ -0,0 +1,91 @@
+package org.realityforge.bazel.depgen;
+
+import gir.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class RepositoryCacheTest
+  extends AbstractTest
+{
+  @Test
+  public void install()
+    throws Exception
+  {
+    final Path repositoryCacheDir = FileUtil.createLocalTempDir();
+    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
+    final byte[] content = { 1, 2, 3, 4 };
+    Files.write( file, content );
+
+    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
+    final Path targetFile = RepositoryCache.getFile( repositoryCacheDir, sha256 );
+    assertEquals( targetFile,
+                  repositoryCacheDir
+                    .resolve( "content_addressable" )
+                    .resolve( "sha256" )
+                    .resolve( "9f64a747e1b97f131fabb6b447296c9b6f0201e79fb3c5356e6c77e89b6a806a" )
+                    .resolve( "file" ) );
+
+    final RepositoryCache repositoryCache = RepositoryCache.open( repositoryCacheDir );
+    assertFalse( repositoryCache.isInstalled( sha256 ) );
+
+    assertTrue( repositoryCache.install( file, sha256 ) );
+    assertEquals( Files.readAllBytes( targetFile ), content );
+    // The file is installed via a hard link when the file and the cache are on the same filesystem
+    assertTrue( Files.isSameFile( targetFile, file ) );
+
+    // Installing a file that is already present leaves the file untouched
+    assertFalse( repositoryCache.install( file, sha256 ) );
+    assertEquals( Files.readAllBytes( targetFile ), content );
+
+    assertTrue( RepositoryCache.open( repositoryCacheDir ).isInstalled( sha256 ) );
+    assertTrue( RepositoryCache.open( repositoryCacheDir ).isInstalled( sha256.toLowerCase() ) );
+  }
+
+  @Test
+  public void install_alreadyExists()
+    throws Exception
+  {
+    final Path repositoryCacheDir = FileUtil.createLocalTempDir();
+    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
+    Files.write( file, new byte[]{ 1, 2, 3, 4 } );
+
+    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
+    final Path targetFile = RepositoryCache.getFile( repositoryCacheDir, sha256 );
+
+    // Writing cacheContent into cache that differs from actual content so we can tell if it has been updated
+    final byte[] cacheContent = { 1, 2, 3, 4, 0 };
+    Files.createDirectories( targetFile.getParent() );
+    Files.write( targetFile, cacheContent );
+
+    final RepositoryCache repositoryCache = RepositoryCache.open( repositoryCacheDir );
+    assertTrue( repositoryCache.isInstalled( sha256 ) );
+
+    assertFalse( repositoryCache.install( file, sha256 ) );
+    assertEquals( Files.readAllBytes( targetFile ), cacheContent );
+  }
+
+  @Test
+  public void install_failedToWrite()
+    throws Exception
+  {
+    final Path repositoryCacheDir = FileUtil.createLocalTempDir();
+    final Path file = FileUtil.createLocalTempDir().resolve( "somefile.txt" );
+    Files.write( file, new byte[]{ 1, 2, 3, 4 } );
+
+    final String sha256 = "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A";
+    final Path targetFile = RepositoryCache.getFile( repositoryCacheDir, sha256 );
+
+    final File dir = targetFile.getParent().toFile();
+    assertTrue( dir.mkdirs() );
+    assertTrue( dir.setWritable( false ) );
+
+    final RepositoryCache repositoryCache = RepositoryCache.open( repositoryCacheDir );
+    expectThrows( IOException.class, () -> repositoryCache.install( file, sha256 ) );
+
+    assertFalse( Files.exists( targetFile ) );
+  }
+}
@@ -0,0 +1,78 @@
+package org.realityforge.bazel.depgen;
+
+import gir.io.FileUtil;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class ResolutionSnapshotTest
+  extends AbstractTest
+{
+  @Nonnull
+  private final Map<String, RemoteRepository> _repositories = Collections.emptyMap();
+
+  @Test
+  public void save_retainsGraphsStoredByOtherResolutions()
+    throws Exception
+  {
+    final Path file = FileUtil.createLocalTempDir().resolve( ResolutionSnapshot.FILENAME );
+
+    // Two resolutions of different configurations that share the cache directory
+    final ResolutionSnapshot snapshot1 = ResolutionSnapshot.load( file );
+    final ResolutionSnapshot snapshot2 = ResolutionSnapshot.load( file );
+    snapshot1.put( "key1", node( "com.example:alib:1.0" ), _repositories );
+    snapshot1.save();
+    snapshot2.put( "key2", node( "com.example:blib:1.0" ), _repositories );
+    snapshot2.save();
+
+    final ResolutionSnapshot snapshot = ResolutionSnapshot.load( file );
+    final DependencyNode node1 = snapshot.get( "key1", _repositories );
+    assertNotNull( node1 );
+    assertEquals( node1.getArtifact().toString(), "com.example:alib:jar:1.0" );
+    final DependencyNode node2 = snapshot.get( "key2", _repositories );
+    assertNotNull( node2 );
+    assertEquals( node2.getArtifact().toString(), "com.example:blib:jar:1.0" );
+  }
+
+  @Test
+  public void save_discardsGraphsNotUsedRecently()
+    throws Exception
+  {
+    final Path file = FileUtil.createLocalTempDir().resolve( ResolutionSnapshot.FILENAME );
+    final long start = System.currentTimeMillis();
+
+    final ResolutionSnapshot snapshot1 = ResolutionSnapshot.load( file );
+    snapshot1.put( "key1", node( "com.example:alib:1.0" ), _repositories );
+    snapshot1.put( "key2", node( "com.example:blib:1.0" ), _repositories );
+    snapshot1.save( start );
+
+    // Only key2 is used by the next resolution
+    final ResolutionSnapshot snapshot2 = ResolutionSnapshot.load( file );
+    assertNotNull( snapshot2.get( "key2", _repositories ) );
+    snapshot2.save( start + ResolutionSnapshot.MAX_UNUSED_AGE );
+
+    // key1 is retained as it has not been unused for longer than the maximum age
+    assertNotNull( ResolutionSnapshot.load( file ).get( "key1", _repositories ) );
+
+    ResolutionSnapshot.load( file ).save( start + ResolutionSnapshot.MAX_UNUSED_AGE + 1 );
+
+    // key1 was last used at start while key2 was refreshed when it was used by the second resolution
+    final ResolutionSnapshot snapshot4 = ResolutionSnapshot.load( file );
+    assertNull( snapshot4.get( "key1", _repositories ) );
+    assertNotNull( snapshot4.get( "key2", _repositories ) );
+  }
+
+  @Nonnull
+  private DependencyNode node( @Nonnull final String coords )
+  {
+    return new DefaultDependencyNode( new Dependency( new DefaultArtifact( coords ), "compile" ) );
+  }
+}
@@ -12,6 +12,7 @@ import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import javax.annotation.Nonnull;
 import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.collection.DependencyCollectionException;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
@@ -678,6 +679,75 @@ public class ResolverTest
     assertNotNull( result.getRoot() );
   }
 
+  @Test
+  public void resolveDependencies_collectionFailureReportedAfterArtifactsResolved()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path remoteDir = FileUtil.createLocalTempDir();
+
+    deployTempArtifactToLocalRepository( remoteDir, "com.example:myapp:1.0", "com.example:mylib:1.0" );
+    deployTempArtifactToLocalRepository( remoteDir, "com.example:mylib:1.0" );
+    // The transitive dependency com.example:missing:1.0 is not present in any repository
+    deployTempArtifactToLocalRepository( remoteDir, "com.example:other:1.0", "com.example:missing:1.0" );
+
+    final RemoteRepository remoteRepository =
+      new RemoteRepository.Builder( "local", "default", remoteDir.toUri().toString() ).build();
+    final Resolver resolver =
+      ResolverUtil.createResolver( newEnvironment(),
+                                   dir,
+                                   Collections.singletonList( remoteRepository ),
+                                   true,
+                                   true );
+
+    writeConfigFile( remoteDir, "artifacts:\n" +
+                                "  - coord: com.example:myapp:1.0\n" +
+                                "  - coord: com.example:other:1.0\n" );
+    final ApplicationModel model = loadApplicationModel();
+
+    final DependencyResolutionException exception =
+      expectThrows( DependencyResolutionException.class,
+                    () -> resolver.resolveDependencies( model, ( m, e ) -> fail() ) );
+    // The collection failure is reported once the collected artifacts have been resolved
+    assertTrue( exception.getCause() instanceof DependencyCollectionException );
+    assertFalse( exception.getResult().getArtifactResults().isEmpty() );
+    assertTrue( dir.resolve( "com/example/mylib/1.0/mylib-1.0.jar" ).toFile().exists() );
+  }
+
+  @Test
+  public void resolveDependencies_reusesSnapshotForUnchangedArtifacts()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:1.0", "com.example:mylib:1.0" );
+    deployTempArtifactToLocalRepository( dir, "com.example:mylib:1.0" );
+
+    writeConfigFile( dir, "artifacts:\n  - coord: com.example:myapp:1.0\n" );
+    final ApplicationModel model = loadApplicationModel();
+
+    final DependencyResult result1 =
+      ResolverUtil.createResolver( newEnvironment(), dir, Collections.emptyList(), true, true )
+        .resolveDependencies( model, ( m, e ) -> fail() );
+    assertEquals( result1.getRoot().getChildren().get( 0 ).getChildren().size(), 1 );
+    assertTrue( Files.exists( dir.resolve( ResolutionSnapshot.FILENAME ) ) );
+
+    // Remove the pom of the transitive dependency so that collecting the dependencies would fail
+    final Path artifactDir = dir.resolve( "com" ).resolve( "example" ).resolve( "mylib" ).resolve( "1.0" );
+    Files.delete( artifactDir.resolve( "mylib-1.0.pom" ) );
+
+    final DependencyResult result2 =
+      ResolverUtil.createResolver( newEnvironment(), dir, Collections.emptyList(), true, true )
+        .resolveDependencies( model, ( m, e ) -> fail() );
+
+    assertTrue( result2.getCycles().isEmpty() );
+    assertTrue( result2.getCollectExceptions().isEmpty() );
+    final List<DependencyNode> children = result2.getRoot().getChildren().get( 0 ).getChildren();
+    assertEquals( children.size(), 1 );
+    assertEquals( children.get( 0 ).getDependency().toString(), "com.example:mylib:jar:1.0 (compile)" );
+    assertNotNull( children.get( 0 ).getArtifact().getFile() );
+  }
+
   @Nonnull
   private TestHandler newHandler()
   {
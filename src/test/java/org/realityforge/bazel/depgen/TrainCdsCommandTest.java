@@ -0,0 +1,156 @@
+package org.realityforge.bazel.depgen;
+
+import gir.io.FileUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nonnull;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public class TrainCdsCommandTest
+  extends AbstractTest
+{
+  @Test
+  public void buildCommand()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "options:\n" +
+                     "  namePrefix: myprj\n" +
+                     "  classDataSharing: true\n" );
+
+    final ApplicationModel model = loadApplicationModel();
+    final Path archive = FileUtil.getCurrentDirectory().resolve( "depgen.jsa" );
+    assertEquals( TrainCdsCommand.buildCommand( model, archive ),
+                  Arrays.asList( "bazel",
+                                 "run",
+                                 "--define=depgen_class_data_sharing=false",
+                                 "//thirdparty:myprj_regenerate_depgen_extension",
+                                 "--",
+                                 "--jvm_flag=-XX:ArchiveClassesAtExit=" + archive ) );
+    assertEquals( TrainCdsCommand.getBazelrcLine( archive ),
+                  "build --define=depgen_class_data_sharing=true " +
+                  "--define=depgen_class_data_sharing_archive=" + archive );
+  }
+
+  @Test
+  public void run_classDataSharingNotEnabled()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "" );
+
+    final TrainCdsCommand command = new TrainCdsCommand();
+    final Environment environment = newEnvironment( new TestHandler() );
+    final DepgenException exception =
+      expectThrows( DepgenException.class, () -> command.run( new CommandContextImpl( environment ) ) );
+    assertEquals( exception.getMessage(),
+                  "The 'classDataSharing' and 'verifyConfigSha256' options must be enabled so that the generated " +
+                  "regenerate target can use a class data sharing archive." );
+  }
+
+  @Test
+  public void archiveUsedByJvmWithSameClasspath()
+    throws Exception
+  {
+    writeWorkspace();
+    writeConfigFile( "options:\n" +
+                     "  classDataSharing: true\n" );
+
+    // The JVM refuses to create an archive if the classpath contains a non-empty directory,
+    // and bazel launches the tool with a classpath composed of jars, so directories are packaged as jars
+    final List<String> classpath = new ArrayList<>();
+    for ( final String element : System.getProperty( "java.class.path" ).split( File.pathSeparator ) )
+    {
+      final Path path = Paths.get( element );
+      if ( Files.isDirectory( path ) )
+      {
+        classpath.add( createJarFromDirectory( path ).toString() );
+      }
+      else if ( Files.exists( path ) )
+      {
+        classpath.add( element );
+      }
+    }
+
+    final Path archive = FileUtil.getCurrentDirectory().resolve( "depgen.jsa" );
+    final List<String> trainCommand = TrainCdsCommand.buildCommand( loadApplicationModel(), archive );
+    final String trainFlag = trainCommand.get( trainCommand.size() - 1 ).substring( "--jvm_flag=".length() );
+    runTool( classpath, trainFlag );
+    assertTrue( Files.exists( archive ) );
+
+    final String sharedFlag = "-XX:SharedArchiveFile=" + archive;
+    assertOutputContains( runTool( classpath, sharedFlag, "-Xlog:class+load=info" ),
+                          "org.realityforge.bazel.depgen.Main source: shared objects file" );
+
+    // The archive is not used by a JVM launched with a different classpath
+    final List<String> otherClasspath = new ArrayList<>( classpath );
+    Collections.reverse( otherClasspath );
+    assertOutputContains( runTool( otherClasspath, sharedFlag, "-Xlog:class+load=info" ),
+                          "org.realityforge.bazel.depgen.Main source: file:" );
+  }
+
+  @Nonnull
+  private String runTool( @Nonnull final List<String> classpath, @Nonnull final String... jvmFlags )
+    throws Exception
+  {
+    final List<String> command = new ArrayList<>();
+    command.add( Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString() );
+    command.addAll( Arrays.asList( jvmFlags ) );
+    command.add( "-cp" );
+    command.add( String.join( File.pathSeparator, classpath ) );
+    command.add( Main.class.getName() );
+    command.add( "--help" );
+
+    final Process process =
+      new ProcessBuilder( command ).directory( FileUtil.getCurrentDirectory().toFile() )
+        .redirectErrorStream( true )
+        .start();
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try ( final InputStream inputStream = process.getInputStream() )
+    {
+      final byte[] buffer = new byte[ 8192 ];
+      int count;
+      while ( -1 != ( count = inputStream.read( buffer ) ) )
+      {
+        output.write( buffer, 0, count );
+      }
+    }
+    process.waitFor();
+    return new String( output.toByteArray(), StandardCharsets.UTF_8 );
+  }
+
+  @Nonnull
+  private Path createJarFromDirectory( @Nonnull final Path directory )
+    throws IOException
+  {
+    final List<Path> files;
+    try ( final Stream<Path> stream = Files.walk( directory ) )
+    {
+      files = stream.filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+    }
+    return createJarFile( outputStream -> {
+      for ( final Path file : files )
+      {
+        final String name = directory.relativize( file ).toString().replace( File.separatorChar, '/' );
+        outputStream.putNextEntry( new JarEntry( name ) );
+        outputStream.write( Files.readAllBytes( file ) );
+        outputStream.closeEntry();
+      }
+    } );
+  }
+}
@@ -270,6 +270,9 @@ public class ApplicationConfigTest
                      "  includeExternalAnnotations: true\n" +
                      "  verifyConfigSha256: false\n" +
                      "  supportDependencyOmit: true\n" +
+                     "  extensionShardCount: 8\n" +
+                     "  extensionFormat: Table\n" +
+                     "  classDataSharing: true\n" +
                      "  emitDependencyGraph: false\n" +
                      "  workspaceMacroName: workspace_rules\n" +
                      "  targetMacroName: gen_targets\n" +
@@ -298,6 +301,9 @@ public class ApplicationConfigTest
     assertEquals( options.getIncludeSource(), Boolean.FALSE );
     assertEquals( options.getIncludeExternalAnnotations(), Boolean.TRUE );
     assertEquals( options.getSupportDependencyOmit(), Boolean.TRUE );
+    assertEquals( options.getExtensionShardCount(), Integer.valueOf( 8 ) );
+    assertEquals( options.getExtensionFormat(), ExtensionFormat.Table );
+    assertEquals( options.getClassDataSharing(), Boolean.TRUE );
     assertEquals( options.getVerifyConfigSha256(), Boolean.FALSE );
     final GlobalJavaConfig java = options.getJava();
     assertNotNull( java );
@@ -0,0 +1,81 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import gir.io.FileUtil;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.realityforge.bazel.depgen.model.ApplicationModel;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class DepgenMetadataRegistryTest
+  extends AbstractTest
+{
+  @Test
+  public void getAndFlush()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    writeConfigFile( FileUtil.getCurrentDirectory(), "" );
+    final ApplicationModel model = loadApplicationModel();
+
+    final Path artifact = FileUtil.createLocalTempDir().resolve( "file.dat" );
+    Files.write( artifact, new byte[]{ 1, 2, 3 } );
+
+    final DepgenMetadata metadata = DepgenMetadataRegistry.get( model, dir );
+    assertSame( DepgenMetadataRegistry.get( model, dir ), metadata );
+
+    assertEquals( metadata.getSha256( "", artifact.toFile() ),
+                  "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    metadata.updateProperty( "sources.present", "false" );
+
+    // Changes are deferred until the registry is flushed
+    assertFalse( file.toFile().exists() );
+
+    DepgenMetadataRegistry.flush();
+
+    assertEquals( loadPropertiesContent( file ),
+                  "<default>.sha256=039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81\n" +
+                  "sources.present=false\n" );
+
+    // The metadata is retained after a flush
+    assertSame( DepgenMetadataRegistry.get( model, dir ), metadata );
+    DepgenMetadataRegistry.flush();
+  }
+
+  @Test
+  public void get_differentModel()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    writeConfigFile( FileUtil.getCurrentDirectory(), "" );
+
+    final Path artifact = FileUtil.createLocalTempDir().resolve( "file.dat" );
+    Files.write( artifact, new byte[]{ 1, 2, 3 } );
+
+    final DepgenMetadata metadata = DepgenMetadataRegistry.get( loadApplicationModel(), dir );
+    assertEquals( metadata.getSha256( "", artifact.toFile() ),
+                  "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    DepgenMetadataRegistry.flush();
+
+    // The properties are reused by the instance for a new model
+    final DepgenMetadata metadata2 = DepgenMetadataRegistry.get( loadApplicationModel(), dir );
+    assertNotSame( metadata2, metadata );
+    assertEquals( metadata2.getSha256( "", artifact.toFile() ),
+                  "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    DepgenMetadataRegistry.flush();
+
+    // The properties are reloaded if another process modifies the file
+    Files.write( file, "<default>.sha256=ABCD\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+    Files.setLastModifiedTime( file, FileTime.fromMillis( System.currentTimeMillis() + 10_000 ) );
+    final DepgenMetadata metadata3 = DepgenMetadataRegistry.get( loadApplicationModel(), dir );
+    assertEquals( metadata3.getSha256( "", artifact.toFile() ), "ABCD" );
+    DepgenMetadataRegistry.flush();
+  }
+}
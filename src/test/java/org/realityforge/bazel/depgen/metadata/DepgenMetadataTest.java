@@ -11,6 +11,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import javax.annotation.Nonnull;
+import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.realityforge.bazel.depgen.AbstractTest;
@@ -499,6 +500,162 @@ public final class DepgenMetadataTest
                   repo1.getUrl().replaceAll( ":", "\\\\:" ) + "com/example/myapp/1.0/myapp-1.0.jar\n" );
   }
 
+  @Test
+  public void getUrls_offline()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    final DepgenMetadata metadata =
+      loadOfflineMetadata( dir,
+                           "repositories:\n" +
+                           "  - name: dir1\n" +
+                           "    url: http://a.com\n" +
+                           "  - name: dir2\n" +
+                           "    url: http://b.com\n" );
+
+    final RemoteRepository repo1 = new RemoteRepository.Builder( "dir1", "default", "http://a.com" ).build();
+    final RemoteRepository repo2 = new RemoteRepository.Builder( "dir2", "default", "http://b.com" ).build();
+
+    final String content =
+      "<default>.dir1.url=http\\://a.com/com/example/myapp/1.0/myapp-1.0.jar\n" +
+      "<default>.dir2.url=-\n";
+    Files.write( file, content.getBytes( StandardCharsets.ISO_8859_1 ) );
+
+    final List<String> urls =
+      metadata.getUrls( new DefaultArtifact( "com.example:myapp:jar:1.0" ),
+                        Arrays.asList( repo1, repo2 ),
+                        Collections.emptyMap(),
+                        Assert::fail );
+    assertEquals( urls, Collections.singletonList( "http://a.com/com/example/myapp/1.0/myapp-1.0.jar" ) );
+
+    assertEquals( loadPropertiesContent( file ), content );
+  }
+
+  @Test
+  public void getUrls_offline_missingEntries()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    final DepgenMetadata metadata =
+      loadOfflineMetadata( dir,
+                           "repositories:\n" +
+                           "  - name: dir1\n" +
+                           "    url: http://a.com\n" +
+                           "  - name: dir2\n" +
+                           "    url: http://b.com\n" +
+                           "  - name: dir3\n" +
+                           "    url: http://c.com\n" );
+
+    final RemoteRepository repo1 = new RemoteRepository.Builder( "dir1", "default", "http://a.com" ).build();
+    final RemoteRepository repo2 = new RemoteRepository.Builder( "dir2", "default", "http://b.com" ).build();
+    final RemoteRepository repo3 = new RemoteRepository.Builder( "dir3", "default", "http://c.com" ).build();
+
+    final String content = "<default>.dir2.url=-\n";
+    Files.write( file, content.getBytes( StandardCharsets.ISO_8859_1 ) );
+
+    final MissingCachedMetadataException exception =
+      expectThrows( MissingCachedMetadataException.class,
+                    () -> metadata.getUrls( new DefaultArtifact( "com.example:myapp:jar:1.0" ),
+                                            Arrays.asList( repo1, repo2, repo3 ),
+                                            Collections.emptyMap(),
+                                            Assert::fail ) );
+    assertEquals( exception.getEntries(),
+                  Arrays.asList( "artifact 'com.example:myapp:jar:1.0' in repository 'dir1' " +
+                                 "(cache entry '<default>.dir1.url')",
+                                 "artifact 'com.example:myapp:jar:1.0' in repository 'dir3' " +
+                                 "(cache entry '<default>.dir3.url')" ) );
+
+    // Nothing is looked up or cached
+    assertEquals( loadPropertiesContent( file ), content );
+  }
+
+  @Test
+  public void getUrls_offline_cacheLookups_FALSE()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    final DepgenMetadata metadata =
+      loadOfflineMetadata( dir,
+                           "repositories:\n" +
+                           "  - name: dir1\n" +
+                           "    url: http://a.com\n" +
+                           "    cacheLookups: false\n" +
+                           "  - name: dir2\n" +
+                           "    url: http://b.com\n" +
+                           "    cacheLookups: false\n" );
+
+    final RemoteRepository repo1 = new RemoteRepository.Builder( "dir1", "default", "http://a.com" ).build();
+    final RemoteRepository repo2 = new RemoteRepository.Builder( "dir2", "default", "http://b.com" ).build();
+
+    // The local repository records that the artifact was downloaded from dir1
+    final Path artifactFile = dir.resolve( "myapp-1.0.jar" );
+    Files.write( artifactFile, new byte[]{ 1, 2, 3 } );
+    Files.write( dir.resolve( "_remote.repositories" ),
+                 "myapp-1.0.jar>dir1=\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+
+    final Artifact artifact = new DefaultArtifact( "com.example:myapp:jar:1.0" ).setFile( artifactFile.toFile() );
+    final List<String> urls =
+      metadata.getUrls( artifact, Collections.singletonList( repo1 ), Collections.emptyMap(), Assert::fail );
+    assertEquals( urls, Collections.singletonList( "http://a.com/com/example/myapp/1.0/myapp-1.0.jar" ) );
+
+    // The presence of the artifact in dir2 can not be determined without accessing the network
+    final MissingCachedMetadataException exception =
+      expectThrows( MissingCachedMetadataException.class,
+                    () -> metadata.getUrls( artifact,
+                                            Arrays.asList( repo1, repo2 ),
+                                            Collections.emptyMap(),
+                                            Assert::fail ) );
+    assertEquals( exception.getEntries(),
+                  Collections.singletonList( "artifact 'com.example:myapp:jar:1.0' in repository 'dir2' " +
+                                             "(not recorded in the local repository)" ) );
+
+    assertFalse( file.toFile().exists() );
+  }
+
+  @Test
+  public void getUrls_offline_cacheLookups_FALSE_fileRepository()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path repositoryDir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( DepgenMetadata.FILENAME );
+
+    final DepgenMetadata metadata =
+      loadOfflineMetadata( dir,
+                           "repositories:\n" +
+                           "  - name: dir1\n" +
+                           "    url: http://a.com\n" +
+                           "    cacheLookups: false\n" +
+                           "  - name: dir2\n" +
+                           "    url: " + repositoryDir.toUri() + "\n" +
+                           "    cacheLookups: false\n" );
+
+    final RemoteRepository repo1 = new RemoteRepository.Builder( "dir1", "default", "http://a.com" ).build();
+    final RemoteRepository repo2 =
+      new RemoteRepository.Builder( "dir2", "default", repositoryDir.toUri().toString() ).build();
+
+    final Path artifactFile = dir.resolve( "myapp-1.0.jar" );
+    Files.write( artifactFile, new byte[]{ 1, 2, 3 } );
+    Files.write( dir.resolve( "_remote.repositories" ),
+                 "myapp-1.0.jar>dir1=\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+
+    // The file repository is inspected directly so the artifact is known to be absent
+    final List<String> urls =
+      metadata.getUrls( new DefaultArtifact( "com.example:myapp:jar:1.0" ).setFile( artifactFile.toFile() ),
+                        Arrays.asList( repo1, repo2 ),
+                        Collections.emptyMap(),
+                        Assert::fail );
+    assertEquals( urls, Collections.singletonList( "http://a.com/com/example/myapp/1.0/myapp-1.0.jar" ) );
+
+    assertFalse( file.toFile().exists() );
+  }
+
   @Test
   public void getProcessors_jar_withNoProcessor()
     throws Exception
@@ -818,4 +975,12 @@ public final class DepgenMetadataTest
     writeConfigFile( FileUtil.getCurrentDirectory(), dependenciesContent );
     return DepgenMetadata.fromDirectory( loadApplicationModel(), dir );
   }
+
+  @Nonnull
+  private DepgenMetadata loadOfflineMetadata( @Nonnull final Path dir, @Nonnull final String dependenciesContent )
+    throws Exception
+  {
+    writeConfigFile( FileUtil.getCurrentDirectory(), dependenciesContent );
+    return DepgenMetadata.fromDirectory( ApplicationModel.load( loadApplicationConfig(), false, true ), dir );
+  }
 }
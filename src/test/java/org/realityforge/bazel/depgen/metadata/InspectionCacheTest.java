@@ -0,0 +1,90 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import gir.io.FileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class InspectionCacheTest
+  extends AbstractTest
+{
+  @Test
+  public void inspect_reusesResultsForUnchangedFile()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path file = FileUtil.createLocalTempDir().resolve( "file.dat" );
+    Files.write( file, new byte[]{ 1, 2, 3 } );
+    final FileTime lastModifiedTime = Files.getLastModifiedTime( file );
+
+    final InspectionCache cache = InspectionCache.open( cacheDir );
+    assertEquals( cache.inspect( file.toFile() ).getSha256(),
+                  "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    cache.save();
+    assertTrue( Files.exists( cacheDir.resolve( InspectionCache.FILENAME ) ) );
+
+    // Change the content in place while retaining the size and last modified time so that
+    // the identity of the file is unchanged and the cached result is returned.
+    Files.write( file, new byte[]{ 4, 5, 6 } );
+    Files.setLastModifiedTime( file, lastModifiedTime );
+
+    final JarInspection inspection = InspectionCache.open( cacheDir ).inspect( file.toFile() );
+    assertEquals( inspection.getSha256(), "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    assertEquals( inspection.getProcessors(), DepgenMetadata.SENTINEL );
+    assertEquals( inspection.getJsAssets(), DepgenMetadata.SENTINEL );
+  }
+
+  @Test
+  public void inspect_reinspectsChangedFile()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path file = FileUtil.createLocalTempDir().resolve( "file.dat" );
+    Files.write( file, new byte[]{ 1, 2, 3 } );
+
+    final InspectionCache cache = InspectionCache.open( cacheDir );
+    assertEquals( cache.inspect( file.toFile() ).getSha256(),
+                  "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+
+    Files.write( file, new byte[]{ 1, 2, 3, 4 } );
+
+    assertEquals( cache.inspect( file.toFile() ).getSha256(), RecordUtil.sha256( file.toFile() ) );
+    assertNotEquals( cache.inspect( file.toFile() ).getSha256(),
+                     "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+  }
+
+  @Test
+  public void save_discardsUnusedEntriesForRemovedOrModifiedFiles()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path retained = dir.resolve( "retained.dat" );
+    final Path removed = dir.resolve( "removed.dat" );
+    final Path modified = dir.resolve( "modified.dat" );
+    Files.write( retained, new byte[]{ 1 } );
+    Files.write( removed, new byte[]{ 2 } );
+    Files.write( modified, new byte[]{ 3 } );
+
+    final InspectionCache cache = InspectionCache.open( cacheDir );
+    cache.inspect( retained.toFile() );
+    cache.inspect( removed.toFile() );
+    cache.inspect( modified.toFile() );
+    cache.save();
+    assertEquals( Files.readAllLines( cacheDir.resolve( InspectionCache.FILENAME ) ).size(), 3 );
+
+    Files.delete( removed );
+    Files.write( modified, new byte[]{ 3, 4 } );
+
+    // None of the entries are used in this run but only the entry for the unchanged file is retained
+    InspectionCache.open( cacheDir ).save();
+
+    final List<String> lines = Files.readAllLines( cacheDir.resolve( InspectionCache.FILENAME ) );
+    assertEquals( lines.size(), 1 );
+    assertTrue( lines.get( 0 ).contains( retained.toAbsolutePath().normalize().toString() ) );
+  }
+}
@@ -0,0 +1,56 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import gir.io.FileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class JarInspectionTest
+  extends AbstractTest
+{
+  @Test
+  public void inspect_notAJar()
+    throws Exception
+  {
+    final Path path = FileUtil.createLocalTempDir().resolve( "file.txt" );
+    Files.write( path, new byte[]{ 1, 2, 3 } );
+    final JarInspection inspection = JarInspection.inspect( path.toFile() );
+    assertEquals( inspection.getSha256(), "039058C6F2C0CB492C533B0A4D14EF77CC0F78ABCCCED5287D84A1A2011CFB81" );
+    assertEquals( inspection.getProcessors(), DepgenMetadata.SENTINEL );
+    assertEquals( inspection.getJsAssets(), DepgenMetadata.SENTINEL );
+  }
+
+  @Test
+  public void inspect_jarButNoProcessorsOrAssets()
+    throws Exception
+  {
+    final Path path = createTempJarFile();
+    final JarInspection inspection = JarInspection.inspect( path.toFile() );
+    assertEquals( inspection.getSha256(), RecordUtil.sha256( path.toFile() ) );
+    assertEquals( inspection.getProcessors(), DepgenMetadata.SENTINEL );
+    assertEquals( inspection.getJsAssets(), DepgenMetadata.SENTINEL );
+  }
+
+  @Test
+  public void inspect_jarWithProcessorsAndAssets()
+    throws Exception
+  {
+    final Path path = createJarFile( outputStream -> {
+      createJarEntry( outputStream,
+                      "META-INF/services/javax.annotation.processing.Processor",
+                      "# Some comment\n\ncom.example.Processor\n  com.example.OtherProcessor  \n" );
+      createJarEntry( outputStream, "com/biz/MyFile1.js", "" );
+      createJarEntry( outputStream, "com/biz/MyBlah.js", "" );
+      createJarEntry( outputStream, "com/biz/public/NotIncludedAsNestedInPublic.js", "" );
+      createJarEntry( outputStream, "com/biz/TheClass.native.js", "" );
+    } );
+    final JarInspection inspection = JarInspection.inspect( path.toFile() );
+    assertEquals( inspection.getSha256(), RecordUtil.sha256( path.toFile() ) );
+    assertEquals( inspection.getProcessors(), "com.example.Processor,com.example.OtherProcessor" );
+    assertEquals( inspection.getProcessors(), RecordUtil.readAnnotationProcessors( path.toFile() ) );
+    assertEquals( inspection.getJsAssets(), "com/biz/MyBlah.js,com/biz/MyFile1.js" );
+    assertEquals( inspection.getJsAssets(), RecordUtil.readJsAssets( path.toFile() ) );
+  }
+}
@@ -0,0 +1,157 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import gir.io.FileUtil;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class MetadataIndexTest
+  extends AbstractTest
+{
+  @Test
+  public void open_importsExistingPropertiesFiles()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir = cacheDir.resolve( "com/example/myapp/1.0" );
+    FileUtil.write( dir.resolve( DepgenMetadata.FILENAME ), "processors=-\n<default>.sha256=ABC\n" );
+
+    final MetadataIndex index = MetadataIndex.open( cacheDir );
+
+    assertTrue( Files.exists( cacheDir.resolve( MetadataIndex.FILENAME ) ) );
+    final Map<String, String> properties = index.get( dir );
+    assertNotNull( properties );
+    assertEquals( properties.size(), 2 );
+    assertEquals( properties.get( "processors" ), "-" );
+    assertEquals( properties.get( "<default>.sha256" ), "ABC" );
+    assertNull( index.get( cacheDir.resolve( "com/example/mylib/1.0" ) ) );
+
+    // Reopening reads the index rather than importing the properties files
+    Files.delete( dir.resolve( DepgenMetadata.FILENAME ) );
+    assertEquals( MetadataIndex.open( cacheDir ).get( dir ), properties );
+  }
+
+  @Test
+  public void putAndSync()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir = cacheDir.resolve( "com/example/myapp/1.0" );
+
+    final MetadataIndex index = MetadataIndex.open( cacheDir );
+    final Map<String, String> properties = new HashMap<>();
+    properties.put( "processors", "-" );
+    properties.put( "<default>.sha256", "ABC" );
+    index.put( dir, properties );
+
+    // Not visible to other processes until synced
+    assertNull( MetadataIndex.open( cacheDir ).get( dir ) );
+
+    index.sync();
+
+    assertEquals( MetadataIndex.open( cacheDir ).get( dir ), properties );
+
+    index.put( dir, Collections.singletonMap( "processors", "com.example.Processor" ) );
+    index.sync();
+
+    assertEquals( MetadataIndex.open( cacheDir ).get( dir ),
+                  Collections.singletonMap( "processors", "com.example.Processor" ) );
+  }
+
+  @Test
+  public void open_ignoresPartiallyWrittenRecord()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir = cacheDir.resolve( "com/example/myapp/1.0" );
+
+    final MetadataIndex index = MetadataIndex.open( cacheDir );
+    index.put( dir, Collections.singletonMap( "processors", "-" ) );
+    index.sync();
+
+    // Simulate a process that was terminated while appending a record
+    Files.write( cacheDir.resolve( MetadataIndex.FILENAME ), new byte[]{ 0, 0, 1 }, StandardOpenOption.APPEND );
+
+    final MetadataIndex reopened = MetadataIndex.open( cacheDir );
+    assertEquals( reopened.get( dir ), Collections.singletonMap( "processors", "-" ) );
+
+    reopened.put( dir, Collections.singletonMap( "processors", "com.example.Processor" ) );
+    reopened.sync();
+
+    assertEquals( MetadataIndex.open( cacheDir ).get( dir ),
+                  Collections.singletonMap( "processors", "com.example.Processor" ) );
+  }
+
+  @Test
+  public void compact()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir = cacheDir.resolve( "com/example/myapp/1.0" );
+    final Path file = cacheDir.resolve( MetadataIndex.FILENAME );
+
+    final MetadataIndex index = MetadataIndex.open( cacheDir );
+    for ( int i = 0; i < 10; i++ )
+    {
+      index.put( dir, Collections.singletonMap( "processors", "com.example.Processor" + i ) );
+      index.sync();
+    }
+    final long size = Files.size( file );
+
+    index.compact();
+
+    assertTrue( Files.size( file ) < size );
+    assertEquals( MetadataIndex.open( cacheDir ).get( dir ),
+                  Collections.singletonMap( "processors", "com.example.Processor9" ) );
+  }
+
+  @Test
+  public void sync_retainsRecordsAppendedByOtherProcess()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir1 = cacheDir.resolve( "com/example/myapp/1.0" );
+    final Path dir2 = cacheDir.resolve( "com/example/mylib/1.0" );
+
+    final MetadataIndex index1 = MetadataIndex.open( cacheDir );
+    final MetadataIndex index2 = MetadataIndex.open( cacheDir );
+    index1.put( dir1, Collections.singletonMap( "processors", "-" ) );
+    index2.put( dir2, Collections.singletonMap( "processors", "com.example.Processor" ) );
+    index1.sync();
+    index2.sync();
+
+    // The records appended by the other index are read when syncing
+    assertEquals( index2.get( dir1 ), Collections.singletonMap( "processors", "-" ) );
+
+    final MetadataIndex reopened = MetadataIndex.open( cacheDir );
+    assertEquals( reopened.get( dir1 ), Collections.singletonMap( "processors", "-" ) );
+    assertEquals( reopened.get( dir2 ), Collections.singletonMap( "processors", "com.example.Processor" ) );
+  }
+
+  @Test
+  public void sync_afterOtherProcessCompacted()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path dir1 = cacheDir.resolve( "com/example/myapp/1.0" );
+    final Path dir2 = cacheDir.resolve( "com/example/mylib/1.0" );
+
+    final MetadataIndex index1 = MetadataIndex.open( cacheDir );
+    final MetadataIndex index2 = MetadataIndex.open( cacheDir );
+    index2.put( dir2, Collections.singletonMap( "processors", "-" ) );
+    index2.compact();
+
+    index1.put( dir1, Collections.singletonMap( "processors", "com.example.Processor" ) );
+    index1.sync();
+
+    final MetadataIndex reopened = MetadataIndex.open( cacheDir );
+    assertEquals( reopened.get( dir1 ), Collections.singletonMap( "processors", "com.example.Processor" ) );
+    assertEquals( reopened.get( dir2 ), Collections.singletonMap( "processors", "-" ) );
+  }
+}
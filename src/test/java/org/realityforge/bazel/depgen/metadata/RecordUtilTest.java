@@ -7,6 +7,7 @@ import gir.io.FileUtil;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -408,6 +409,52 @@ public final class RecordUtilTest
     }
   }
 
+  @Test
+  public void lookupArtifactInRepository_authenticated_http_url_noCredentials()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final HttpServer server = serveDirectoryWithBasicAuth( dir, "root", "secret" );
+
+    server.start();
+    try
+    {
+      final RemoteRepository repo = new RemoteRepository.Builder( "http", "default", toUrl( server ) ).build();
+
+      final String url =
+        RecordUtil.lookupArtifactInRepository( new DefaultArtifact( "com.example:myapp:jar:1.0" ),
+                                               repo,
+                                               Collections.emptyMap() );
+      assertNull( url );
+    }
+    finally
+    {
+      server.stop( 1 );
+    }
+  }
+
+  @Test
+  public void lookupArtifactInRepository_http_url_connectFailure()
+    throws Exception
+  {
+    // Reserve a port and release it so that nothing is listening on the port
+    final int port;
+    try ( final ServerSocket socket = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() ) )
+    {
+      port = socket.getLocalPort();
+    }
+    final RemoteRepository repo =
+      new RemoteRepository.Builder( "http", "default", "http://127.0.0.1:" + port + "/" ).build();
+
+    final String url =
+      RecordUtil.lookupArtifactInRepository( new DefaultArtifact( "com.example:myapp:jar:1.0" ),
+                                             repo,
+                                             Collections.emptyMap() );
+    assertNull( url );
+  }
+
   @SuppressWarnings( "SameParameterValue" )
   @Nonnull
   private HttpServer serveDirectoryWithBasicAuth( @Nonnull final Path dir,
@@ -0,0 +1,250 @@
+package org.realityforge.bazel.depgen.metadata;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public final class RepositoryProbeTest
+  extends AbstractTest
+{
+  @Test
+  public void isPresent()
+    throws Exception
+  {
+    final HttpServer server = createServer( e -> {
+      e.sendResponseHeaders( e.getRequestURI().getPath().endsWith( "/present.jar" ) ? 200 : 404, -1 );
+      e.close();
+    } );
+    server.start();
+    try
+    {
+      final RepositoryProbe probe = newProbe();
+      final RemoteRepository repository = newRepository( server );
+
+      assertTrue( probe.isPresent( toUri( server, "present.jar" ), repository, null, Collections.emptyMap() ) );
+      assertFalse( probe.isPresent( toUri( server, "missing.jar" ), repository, null, Collections.emptyMap() ) );
+    }
+    finally
+    {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void isPresent_unauthorized()
+    throws Exception
+  {
+    final String expected =
+      "Basic " + Base64.getEncoder().encodeToString( "root:secret".getBytes( StandardCharsets.UTF_8 ) );
+    final HttpServer server = createServer( e -> {
+      if ( expected.equals( e.getRequestHeaders().getFirst( "Authorization" ) ) )
+      {
+        e.sendResponseHeaders( 200, -1 );
+      }
+      else
+      {
+        e.getResponseHeaders().add( "WWW-Authenticate", "Basic realm=\"MyRealm\"" );
+        e.sendResponseHeaders( 401, -1 );
+      }
+      e.close();
+    } );
+    server.start();
+    try
+    {
+      final RepositoryProbe probe = newProbe();
+      final URI uri = toUri( server, "present.jar" );
+
+      // A 401 response indicates that the resource is not accessible rather than failing
+      assertFalse( probe.isPresent( uri, newRepository( server ), null, Collections.emptyMap() ) );
+      assertTrue( probe.isPresent( uri,
+                                   new RemoteRepository.Builder( "other", "default", uri.toString() ).build(),
+                                   "root:secret",
+                                   Collections.emptyMap() ) );
+    }
+    finally
+    {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void isPresent_cachesAuthorizationHeaderPerRepository()
+    throws Exception
+  {
+    final List<String> authorizations = new CopyOnWriteArrayList<>();
+    final HttpServer server = createServer( e -> {
+      final String authorization = e.getRequestHeaders().getFirst( "Authorization" );
+      authorizations.add( null == authorization ? "" : authorization );
+      e.sendResponseHeaders( 200, -1 );
+      e.close();
+    } );
+    server.start();
+    try
+    {
+      final RepositoryProbe probe = newProbe();
+      final URI uri = toUri( server, "present.jar" );
+      final RemoteRepository repository = newRepository( server );
+      final RemoteRepository otherRepository =
+        new RemoteRepository.Builder( "other", "default", repository.getUrl() ).build();
+
+      assertTrue( probe.isPresent( uri, repository, "root:secret", Collections.emptyMap() ) );
+      // The header derived for the repository on the first request is reused
+      assertTrue( probe.isPresent( uri, repository, "root:changed", Collections.emptyMap() ) );
+      assertTrue( probe.isPresent( uri, otherRepository, null, Collections.emptyMap() ) );
+
+      final String expected =
+        "Basic " + Base64.getEncoder().encodeToString( "root:secret".getBytes( StandardCharsets.UTF_8 ) );
+      assertEquals( authorizations, Arrays.asList( expected, expected, "" ) );
+    }
+    finally
+    {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void isPresent_limitsConcurrentRequestsPerHost()
+    throws Exception
+  {
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    final HttpServer server = createServer( e -> {
+      maxActive.accumulateAndGet( active.incrementAndGet(), Math::max );
+      try
+      {
+        Thread.sleep( 200 );
+      }
+      catch ( final InterruptedException ie )
+      {
+        Thread.currentThread().interrupt();
+      }
+      active.decrementAndGet();
+      e.sendResponseHeaders( 200, -1 );
+      e.close();
+    } );
+    server.start();
+    final ExecutorService executor = Executors.newFixedThreadPool( 12 );
+    try
+    {
+      final RepositoryProbe probe = newProbe();
+      final RemoteRepository repository = newRepository( server );
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for ( int i = 0; i < 12; i++ )
+      {
+        final URI uri = toUri( server, "artifact" + i + ".jar" );
+        results.add( executor.submit( () -> probe.isPresent( uri, repository, null, Collections.emptyMap() ) ) );
+      }
+      for ( final Future<Boolean> result : results )
+      {
+        assertTrue( result.get() );
+      }
+      assertTrue( maxActive.get() > 1 );
+      assertTrue( maxActive.get() <= 4 );
+    }
+    finally
+    {
+      executor.shutdownNow();
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void isPresent_requestTimeout()
+    throws Exception
+  {
+    final HttpServer server = createServer( e -> {
+      try
+      {
+        Thread.sleep( 2000 );
+      }
+      catch ( final InterruptedException ie )
+      {
+        Thread.currentThread().interrupt();
+      }
+      e.sendResponseHeaders( 200, -1 );
+      e.close();
+    } );
+    server.start();
+    try
+    {
+      final RepositoryProbe probe = new RepositoryProbe( Duration.ofSeconds( 5 ), Duration.ofMillis( 200 ) );
+      final URI uri = toUri( server, "present.jar" );
+      expectThrows( HttpTimeoutException.class,
+                    () -> probe.isPresent( uri, newRepository( server ), null, Collections.emptyMap() ) );
+    }
+    finally
+    {
+      server.stop( 0 );
+    }
+  }
+
+  @Test
+  public void isPresent_connectFailure()
+    throws Exception
+  {
+    // Reserve a port and release it so that nothing is listening on the port
+    final int port;
+    try ( final ServerSocket socket = new ServerSocket( 0, 1, InetAddress.getLoopbackAddress() ) )
+    {
+      port = socket.getLocalPort();
+    }
+    final URI uri = URI.create( "http://127.0.0.1:" + port + "/present.jar" );
+    final RemoteRepository repository =
+      new RemoteRepository.Builder( "local", "default", "http://127.0.0.1:" + port + "/" ).build();
+
+    final RepositoryProbe probe = newProbe();
+    expectThrows( ConnectException.class, () -> probe.isPresent( uri, repository, null, Collections.emptyMap() ) );
+    // The permit is released when the request fails
+    expectThrows( ConnectException.class, () -> probe.isPresent( uri, repository, null, Collections.emptyMap() ) );
+  }
+
+  @Nonnull
+  private RepositoryProbe newProbe()
+  {
+    return new RepositoryProbe( Duration.ofSeconds( 5 ), Duration.ofSeconds( 5 ) );
+  }
+
+  @Nonnull
+  private HttpServer createServer( @Nonnull final HttpHandler handler )
+    throws Exception
+  {
+    final HttpServer server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+    server.createContext( "/", handler );
+    server.setExecutor( Executors.newCachedThreadPool() );
+    return server;
+  }
+
+  @Nonnull
+  private RemoteRepository newRepository( @Nonnull final HttpServer server )
+  {
+    return new RemoteRepository.Builder( "local", "default", toUri( server, "" ).toString() ).build();
+  }
+
+  @Nonnull
+  private URI toUri( @Nonnull final HttpServer server, @Nonnull final String path )
+  {
+    return URI.create( "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path );
+  }
+}
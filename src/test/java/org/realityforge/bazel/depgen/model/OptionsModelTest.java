@@ -4,6 +4,7 @@ import gir.io.FileUtil;
 import java.nio.file.Path;
 import org.realityforge.bazel.depgen.AbstractTest;
 import org.realityforge.bazel.depgen.config.NameStrategy;
+import org.realityforge.bazel.depgen.config.ExtensionFormat;
 import org.realityforge.bazel.depgen.config.GlobalJavaConfig;
 import org.realityforge.bazel.depgen.config.Nature;
 import org.realityforge.bazel.depgen.config.OptionsConfig;
@@ -37,6 +38,10 @@ public class OptionsModelTest
     assertFalse( model.exportDeps() );
     assertFalse( model.supportDependencyOmit() );
     assertTrue( model.verifyConfigSha256() );
+    assertEquals( model.getExtensionShardCount(), OptionsConfig.DEFAULT_EXTENSION_SHARD_COUNT );
+    assertFalse( model.shardExtension() );
+    assertEquals( model.getExtensionFormat(), OptionsConfig.DEFAULT_EXTENSION_FORMAT );
+    assertFalse( model.classDataSharing() );
   }
 
   @Test
@@ -73,6 +78,9 @@ public class OptionsModelTest
     source.setIncludeExternalAnnotations( true );
     source.setSupportDependencyOmit( true );
     source.setVerifyConfigSha256( false );
+    source.setExtensionShardCount( 4 );
+    source.setExtensionFormat( ExtensionFormat.Table );
+    source.setClassDataSharing( true );
     final GlobalJavaConfig java = new GlobalJavaConfig();
     java.setExportDeps( true );
     source.setJava( java );
@@ -93,5 +101,23 @@ public class OptionsModelTest
     assertTrue( model.exportDeps() );
     assertTrue( model.supportDependencyOmit() );
     assertFalse( model.verifyConfigSha256() );
+    assertEquals( model.getExtensionShardCount(), 4 );
+    assertTrue( model.shardExtension() );
+    assertEquals( model.getExtensionShardFile( 2 ), thirdpartyDir.resolve( "dependencies_2.bzl" ) );
+    assertEquals( model.getExtensionFormat(), ExtensionFormat.Table );
+    assertTrue( model.classDataSharing() );
+  }
+
+  @Test
+  public void parseWithInvalidExtensionShardCount()
+  {
+    final OptionsConfig source = new OptionsConfig();
+    source.setExtensionShardCount( 0 );
+
+    final InvalidModelException exception =
+      expectThrows( InvalidModelException.class, () -> OptionsModel.parse( FileUtil.getCurrentDirectory(), source ) );
+    assertEquals( exception.getMessage(),
+                  "The 'extensionShardCount' property must be a positive integer but is specified as 0." );
+    assertEquals( exception.getModel(), source );
   }
 }
@@ -11,6 +11,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.eclipse.aether.repository.AuthenticationContext;
 import org.realityforge.bazel.depgen.AbstractTest;
 import org.realityforge.bazel.depgen.DepGenConfig;
@@ -512,6 +513,33 @@ public class ApplicationRecordTest
     }
   }
 
+  @Test
+  public void build_sharedDependency()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeConfigFile( dir,
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "  - coord: com.example:anotherapp:1.0\n" );
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0", "com.example:mylib:1.0" );
+    deployArtifactToLocalRepository( dir, "com.example:anotherapp:1.0", "com.example:mylib:1.0" );
+    deployArtifactToLocalRepository( dir, "com.example:mylib:1.0" );
+
+    final ApplicationRecord record = loadApplicationRecord();
+
+    assertNonSystemArtifactList( record, "com.example:anotherapp,com.example:myapp,com.example:mylib" );
+    assertSame( record.getArtifacts(), record.getArtifacts() );
+
+    final ArtifactRecord artifactRecord = record.findArtifact( "com.example", "mylib" );
+    assertNotNull( artifactRecord );
+    assertEquals( artifactRecord.getReverseDeps().stream().map( ArtifactRecord::getKey ).collect( Collectors.toList() ),
+                  Arrays.asList( "com.example:anotherapp", "com.example:myapp" ) );
+    assertEquals( artifactRecord.getReverseRuntimeDeps().size(), 0 );
+    assertNull( record.findArtifact( "com.example", "other" ) );
+  }
+
   @Test
   public void build_singleDependency()
     throws Exception
@@ -1958,8 +1986,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2037,6 +2066,54 @@ public class ApplicationRecordTest
                   "    )\n" );
   }
 
+  @Test
+  public void writeRegenerateExtensionTarget_classDataSharing()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+
+    writeConfigFile( dir, "options:\n" +
+                          "  classDataSharing: true\n" +
+                          "artifacts:\n" +
+                          "  - coord: com.example:myapp:1.0\n" );
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final ApplicationRecord record = loadApplicationRecord();
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    record.writeRegenerateExtensionTarget( new StarlarkOutput( outputStream ) );
+    assertEquals( asCleanString( outputStream, record.getSource().getConfigSha256(), dir.toUri().toString() ),
+                  "native.config_setting(\n" +
+                  "    name = \"depgen_class_data_sharing\",\n" +
+                  "    define_values = {\"depgen_class_data_sharing\": \"true\"},\n" +
+                  "    visibility = [\"//visibility:private\"],\n" +
+                  ")\n" +
+                  "\n" +
+                  "_java_binary(\n" +
+                  "    name = \"regenerate_depgen_extension\",\n" +
+                  "    runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
+                  "    main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "    args = [\n" +
+                  "        \"--config-file\",\n" +
+                  "        \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
+                  "        \"--verbose\",\n" +
+                  "        \"generate\",\n" +
+                  "    ],\n" +
+                  "    jvm_flags = select({\":depgen_class_data_sharing\": " +
+                  "[\"-XX:SharedArchiveFile=$(depgen_class_data_sharing_archive)\"], " +
+                  "\"//conditions:default\": []}),\n" +
+                  "    tags = [\n" +
+                  "        \"local\",\n" +
+                  "        \"manual\",\n" +
+                  "        \"no-cache\",\n" +
+                  "        \"no-remote\",\n" +
+                  "        \"no-sandbox\",\n" +
+                  "    ],\n" +
+                  "    data = [\"//thirdparty:dependencies.yml\"],\n" +
+                  "    visibility = [\"//visibility:private\"],\n" +
+                  ")\n" );
+  }
+
   @Test
   public void writeTargetMacro_omitEnabled()
     throws Exception
@@ -2065,8 +2142,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2145,8 +2223,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2222,8 +2301,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2296,8 +2376,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2383,8 +2464,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2458,8 +2540,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\"@org_realityforge_bazel//:depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2897,8 +2980,9 @@ public class ApplicationRecordTest
                   "    name = \"verify_config_sha256\",\n" +
                   "    size = \"small\",\n" +
                   "    runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "    main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "    main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "    use_testrunner = False,\n" +
+                  "    jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "    args = [\n" +
                   "        \"--config-file\",\n" +
                   "        \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -2931,8 +3015,9 @@ public class ApplicationRecordTest
                   "    name = \"myapp_verify_config_sha256\",\n" +
                   "    size = \"small\",\n" +
                   "    runtime_deps = [\":myapp_bazel_depgen\"],\n" +
-                  "    main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "    main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "    use_testrunner = False,\n" +
+                  "    jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "    args = [\n" +
                   "        \"--config-file\",\n" +
                   "        \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3016,8 +3101,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3203,6 +3289,277 @@ public class ApplicationRecordTest
                   "exports_files([\"dependencies.yml\"])\n" );
   }
 
+  @Test
+  public void writeBazelExtension_sharded()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final URI uri = dir.toUri();
+
+    writeConfigFile( dir,
+                     "options:\n" +
+                     "  verifyConfigSha256: false\n" +
+                     "  emitDependencyGraph: false\n" +
+                     "  extensionShardCount: 3\n" +
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final ApplicationRecord record = loadApplicationRecord();
+    final ArtifactRecord artifact = record.getArtifact( "com.example", "myapp" );
+    assertEquals( record.getShard( artifact ), 1 );
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    record.writeBazelExtension( new StarlarkOutput( outputStream ) );
+    assertEquals( asCleanString( outputStream, record.getSource().getConfigSha256(), uri.toString() ),
+                  "# DO NOT EDIT: File is auto-generated from dependencies.yml by https://github.com/realityforge/bazel-depgen version 1\n" +
+                  "\n" +
+                  "\"\"\"\n" +
+                  "    Macro rules to load dependencies.\n" +
+                  "\n" +
+                  "    Invoke 'generate_workspace_rules' from a WORKSPACE file.\n" +
+                  "    Invoke 'generate_targets' from a BUILD.bazel file.\n" +
+                  "\"\"\"\n" +
+                  "load(\":dependencies_0.bzl\", _generate_workspace_rules_0 = \"generate_workspace_rules\", _generate_targets_0 = \"generate_targets\")\n" +
+                  "load(\":dependencies_1.bzl\", _generate_workspace_rules_1 = \"generate_workspace_rules\", _generate_targets_1 = \"generate_targets\")\n" +
+                  "load(\":dependencies_2.bzl\", _generate_workspace_rules_2 = \"generate_workspace_rules\", _generate_targets_2 = \"generate_targets\")\n" +
+                  "\n" +
+                  "def generate_workspace_rules():\n" +
+                  "    \"\"\"\n" +
+                  "        Repository rules macro to load dependencies.\n" +
+                  "\n" +
+                  "        Must be run from a WORKSPACE file.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _generate_workspace_rules_0()\n" +
+                  "    _generate_workspace_rules_1()\n" +
+                  "    _generate_workspace_rules_2()\n" +
+                  "\n" +
+                  "def generate_targets():\n" +
+                  "    \"\"\"\n" +
+                  "        Macro to define targets for dependencies.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _generate_targets_0()\n" +
+                  "    _generate_targets_1()\n" +
+                  "    _generate_targets_2()\n" );
+
+    final ByteArrayOutputStream shard0 = new ByteArrayOutputStream();
+    record.writeBazelExtensionShard( new StarlarkOutput( shard0 ), 0 );
+    assertEquals( asCleanString( shard0, record.getSource().getConfigSha256(), uri.toString() ),
+                  "# DO NOT EDIT: File is auto-generated from dependencies.yml by https://github.com/realityforge/bazel-depgen version 1\n" +
+                  "\n" +
+                  "\"\"\"\n" +
+                  "    Macro rules to load the dependencies assigned to shard 0 of the extension.\n" +
+                  "\n" +
+                  "    Invoked by the macros in 'dependencies.bzl'.\n" +
+                  "\"\"\"\n" +
+                  "\n" +
+                  "def generate_workspace_rules():\n" +
+                  "    \"\"\"\n" +
+                  "        Repository rules macro to load dependencies.\n" +
+                  "\n" +
+                  "        Must be run from a WORKSPACE file.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "def generate_targets():\n" +
+                  "    \"\"\"\n" +
+                  "        Macro to define targets for dependencies.\n" +
+                  "    \"\"\"\n" );
+
+    final ByteArrayOutputStream shard1 = new ByteArrayOutputStream();
+    record.writeBazelExtensionShard( new StarlarkOutput( shard1 ), 1 );
+    assertEquals( asCleanString( shard1, record.getSource().getConfigSha256(), uri.toString() ),
+                  "# DO NOT EDIT: File is auto-generated from dependencies.yml by https://github.com/realityforge/bazel-depgen version 1\n" +
+                  "\n" +
+                  "\"\"\"\n" +
+                  "    Macro rules to load the dependencies assigned to shard 1 of the extension.\n" +
+                  "\n" +
+                  "    Invoked by the macros in 'dependencies.bzl'.\n" +
+                  "\"\"\"\n" +
+                  "\n" +
+                  "load(\"@bazel_tools//tools/build_defs/repo:http.bzl\", _http_file = \"http_file\")\n" +
+                  "load(\"@rules_java//java:defs.bzl\", _java_import = \"java_import\")\n" +
+                  "\n" +
+                  "def generate_workspace_rules():\n" +
+                  "    \"\"\"\n" +
+                  "        Repository rules macro to load dependencies.\n" +
+                  "\n" +
+                  "        Must be run from a WORKSPACE file.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _http_file(\n" +
+                  "        name = \"com_example__myapp__1_0\",\n" +
+                  "        downloaded_file_path = \"com/example/myapp/1.0/myapp-1.0.jar\",\n" +
+                  "        sha256 = \"e424b659cf9c9c4adf4c19a1cacdb13c0cbd78a79070817f433dbc2dade3c6d4\",\n" +
+                  "        urls = [\"MYURI/com/example/myapp/1.0/myapp-1.0.jar\"],\n" +
+                  "    )\n" +
+                  "\n" +
+                  "    _http_file(\n" +
+                  "        name = \"com_example__myapp__1_0__sources\",\n" +
+                  "        downloaded_file_path = \"com/example/myapp/1.0/myapp-1.0-sources.jar\",\n" +
+                  "        sha256 = \"e424b659cf9c9c4adf4c19a1cacdb13c0cbd78a79070817f433dbc2dade3c6d4\",\n" +
+                  "        urls = [\"MYURI/com/example/myapp/1.0/myapp-1.0-sources.jar\"],\n" +
+                  "    )\n" +
+                  "\n" +
+                  "def generate_targets():\n" +
+                  "    \"\"\"\n" +
+                  "        Macro to define targets for dependencies.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _java_import(\n" +
+                  "        name = \"com_example__myapp\",\n" +
+                  "        jars = [\"@com_example__myapp__1_0//file\"],\n" +
+                  "        srcjar = \"@com_example__myapp__1_0__sources//file\",\n" +
+                  "        tags = [\"maven_coordinates=com.example:myapp:1.0\"],\n" +
+                  "    )\n" );
+  }
+
+  @Test
+  public void writeBazelExtension_tableFormat()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final URI uri = dir.toUri();
+
+    writeConfigFile( dir,
+                     "options:\n" +
+                     "  verifyConfigSha256: false\n" +
+                     "  emitDependencyGraph: false\n" +
+                     "  supportDependencyOmit: true\n" +
+                     "  extensionFormat: Table\n" +
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" );
+    deployArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final ApplicationRecord record = loadApplicationRecord();
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    record.writeBazelExtension( new StarlarkOutput( outputStream ) );
+    assertEquals( asCleanString( outputStream, record.getSource().getConfigSha256(), uri.toString() ),
+                  "# DO NOT EDIT: File is auto-generated from dependencies.yml by https://github.com/realityforge/bazel-depgen version 1\n" +
+                  "\n" +
+                  "\"\"\"\n" +
+                  "    Macro rules to load dependencies.\n" +
+                  "\n" +
+                  "    Invoke 'generate_workspace_rules' from a WORKSPACE file.\n" +
+                  "    Invoke 'generate_targets' from a BUILD.bazel file.\n" +
+                  "\"\"\"\n" +
+                  "load(\"@bazel_tools//tools/build_defs/repo:http.bzl\", _http_file = \"http_file\")\n" +
+                  "load(\"@rules_java//java:defs.bzl\", _java_import = \"java_import\")\n" +
+                  "\n" +
+                  "def _define_repositories(\n" +
+                  "        repositories,\n" +
+                  "        omit):\n" +
+                  "    \"\"\"\n" +
+                  "        Define the repository rules described by the table unless omitted.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    for key in omit:\n" +
+                  "        if not key.startswith(\"omit_\") or key[5:] not in repositories:\n" +
+                  "            fail(\"Unexpected argument '%s'\" % key)\n" +
+                  "    for symbol, files in repositories.items():\n" +
+                  "        if not omit.get(\"omit_\" + symbol, False):\n" +
+                  "            for name, downloaded_file_path, sha256, urls, js_assets in files:\n" +
+                  "                _http_file(\n" +
+                  "                    name = name,\n" +
+                  "                    downloaded_file_path = downloaded_file_path,\n" +
+                  "                    sha256 = sha256,\n" +
+                  "                    urls = urls,\n" +
+                  "                )\n" +
+                  "\n" +
+                  "def _define_rules(\n" +
+                  "        rules,\n" +
+                  "        omit):\n" +
+                  "    \"\"\"\n" +
+                  "        Define the rules described by the table unless omitted.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    for key in omit:\n" +
+                  "        if not key.startswith(\"omit_\") or key[5:] not in rules:\n" +
+                  "            fail(\"Unexpected argument '%s'\" % key)\n" +
+                  "    for symbol, entries in rules.items():\n" +
+                  "        if not omit.get(\"omit_\" + symbol, False):\n" +
+                  "            for function, arguments in entries:\n" +
+                  "                function(**arguments)\n" +
+                  "\n" +
+                  "# The files downloaded for each dependency, keyed by the symbol of the dependency\n" +
+                  "_REPOSITORY_RULES = {\n" +
+                  "    \"com_example__myapp\": [\n" +
+                  "        (\"com_example__myapp__1_0\", \"com/example/myapp/1.0/myapp-1.0.jar\", \"e424b659cf9c9c4adf4c19a1cacdb13c0cbd78a79070817f433dbc2dade3c6d4\", [\"MYURI/com/example/myapp/1.0/myapp-1.0.jar\"], None),\n" +
+                  "        (\"com_example__myapp__1_0__sources\", \"com/example/myapp/1.0/myapp-1.0-sources.jar\", \"e424b659cf9c9c4adf4c19a1cacdb13c0cbd78a79070817f433dbc2dade3c6d4\", [\"MYURI/com/example/myapp/1.0/myapp-1.0-sources.jar\"], None),\n" +
+                  "    ],\n" +
+                  "}\n" +
+                  "\n" +
+                  "def generate_workspace_rules(**kwargs):\n" +
+                  "    \"\"\"\n" +
+                  "        Repository rules macro to load dependencies.\n" +
+                  "\n" +
+                  "        Must be run from a WORKSPACE file.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _define_repositories(_REPOSITORY_RULES, kwargs)\n" +
+                  "\n" +
+                  "# The targets for each dependency, keyed by the symbol of the dependency\n" +
+                  "_TARGET_RULES = {\n" +
+                  "    \"com_example__myapp\": [\n" +
+                  "        (_java_import, {\"name\": \"com_example__myapp\", \"jars\": [\"@com_example__myapp__1_0//file\"], \"srcjar\": \"@com_example__myapp__1_0__sources//file\", \"tags\": [\"maven_coordinates=com.example:myapp:1.0\"]}),\n" +
+                  "    ],\n" +
+                  "}\n" +
+                  "\n" +
+                  "def generate_targets(**kwargs):\n" +
+                  "    \"\"\"\n" +
+                  "        Macro to define targets for dependencies.\n" +
+                  "    \"\"\"\n" +
+                  "\n" +
+                  "    _define_rules(_TARGET_RULES, kwargs)\n" );
+  }
+
+  @Test
+  public void writeBazelExtension_tableFormat_jsAssets()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final URI uri = dir.toUri();
+
+    writeConfigFile( dir,
+                     "options:\n" +
+                     "  verifyConfigSha256: false\n" +
+                     "  emitDependencyGraph: false\n" +
+                     "  extensionFormat: Table\n" +
+                     "artifacts:\n" +
+                     "  - coord: com.example:myapp:1.0\n" +
+                     "    natures: [J2cl]\n" );
+    final Path jarFile = createJarFile( "foo.js", "" );
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:jar:sources:1.0", jarFile );
+    deployTempArtifactToLocalRepository( dir, "com.example:myapp:1.0" );
+
+    final ApplicationRecord record = loadApplicationRecord();
+
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    record.writeBazelExtension( new StarlarkOutput( outputStream ) );
+    final String output = asCleanString( outputStream, record.getSource().getConfigSha256(), uri.toString() );
+    assertTrue( output.contains( "            for name, downloaded_file_path, sha256, urls, js_assets in files:\n" +
+                                 "                if js_assets == None:\n" +
+                                 "                    _http_file(\n" +
+                                 "                        name = name,\n" +
+                                 "                        downloaded_file_path = downloaded_file_path,\n" +
+                                 "                        sha256 = sha256,\n" +
+                                 "                        urls = urls,\n" +
+                                 "                    )\n" +
+                                 "                else:\n" +
+                                 "                    _http_archive(\n" +
+                                 "                        name = name,\n" +
+                                 "                        sha256 = sha256,\n" +
+                                 "                        urls = urls,\n" +
+                                 "                        build_file_content = \"filegroup(name = \\\"srcs\\\", " +
+                                 "visibility = [\\\"//visibility:public\\\"], srcs = %s)\\n\" % repr(js_assets),\n" +
+                                 "                    )\n" ) );
+    assertTrue( output.contains( "        (\"com_example__myapp__1_0__js_sources\", None, \"" ) );
+    assertTrue( output.contains( "[\"MYURI/com/example/myapp/1.0/myapp-1.0-sources.jar\"], [\"foo.js\"]),\n" ) );
+    assertTrue( output.contains( "    _define_repositories(_REPOSITORY_RULES, {})\n" ) );
+  }
+
   @Test
   public void writeBazelExtension_j2clArtifactPresent()
     throws Exception
@@ -3275,8 +3632,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3403,8 +3761,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3573,8 +3932,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3732,8 +4092,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -3861,8 +4222,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -4018,8 +4380,9 @@ public class ApplicationRecordTest
                   "        name = \"verify_config_sha256\",\n" +
                   "        size = \"small\",\n" +
                   "        runtime_deps = [\":org_realityforge_bazel_depgen__bazel_depgen\"],\n" +
-                  "        main_class = \"org.realityforge.bazel.depgen.Main\",\n" +
+                  "        main_class = \"org.realityforge.bazel.depgen.HashMain\",\n" +
                   "        use_testrunner = False,\n" +
+                  "        jvm_flags = [\"-XX:TieredStopAtLevel=1\"],\n" +
                   "        args = [\n" +
                   "            \"--config-file\",\n" +
                   "            \"$(rootpath //thirdparty:dependencies.yml)\",\n" +
@@ -4,7 +4,9 @@ import gir.io.FileUtil;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import org.realityforge.bazel.depgen.AbstractTest;
+import org.realityforge.bazel.depgen.DepgenException;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
@@ -18,6 +20,41 @@ public class BazelUtilTest
     assertEquals( BazelUtil.cleanNamePart( "com.example:My-App:22-RC1" ), "com_example_my_app_22_rc1" );
   }
 
+  @Test
+  public void parseBazelInfo()
+  {
+    final BazelInfo info =
+      BazelUtil.parseBazelInfo( "output_base: /home/user/.cache/bazel/_bazel_user/1234\n" +
+                                "repository_cache: /home/user/.cache/bazel/_bazel_user/cache/repos/v1\n" );
+    assertEquals( info.getOutputBase(), Paths.get( "/home/user/.cache/bazel/_bazel_user/1234" ) );
+    assertEquals( info.getRepositoryCache(), Paths.get( "/home/user/.cache/bazel/_bazel_user/cache/repos/v1" ) );
+  }
+
+  @Test
+  public void parseBazelInfo_badOutput()
+  {
+    final DepgenException exception =
+      expectThrows( DepgenException.class, () -> BazelUtil.parseBazelInfo( "/home/user/.cache/bazel\n" ) );
+    assertEquals( exception.getMessage(), "Unable to parse the output of bazel info: /home/user/.cache/bazel\n" );
+  }
+
+  @Test
+  public void getBazelInfo()
+    throws Exception
+  {
+    // These tests assume that there is no WORKSPACE in parent directory from isolated directory
+    // They also assume that bazel is present on build machine
+    final Path cwd = FileUtil.getCurrentDirectory();
+    final Path dir = FileUtil.createLocalTempDir();
+    FileUtil.write( "WORKSPACE", "" );
+    writeBazelrc( dir );
+    final BazelInfo info = BazelUtil.getBazelInfo( cwd.toFile() );
+    assertNotNull( info.getOutputBase() );
+    final Path repositoryCache = info.getRepositoryCache();
+    assertNotNull( repositoryCache );
+    assertEquals( repositoryCache.toAbsolutePath().normalize(), dir );
+  }
+
   @Test
   public void getDefaultRepositoryCache()
   {
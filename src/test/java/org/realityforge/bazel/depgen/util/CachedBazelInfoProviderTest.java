@@ -0,0 +1,100 @@
+package org.realityforge.bazel.depgen.util;
+
+import gir.io.FileUtil;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.realityforge.bazel.depgen.AbstractTest;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public class CachedBazelInfoProviderTest
+  extends AbstractTest
+{
+  @Test
+  public void getBazelInfo()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path workspace = FileUtil.createLocalTempDir();
+    final Path outputBase = FileUtil.createLocalTempDir();
+    final Path repositoryCache = FileUtil.createLocalTempDir();
+    Files.write( workspace.resolve( "WORKSPACE" ), new byte[ 0 ] );
+    final Path subDirectory = workspace.resolve( "thirdparty" );
+    Files.createDirectories( subDirectory );
+
+    final AtomicInteger callCount = new AtomicInteger();
+    final BazelInfoProvider delegate = directory -> {
+      callCount.incrementAndGet();
+      return new BazelInfo( outputBase, repositoryCache );
+    };
+
+    final BazelInfo info1 = new CachedBazelInfoProvider( cacheDir, delegate ).getBazelInfo( workspace );
+    assertEquals( info1.getOutputBase(), outputBase );
+    assertEquals( info1.getRepositoryCache(), repositoryCache );
+    assertEquals( callCount.get(), 1 );
+
+    // The memoized value is shared by every directory in the workspace and across providers
+    final BazelInfo info2 = new CachedBazelInfoProvider( cacheDir, delegate ).getBazelInfo( subDirectory );
+    assertEquals( info2.getOutputBase(), outputBase );
+    assertEquals( info2.getRepositoryCache(), repositoryCache );
+    assertEquals( callCount.get(), 1 );
+
+    // Changing the bazel version invalidates the memoized value
+    Files.write( workspace.resolve( ".bazelversion" ), "7.1.0\n".getBytes( StandardCharsets.US_ASCII ) );
+    new CachedBazelInfoProvider( cacheDir, delegate ).getBazelInfo( workspace );
+    assertEquals( callCount.get(), 2 );
+    new CachedBazelInfoProvider( cacheDir, delegate ).getBazelInfo( workspace );
+    assertEquals( callCount.get(), 2 );
+
+    // Removing the output base invalidates the memoized value
+    Files.delete( outputBase );
+    new CachedBazelInfoProvider( cacheDir, delegate ).getBazelInfo( workspace );
+    assertEquals( callCount.get(), 3 );
+  }
+
+  @Test
+  public void getBazelInfo_repositoryCacheNotDetermined()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path workspace = FileUtil.createLocalTempDir();
+    Files.write( workspace.resolve( "WORKSPACE" ), new byte[ 0 ] );
+
+    final AtomicInteger callCount = new AtomicInteger();
+    final BazelInfoProvider delegate = directory -> {
+      callCount.incrementAndGet();
+      return new BazelInfo( null, null );
+    };
+
+    final CachedBazelInfoProvider provider = new CachedBazelInfoProvider( cacheDir, delegate );
+    assertNull( provider.getBazelInfo( workspace ).getRepositoryCache() );
+    assertNull( provider.getBazelInfo( workspace ).getRepositoryCache() );
+    // Failures are not memoized
+    assertEquals( callCount.get(), 2 );
+  }
+
+  @Test
+  public void getBazelInfo_bazelNotQueried()
+    throws Exception
+  {
+    final Path cacheDir = FileUtil.createLocalTempDir();
+    final Path workspace = FileUtil.createLocalTempDir();
+    final Path repositoryCache = FileUtil.createLocalTempDir();
+    Files.write( workspace.resolve( "WORKSPACE" ), new byte[ 0 ] );
+
+    // The delegate falls back to the default repository cache when bazel can not be queried
+    final AtomicInteger callCount = new AtomicInteger();
+    final BazelInfoProvider delegate = directory -> {
+      callCount.incrementAndGet();
+      return new BazelInfo( null, repositoryCache );
+    };
+
+    final CachedBazelInfoProvider provider = new CachedBazelInfoProvider( cacheDir, delegate );
+    assertEquals( provider.getBazelInfo( workspace ).getRepositoryCache(), repositoryCache );
+    assertEquals( provider.getBazelInfo( workspace ).getRepositoryCache(), repositoryCache );
+    // The fallback is not memoized
+    assertEquals( callCount.get(), 2 );
+  }
+}
@@ -1,5 +1,8 @@
 package org.realityforge.bazel.depgen.util;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
 import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
@@ -13,4 +16,29 @@ public class HashUtilTest
     assertEquals( HashUtil.sha256( new byte[]{ 1, 2, 3, 4 }, new byte[]{ 5, 6 } ),
                   "7192385C3C0605DE55BB9476CE1D90748190ECB32A8EED7F5207B30CF6A1FE89" );
   }
+
+  @Test
+  public void sha256_file()
+    throws Exception
+  {
+    final Path file = Files.createTempFile( "hash", ".bin" );
+    try
+    {
+      Files.write( file, new byte[]{ 1, 2, 3, 4 } );
+      assertEquals( HashUtil.sha256( file ), "9F64A747E1B97F131FABB6B447296C9B6F0201E79FB3C5356E6C77E89B6A806A" );
+
+      // Content larger than the buffer used to stream the file
+      final byte[] data = new byte[ 300 * 1024 ];
+      new Random( 42 ).nextBytes( data );
+      Files.write( file, data );
+      assertEquals( HashUtil.sha256( file ), HashUtil.sha256( data ) );
+
+      // Ensure the digest is reset between invocations
+      assertEquals( HashUtil.sha256( file ), HashUtil.sha256( data ) );
+    }
+    finally
+    {
+      Files.delete( file );
+    }
+  }
 }
@@ -0,0 +1,65 @@
+package org.realityforge.bazel.depgen.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+public class ParallelUtilTest
+{
+  @Test
+  public void map()
+  {
+    final Set<String> threads = ConcurrentHashMap.newKeySet();
+    final List<Integer> results =
+      ParallelUtil.map( Arrays.asList( 5, 4, 3, 2, 1 ), 3, v -> {
+        threads.add( Thread.currentThread().getName() );
+        try
+        {
+          // Ensure later inputs complete before earlier inputs
+          Thread.sleep( v * 10L );
+        }
+        catch ( final InterruptedException ignored )
+        {
+        }
+        return v * 2;
+      } );
+
+    assertEquals( results, Arrays.asList( 10, 8, 6, 4, 2 ) );
+    assertTrue( threads.size() <= 3 );
+    assertFalse( threads.contains( Thread.currentThread().getName() ) );
+  }
+
+  @Test
+  public void map_sequential()
+  {
+    final Set<String> threads = ConcurrentHashMap.newKeySet();
+    final List<Integer> results =
+      ParallelUtil.map( Arrays.asList( 1, 2, 3 ), 1, v -> {
+        threads.add( Thread.currentThread().getName() );
+        return v + 1;
+      } );
+
+    assertEquals( results, Arrays.asList( 2, 3, 4 ) );
+    assertEquals( threads, Collections.singleton( Thread.currentThread().getName() ) );
+  }
+
+  @Test
+  public void map_rethrowsEarliestException()
+  {
+    final IllegalStateException exception =
+      expectThrows( IllegalStateException.class,
+                    () -> ParallelUtil.map( Arrays.asList( 1, 2, 3, 4 ), 4, v -> {
+                      if ( v >= 2 )
+                      {
+                        throw new IllegalStateException( "Bad " + v );
+                      }
+                      return v;
+                    } ) );
+
+    assertEquals( exception.getMessage(), "Bad 2" );
+  }
+}
@@ -1,12 +1,16 @@
 package org.realityforge.bazel.depgen.util;
 
 import gir.io.FileUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import org.realityforge.bazel.depgen.AbstractTest;
 import org.testng.annotations.Test;
@@ -253,6 +257,192 @@ public class StarlarkOutputTest
                        "            baz = \"yes\"):\n" );
   }
 
+  @Test
+  public void write_longLine()
+    throws Exception
+  {
+    final char[] chars = new char[ 100_000 ];
+    Arrays.fill( chars, 'x' );
+    final String line = new String( chars );
+    final Path file =
+      writeFileContent( output -> {
+        output.incIndent();
+        output.write( line );
+        output.decIndent();
+        output.write( line );
+      } );
+
+    assertFileContent( file, "    " + line + "\n" + line + "\n" );
+  }
+
+  @Test
+  public void write_nonAsciiCharacters()
+    throws Exception
+  {
+    final Path file = writeFileContent( output -> output.write( "# caf\u00e9 \uD83D\uDE00!" ) );
+
+    assertFileContent( file, "# caf? ?!\n" );
+  }
+
+  @Test
+  public void write_toOutputStream()
+    throws Exception
+  {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final StarlarkOutput output = new StarlarkOutput( outputStream );
+    output.write( "A" );
+
+    // Lines are visible in the stream before the output is closed
+    assertEquals( new String( outputStream.toByteArray(), StandardCharsets.US_ASCII ), "A\n" );
+  }
+
+  @Test
+  public void writeFragment()
+    throws Exception
+  {
+    final Path file =
+      writeFileContent( output -> {
+        output.incIndent();
+        final byte[] fragment1 = output.renderFragment( o -> o.writeIfCondition( "x", c -> c.write( "a()" ) ) );
+        final byte[] fragment2 = output.renderFragment( o -> o.write( "b()" ) );
+        output.write( "c()" );
+        output.writeFragment( fragment2 );
+        output.writeFragment( fragment1 );
+        output.decIndent();
+        output.write( "d()" );
+      } );
+
+    assertFileContent( file,
+                       "    c()\n" +
+                       "    b()\n" +
+                       "    if x:\n" +
+                       "        a()\n" +
+                       "d()\n" );
+  }
+
+  @Test
+  public void writeTableFragment()
+    throws Exception
+  {
+    final Path file =
+      writeFileContent( output -> {
+        output.incIndent();
+        final byte[] fragment = output.renderTableFragment( o -> {
+          final LinkedHashMap<String, Object> arguments = new LinkedHashMap<>();
+          arguments.put( "name", "'com_biz__myartifact'" );
+          arguments.put( "visibility", Collections.singletonList( "'//visibility:public'" ) );
+          arguments.put( "deps", Arrays.asList( "':a'", "':b'" ) );
+          arguments.put( "neverlink", Boolean.TRUE );
+          arguments.put( "testonly", Boolean.FALSE );
+          arguments.put( "srcjar", null );
+          o.writeCall( "myFunction", arguments );
+          o.newLine();
+          o.writeCall( "myOtherFunction", new LinkedHashMap<>() );
+        } );
+        output.write( "a = [" );
+        output.writeFragment( fragment );
+        output.write( "]" );
+        output.decIndent();
+      } );
+
+    assertFileContent( file,
+                       "    a = [\n" +
+                       "    (myFunction, {\"name\": 'com_biz__myartifact', " +
+                       "\"visibility\": ['//visibility:public'], \"deps\": [':a', ':b'], " +
+                       "\"neverlink\": True, \"testonly\": False, \"srcjar\": None}),\n" +
+                       "    (myOtherFunction, {}),\n" +
+                       "    ]\n" );
+  }
+
+  @Test
+  public void writeTableRow()
+    throws Exception
+  {
+    final Path file =
+      writeFileContent( output -> {
+        output.write( "a = [" );
+        output.incIndent();
+        output.writeTableRow( Arrays.asList( "'com_biz__myartifact'",
+                                             Arrays.asList( "':a'", "':b'" ),
+                                             null,
+                                             Boolean.TRUE ) );
+        output.writeTableRow( Arrays.asList( "'com_biz__other'", Collections.emptyList(), Boolean.FALSE ) );
+        output.decIndent();
+        output.write( "]" );
+      } );
+
+    assertFileContent( file,
+                       "a = [\n" +
+                       "    ('com_biz__myartifact', [':a', ':b'], None, True),\n" +
+                       "    ('com_biz__other', [], False),\n" +
+                       "]\n" );
+  }
+
+  @Test
+  public void close_retainsUnchangedFile()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( "file.bzl" );
+    final FileTime lastModifiedTime = FileTime.fromMillis( 1000L );
+
+    final StarlarkOutput output1 = new StarlarkOutput( file );
+    output1.write( "A" );
+    output1.commit();
+    output1.close();
+    assertTrue( output1.isChanged() );
+    assertFileContent( file, "A\n" );
+    Files.setLastModifiedTime( file, lastModifiedTime );
+
+    final StarlarkOutput output2 = new StarlarkOutput( file );
+    output2.write( "A" );
+    output2.commit();
+    output2.close();
+    assertFalse( output2.isChanged() );
+    assertEquals( Files.getLastModifiedTime( file ), lastModifiedTime );
+
+    final StarlarkOutput output3 = new StarlarkOutput( file );
+    output3.write( "B" );
+    output3.commit();
+    output3.close();
+    assertTrue( output3.isChanged() );
+    assertFileContent( file, "B\n" );
+    assertNotEquals( Files.getLastModifiedTime( file ), lastModifiedTime );
+
+    // No temporary files are left behind
+    try ( final Stream<Path> files = Files.list( dir ) )
+    {
+      assertEquals( files.count(), 1L );
+    }
+  }
+
+  @Test
+  public void close_withoutCommitRetainsExistingFile()
+    throws Exception
+  {
+    final Path dir = FileUtil.createLocalTempDir();
+    final Path file = dir.resolve( "file.bzl" );
+    Files.write( file, "A\n".getBytes( StandardCharsets.US_ASCII ) );
+
+    // An error while rendering leaves the output uncommitted
+    final IOException exception =
+      expectThrows( IOException.class, () -> {
+        try ( final StarlarkOutput output = new StarlarkOutput( file ) )
+        {
+          output.write( "B" );
+          throw new IOException( "Rendering failed" );
+        }
+      } );
+    assertEquals( exception.getMessage(), "Rendering failed" );
+
+    assertFileContent( file, "A\n" );
+    // The temporary file is removed
+    try ( final Stream<Path> files = Files.list( dir ) )
+    {
+      assertEquals( files.count(), 1L );
+    }
+  }
+
   @FunctionalInterface
   interface WriterCallback
   {
@@ -267,6 +457,7 @@ public class StarlarkOutputTest
     final Path file = FileUtil.createLocalTempDir().resolve( "file.bzl" );
     final StarlarkOutput output = new StarlarkOutput( file );
     callback.process( output );
+    output.commit();
     output.close();
     return file;
   }